@@ -56,7 +56,11 @@ FROM session_policy_state
 GROUP BY cell_id,policy_name;
 
 --
--- Stream to record usage by session.
+-- Stream to record usage by session. A row can also be a pre-aggregated
+-- summary of many reports for a cell and policy, in which case sessionId is -1,
+-- usage_count is how many reports it stands for and max_usage_amount is the
+-- biggest of them. For a single report usage_count is 1 and max_usage_amount
+-- is usage_amount.
 --
 CREATE STREAM cell_activity PARTITION ON COLUMN cell_id 
 (cell_id bigint not null 
@@ -64,7 +68,9 @@ CREATE STREAM cell_activity PARTITION ON COLUMN cell_id
 ,sessionStartUTC timestamp not null
 ,policy_name  varchar(30) not null 
 ,usage_amount bigint not null 
-,usage_timestamp timestamp not null);
+,usage_timestamp timestamp not null
+,usage_count bigint not null
+,max_usage_amount bigint not null);
 
 --
 -- View that calculates usage by policy per cell
@@ -74,8 +80,9 @@ SELECT cell_id
      , TRUNCATE(MINUTE, usage_timestamp) usage_timestamp
      , policy_name 
      , sum(usage_amount) total_usage_amount
-     , max(usage_amount) max_per_user_usage_amount
-     , count(*) how_many 
+     , max(max_usage_amount) max_per_user_usage_amount
+     , sum(usage_count) how_many 
+     , count(*) activity_rows
 FROM cell_activity
 GROUP BY cell_id
      , TRUNCATE(MINUTE, usage_timestamp) 
@@ -110,7 +117,8 @@ PARTITION ON COLUMN cell_id
 ,sessionStartUTC timestamp not null
 ,changeTimestamp timestamp not null
 ,cell_id bigint not null 
-,new_limit bigint not null);
+,new_limit bigint not null
+,decision_timestamp timestamp not null);
 
 --CREATE TOPIC USING STREAM policy_change_session_messages PROFILE daily;
 
@@ -133,6 +141,29 @@ PARTITION ON COLUMN thing_id
 
 --CREATE TOPIC USING STREAM console_messages PROFILE daily;
 
+--
+-- The same things as console_messages, but as numbers instead of text. Which
+-- one procedures use depends on the CONSOLE_EVENTS parameter. event_code is
+-- one of the codes in policysandbox.ConsoleEvent. Columns that don't apply to
+-- an event are null.
+--
+CREATE STREAM console_events 
+EXPORT TO TOPIC console_events WITH KEY (cell_id,event_date)
+PARTITION ON COLUMN cell_id 
+(cell_id bigint not null 
+,event_date timestamp not null
+,event_code tinyint not null
+,policy_name varchar(30)
+,old_limit bigint
+,new_limit bigint
+,pct_full bigint
+,pct_change bigint
+,user_count bigint
+,avg_per_user bigint
+,change_timestamp timestamp);
+
+--CREATE TOPIC USING STREAM console_events PROFILE daily;
+
 DROP PROCEDURE findbusycells IF EXISTS;
 
 create procedure findbusycells AS
@@ -160,24 +191,58 @@ SELECT cas.cell_id
      AND   cas.usage_timestamp = TRUNCATE(MINUTE, DATEADD(MINUTE,-1,NOW))    
      ORDER BY cas.cell_id, cas.policy_name, cas.total_usage_amount, palbc.current_limit_per_user ; 
 
+DROP PROCEDURE GetPolicyLimitsByCell IF EXISTS;
+
+CREATE PROCEDURE GetPolicyLimitsByCell
+   PARTITION ON TABLE policy_active_limits_by_cell COLUMN cell_id
+AS
+SELECT cell_id, policy_name, current_limit_per_user, last_update_date 
+FROM   policy_active_limits_by_cell
+WHERE  cell_id = ?
+ORDER BY policy_name;
+
 DROP PROCEDURE ReportNewSession IF EXISTS;
 
 CREATE PROCEDURE  
    PARTITION ON TABLE session_policy_state COLUMN cell_id
    FROM CLASS policysandbox.ReportNewSession;  
    
+DROP PROCEDURE ReportNewSessionBatch IF EXISTS;
+
+CREATE PROCEDURE  
+   PARTITION ON TABLE session_policy_state COLUMN cell_id
+   FROM CLASS policysandbox.ReportNewSessionBatch;  
+   
 DROP PROCEDURE ReportEndSession IF EXISTS;
 
 CREATE PROCEDURE  
    PARTITION ON TABLE session_policy_state COLUMN cell_id
    FROM CLASS policysandbox.ReportEndSession;  
    
+DROP PROCEDURE ReportEndSessionBatch IF EXISTS;
+
+CREATE PROCEDURE  
+   PARTITION ON TABLE session_policy_state COLUMN cell_id
+   FROM CLASS policysandbox.ReportEndSessionBatch;  
+   
 DROP PROCEDURE ReportSessionUsage IF EXISTS;
 
 CREATE PROCEDURE  
    PARTITION ON TABLE session_policy_state COLUMN cell_id
    FROM CLASS policysandbox.ReportSessionUsage;  
    
+DROP PROCEDURE ReportSessionUsageBatch IF EXISTS;
+
+CREATE PROCEDURE  
+   PARTITION ON TABLE session_policy_state COLUMN cell_id
+   FROM CLASS policysandbox.ReportSessionUsageBatch;  
+   
+DROP PROCEDURE ReportAggregatedUsage IF EXISTS;
+
+CREATE PROCEDURE  
+   PARTITION ON TABLE session_policy_state COLUMN cell_id
+   FROM CLASS policysandbox.ReportAggregatedUsage;  
+   
 DROP PROCEDURE ChangePolicies IF EXISTS;
 
 CREATE PROCEDURE 
@@ -342,6 +407,11 @@ upsert into policy_parameters
 VALUES
 ('MAX_PCT_PER_STEPPED_CHANGE',3);
 
+upsert into policy_parameters
+(parameter_name ,parameter_value)
+VALUES
+('CONSOLE_EVENTS',1);
+
 
 
 UPSERT INTO available_policies
@@ -7,12 +7,22 @@ DROP PROCEDURE ShowPolicyStatus__promBL IF EXISTS;
 
 DROP PROCEDURE findbusycells IF EXISTS;
 
+DROP PROCEDURE GetPolicyLimitsByCell IF EXISTS;
+
 DROP PROCEDURE ReportNewSession IF EXISTS;
    
+DROP PROCEDURE ReportNewSessionBatch IF EXISTS;
+   
 DROP PROCEDURE ReportEndSession IF EXISTS;
    
+DROP PROCEDURE ReportEndSessionBatch IF EXISTS;
+   
 DROP PROCEDURE ReportSessionUsage IF EXISTS;
    
+DROP PROCEDURE ReportSessionUsageBatch IF EXISTS;
+   
+DROP PROCEDURE ReportAggregatedUsage IF EXISTS;
+   
 DROP PROCEDURE ChangePolicies IF EXISTS;
 
 DROP PROCEDURE SteppedPolicyChange IF EXISTS;
@@ -41,6 +51,8 @@ DROP STREAM policy_change_session_messages IF EXISTS;
 
 DROP STREAM console_messages IF EXISTS;
 
+DROP STREAM console_events IF EXISTS;
+
 
 
 
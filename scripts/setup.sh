@@ -7,4 +7,14 @@ cd voltdb-policysandbox/scripts
 $HOME/bin/reload_dashboards.sh Policy.json
 
 sqlcmd --servers=vdb1 < ../ddl/voltdb-policysandbox-createDB.sql
-java ${JVMOPTS} -jar $HOME/bin/addtodeploymentdotxml.jar vdb1 deployment topics.xml
+
+# POLICY_EXPORT_FORMAT=avro exports policy changes as Avro instead of CSV
+TOPICSXML=topics.xml
+
+if
+	[ "${POLICY_EXPORT_FORMAT}" = "avro" ]
+then
+	TOPICSXML=topics-avro.xml
+fi
+
+java ${JVMOPTS} -jar $HOME/bin/addtodeploymentdotxml.jar vdb1 deployment ${TOPICSXML}
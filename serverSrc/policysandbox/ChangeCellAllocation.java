@@ -24,7 +24,6 @@ package policysandbox;
  */
 
 import org.voltdb.SQLStmt;
-import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.types.TimestampType;
 
@@ -32,7 +31,7 @@ import org.voltdb.types.TimestampType;
 * This redistributes  capacity within a cell
  *
  */
-public class ChangeCellAllocation extends VoltProcedure {
+public class ChangeCellAllocation extends PolicyConfigProcedure {
 
     // @formatter:off
     
@@ -54,6 +53,12 @@ public class ChangeCellAllocation extends VoltProcedure {
             "INSERT INTO console_messages  " +
                     "(thing_id,message_date,message_text) VALUES " +
                      "(?,NOW,?);");
+
+    public static final SQLStmt sendEventToConsole = new SQLStmt(
+            "INSERT INTO console_events  " +
+                    "(cell_id,event_date,event_code,policy_name,old_limit,new_limit" +
+                    ",pct_full,pct_change,user_count,avg_per_user,change_timestamp) VALUES " +
+                     "(?,NOW,?,?,?,?,?,?,?,?,?);");
  
     public static final SQLStmt getCellPolicies = new SQLStmt(
             "SELECT CELL_ID, POLICY_NAME, CURRENT_LIMIT_PER_CELL, CURRENT_LIMIT_PER_USER "
@@ -80,9 +85,13 @@ public class ChangeCellAllocation extends VoltProcedure {
 
         voltQueueSQL(getPolicyAndCell,EXPECT_ONE_ROW, fromPolicy,cellId);
         voltQueueSQL(getPolicyAndCell,EXPECT_ONE_ROW,toPolicy,cellId);
+        queueConfigReads(false);
 
         VoltTable[] queryResults = voltExecuteSQL();
 
+        final PolicyConfig config = new PolicyConfig(queryResults[2]);
+        final boolean consoleEvents = config.getParameter(ConsoleEvent.CONSOLE_EVENTS_PARAMETER, false);
+
         VoltTable fromPolicyResult = queryResults[0];
         
         @SuppressWarnings("unused")
@@ -92,13 +101,23 @@ public class ChangeCellAllocation extends VoltProcedure {
         long currentFromLimit = fromPolicyResult.getLong("current_limit_per_cell");
         
         if (currentFromLimit < amount) {
-            voltQueueSQL(sendMessageToConsole,cellId,"Current 'from' is " + currentFromLimit
-                    + ". Can't reduce by " + amount);
+            if (consoleEvents) {
+                voltQueueSQL(sendEventToConsole, cellId, ConsoleEvent.CELL_ALLOCATION_REFUSED, fromPolicy,
+                        currentFromLimit, currentFromLimit - amount, null, null, null, null, null);
+            } else {
+                voltQueueSQL(sendMessageToConsole,cellId,"Current 'from' is " + currentFromLimit
+                        + ". Can't reduce by " + amount);
+            }
         } else {
             voltQueueSQL(updatePolicyAndCell,(amount * -1), fromPolicy,cellId);
             voltQueueSQL(updatePolicyAndCell,amount , toPolicy,cellId);
-            voltQueueSQL(sendMessageToConsole,cellId,"Current 'from' is " + currentFromLimit
-                    + ". Reduced by " + amount);
+            if (consoleEvents) {
+                voltQueueSQL(sendEventToConsole, cellId, ConsoleEvent.CELL_ALLOCATION_MOVED, fromPolicy,
+                        currentFromLimit, currentFromLimit - amount, null, null, null, null, null);
+            } else {
+                voltQueueSQL(sendMessageToConsole,cellId,"Current 'from' is " + currentFromLimit
+                        + ". Reduced by " + amount);
+            }
         }
         
         voltQueueSQL(getCellPolicies, cellId);
@@ -106,7 +125,5 @@ public class ChangeCellAllocation extends VoltProcedure {
         return voltExecuteSQL(true);
 
     }
-    
- 
-   
+
 }
@@ -24,7 +24,6 @@ package policysandbox;
  */
 
 import org.voltdb.SQLStmt;
-import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.types.TimestampType;
 
@@ -36,12 +35,9 @@ import org.voltdb.types.TimestampType;
  * SHRINK_PCT
  *
  */
-public class ChangePolicies extends VoltProcedure {
+public class ChangePolicies extends PolicyConfigProcedure {
 
     // @formatter:off
-    
-    public static final SQLStmt getParameter = new SQLStmt(
-            "SELECT parameter_value FROM policy_parameters WHERE parameter_name = ? ;");
        
     public static final SQLStmt findOverloadedCells 
     = new SQLStmt("SELECT cas.cell_id, cas.policy_name, cas.total_usage_amount"
@@ -109,11 +105,12 @@ public class ChangePolicies extends VoltProcedure {
                     " sessionStartUTC,"
                     + "changeTimestamp, " +
                     " cell_id, "
-                    + " new_limit)  " +
+                    + " new_limit, "
+                    + " decision_timestamp)  " +
                     "SELECT sessionId, "
                     + " sessionStartUTC, "
                     + " NOW, "
-                    + " cell_id, CAST(? AS BIGINT) "
+                    + " cell_id, CAST(? AS BIGINT), NOW "
                     + "FROM session_policy_state "
                     + "WHERE cell_id = ? "
                     + "AND   policy_name = ?; ");
@@ -123,42 +120,35 @@ public class ChangePolicies extends VoltProcedure {
             "INSERT INTO console_messages  " +
                     "(thing_id,message_date,message_text) VALUES " +
                      "(?,NOW,?);");
+
+    public static final SQLStmt sendEventToConsole = new SQLStmt(
+            "INSERT INTO console_events  " +
+                    "(cell_id,event_date,event_code,policy_name,old_limit,new_limit" +
+                    ",pct_full,pct_change,user_count,avg_per_user,change_timestamp) VALUES " +
+                     "(?,NOW,?,?,?,?,?,?,?,?,?);");
    
 
     // @formatter:on
 
     public VoltTable[] run() throws VoltAbortException {
 
-        long growPct = 5;
-        long shrinkPct = 0;
-        long panicShrinkPct = 1000;
-        boolean enablePolicy = false;
-        long maxSessonsPerChange = 100000;
-
-        voltQueueSQL(getParameter, "ENABLE_POLICY_ENFORCEMENT");
-        voltQueueSQL(getParameter, "MIN_SHRINK_PCT");
-        voltQueueSQL(getParameter, "PANIC_SHRINK_PCT");
-        voltQueueSQL(getParameter, "MIN_GROW_PCT");
-        voltQueueSQL(getParameter, "MAX_SESSIONS_PER_SINGLE_CHANGE");
+        queueConfigReads(false);
         voltQueueSQL(findOverloadedCells);
         voltQueueSQL(findUnderloadedCells);
 
         VoltTable[] queryResults = voltExecuteSQL();
 
-        VoltTable enablePolicyResult = queryResults[0];
-        VoltTable shrinkPctResult = queryResults[1];
-        VoltTable panicShrinkPctResult = queryResults[2];
-        VoltTable growPctResult = queryResults[3];
-        VoltTable maxSessonsPerChangeResult = queryResults[4];
+        final PolicyConfig config = new PolicyConfig(queryResults[0]);
 
-        enablePolicy = getParameter(enablePolicy, enablePolicyResult);
-        shrinkPct = getParameter(shrinkPct, shrinkPctResult);
-        panicShrinkPct = getParameter(panicShrinkPct, panicShrinkPctResult);
-        growPct = getParameter(growPct, growPctResult);
-        maxSessonsPerChange = getParameter(maxSessonsPerChange, maxSessonsPerChangeResult);
+        final boolean enablePolicy = config.getParameter("ENABLE_POLICY_ENFORCEMENT", false);
+        final long shrinkPct = config.getParameter("MIN_SHRINK_PCT", 0);
+        final long panicShrinkPct = config.getParameter("PANIC_SHRINK_PCT", 1000);
+        final long growPct = config.getParameter("MIN_GROW_PCT", 5);
+        final long maxSessonsPerChange = config.getParameter("MAX_SESSIONS_PER_SINGLE_CHANGE", 100000);
+        final boolean consoleEvents = config.getParameter(ConsoleEvent.CONSOLE_EVENTS_PARAMETER, false);
 
-        VoltTable overloadedCellResult = queryResults[5];
-        VoltTable underloadedCellResult = queryResults[6];
+        VoltTable overloadedCellResult = queryResults[1];
+        VoltTable underloadedCellResult = queryResults[2];
 
         while (overloadedCellResult.advanceRow()) {
 
@@ -171,16 +161,19 @@ public class ChangePolicies extends VoltProcedure {
             final long minBandwidthPerMin = overloadedCellResult.getLong("policy_min_bandwidth_per_min");
 
             String event;
+            byte eventCode;
             long targetLimitPerUser;
 
             if (cellPctFull > panicShrinkPct) {
 
                 event = "PanicShrink";
+                eventCode = ConsoleEvent.PANIC_SHRINK;
                 targetLimitPerUser = (long) ((currentLimitPerUser * panicShrinkPct * .75) / cellPctFull);
 
             } else {
                 
                 event = "Shrink:";
+                eventCode = ConsoleEvent.SHRINK;
 
                 long pctAdjust = (cellPctFull - 100) / 2;
                 
@@ -195,16 +188,23 @@ public class ChangePolicies extends VoltProcedure {
             if (targetLimitPerUser < minBandwidthPerMin) {
                 
                 event = "ShrinkHitLimit";
+                eventCode = ConsoleEvent.SHRINK_HIT_LIMIT;
                 targetLimitPerUser = minBandwidthPerMin;
             }
 
             if (enablePolicy && currentLimitPerUser != targetLimitPerUser) {
 
-                voltQueueSQL(sendMessageToConsole, cellId,
-                        "ChangePolicies: " + event + ": Cell/policy " + cellId + "/" + policyName + " is at "
-                                + cellPctFull + "%. Shrinking from " + currentLimitPerUser + " to "
-                                + targetLimitPerUser + " for " + userCount + " users. Current Avg is "
-                                + averageAmountPerUser);
+                if (consoleEvents) {
+                    voltQueueSQL(sendEventToConsole, cellId, eventCode, policyName, currentLimitPerUser,
+                            targetLimitPerUser, cellPctFull, null, userCount, averageAmountPerUser, null);
+                } else {
+                    voltQueueSQL(sendMessageToConsole, cellId,
+                            "ChangePolicies: " + event + ": Cell/policy " + cellId + "/" + policyName + " is at "
+                                    + cellPctFull + "%. Shrinking from " + currentLimitPerUser + " to "
+                                    + targetLimitPerUser + " for " + userCount + " users. Current Avg is "
+                                    + averageAmountPerUser);
+                }
+
                 voltQueueSQL(updateCellLimit, targetLimitPerUser, cellId, policyName);
 
                 if (maxSessonsPerChange < userCount) {
@@ -230,9 +230,11 @@ public class ChangePolicies extends VoltProcedure {
             final long maxBandwidthPerMin = underloadedCellResult.getLong("policy_max_bandwidth_per_min");
 
             String event;
+            byte eventCode;
             long targetLimitPerUser;
 
             event = "Grow:";
+            eventCode = ConsoleEvent.GROW;
             
             long pctAdjust = ((cellPctFull - 100) / 2) * -1;
             
@@ -251,14 +253,21 @@ public class ChangePolicies extends VoltProcedure {
 
             if (targetLimitPerUser > maxBandwidthPerMin) {
                 event = "GrowHitLimit";
+                eventCode = ConsoleEvent.GROW_HIT_LIMIT;
                 targetLimitPerUser = maxBandwidthPerMin;
             }
 
             if (enablePolicy) {
 
-                voltQueueSQL(sendMessageToConsole, cellId, "ChangePolicies: " + event + ": Cell/policy " + cellId + "/"
-                        + policyName + " is at " + cellPctFull + "%. Growing by " + pctAdjust + "% from " + currentLimitPerUser + " to "
-                        + targetLimitPerUser + " for " + userCount + " users. Current Avg is " + averageAmountPerUser);
+                if (consoleEvents) {
+                    voltQueueSQL(sendEventToConsole, cellId, eventCode, policyName, currentLimitPerUser,
+                            targetLimitPerUser, cellPctFull, pctAdjust, userCount, averageAmountPerUser, null);
+                } else {
+                    voltQueueSQL(sendMessageToConsole, cellId, "ChangePolicies: " + event + ": Cell/policy " + cellId + "/"
+                            + policyName + " is at " + cellPctFull + "%. Growing by " + pctAdjust + "% from " + currentLimitPerUser + " to "
+                            + targetLimitPerUser + " for " + userCount + " users. Current Avg is " + averageAmountPerUser);
+                }
+
                 voltQueueSQL(updateCellLimit, targetLimitPerUser, cellId, policyName);
 
                 if (maxSessonsPerChange < userCount) {
@@ -277,22 +286,4 @@ public class ChangePolicies extends VoltProcedure {
 
     }
 
-    private boolean getParameter(boolean enablePolicy, VoltTable enablePolicyResult) {
-        if (enablePolicyResult.advanceRow()) {
-            if (enablePolicyResult.getLong("parameter_value") == 1) {
-                enablePolicy = true;
-            } else {
-                enablePolicy = false;
-            }
-        }
-        return enablePolicy;
-    }
-
-    protected long getParameter(long value, VoltTable parameterTable) {
-        if (parameterTable.advanceRow()) {
-            value = parameterTable.getLong("parameter_value");
-        }
-        return value;
-    }
-
 }
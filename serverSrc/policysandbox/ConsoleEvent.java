@@ -0,0 +1,98 @@
+package policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Event codes for the console_events stream. Procedures use these instead of
+ * building a message for console_messages, and the client turns them back into
+ * text - see org.voltdb.policysandbox.ConsoleEventRenderer, which has its own
+ * copy of these numbers and must be kept in step.
+ *
+ * Whether procedures write console_events or console_messages is controlled by
+ * the CONSOLE_EVENTS row in policy_parameters - 1 means console_events.
+ *
+ */
+public class ConsoleEvent {
+
+    /**
+     * Name of the policy_parameters row that turns console_events on.
+     */
+    public static final String CONSOLE_EVENTS_PARAMETER = "CONSOLE_EVENTS";
+
+    /**
+     * ChangePolicies shrank a cell/policy's per user limit.
+     */
+    public static final byte SHRINK = 1;
+
+    /**
+     * ChangePolicies shrank a cell/policy's per user limit by a lot, because the
+     * cell was more than PANIC_SHRINK_PCT full.
+     */
+    public static final byte PANIC_SHRINK = 2;
+
+    /**
+     * ChangePolicies shrank a cell/policy's per user limit to the policy's
+     * minimum.
+     */
+    public static final byte SHRINK_HIT_LIMIT = 3;
+
+    /**
+     * ChangePolicies grew a cell/policy's per user limit.
+     */
+    public static final byte GROW = 4;
+
+    /**
+     * ChangePolicies grew a cell/policy's per user limit to the policy's
+     * maximum.
+     */
+    public static final byte GROW_HIT_LIMIT = 5;
+
+    /**
+     * SteppedPolicyChange told some more sessions about a change.
+     */
+    public static final byte STEPPED_CHANGE_PROGRESS = 6;
+
+    /**
+     * SteppedPolicyChange finished telling sessions about a change.
+     */
+    public static final byte STEPPED_CHANGE_FINISHED = 7;
+
+    /**
+     * ReportNewSession or ReportNewSessionBatch created limits for a
+     * cell/policy.
+     */
+    public static final byte NEW_CELL_POLICY = 8;
+
+    /**
+     * ChangeCellAllocation moved capacity from one policy to another.
+     */
+    public static final byte CELL_ALLOCATION_MOVED = 9;
+
+    /**
+     * ChangeCellAllocation couldn't move capacity because the 'from' policy
+     * didn't have enough.
+     */
+    public static final byte CELL_ALLOCATION_REFUSED = 10;
+
+}
@@ -0,0 +1,181 @@
+package policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.HashMap;
+
+import org.voltdb.VoltTable;
+
+/**
+ * policy_parameters and available_policies as read by a procedure, in the
+ * same batch as its other queries - see PolicyConfigProcedure.
+ *
+ * We don't keep these between calls. VoltDB runs each partition's copy of a
+ * procedure on every replica and compares the SQL they run, so which
+ * statements a procedure runs has to depend only on what's in the database.
+ * A cache that decides whether to reload itself would run different SQL on a
+ * replica that had just rejoined with an empty one.
+ *
+ */
+public class PolicyConfig {
+
+    /**
+     * policy_parameters.
+     */
+    private final HashMap<String, Long> parameters = new HashMap<String, Long>();
+
+    /*
+     * available_policies, ordered by policy_max_bandwidth_per_min descending and
+     * then policy_name, which is the order ReportNewSession has always picked
+     * them in.
+     */
+    private String[] policyNames = new String[0];
+    private long[] policyMaxBandwidths = new long[0];
+    private long[] policyMinBandwidths = new long[0];
+    private long[] policyStartRanges = new long[0];
+    private long[] policyEndRanges = new long[0];
+
+    /**
+     * Parameters only, for procedures that don't need policies.
+     *
+     * @param parameterTable - parameter_name, parameter_value from
+     *                       policy_parameters
+     */
+    public PolicyConfig(VoltTable parameterTable) {
+
+        while (parameterTable.advanceRow()) {
+            parameters.put(parameterTable.getString("parameter_name"), parameterTable.getLong("parameter_value"));
+        }
+    }
+
+    /**
+     * @param parameterTable - parameter_name, parameter_value from
+     *                       policy_parameters
+     * @param policyTable    - policy_name, policy_max_bandwidth_per_min,
+     *                       policy_min_bandwidth_per_min, policy_start_range,
+     *                       policy_end_range from available_policies, in the
+     *                       order they should be checked
+     */
+    public PolicyConfig(VoltTable parameterTable, VoltTable policyTable) {
+
+        this(parameterTable);
+
+        final int policyCount = policyTable.getRowCount();
+
+        policyNames = new String[policyCount];
+        policyMaxBandwidths = new long[policyCount];
+        policyMinBandwidths = new long[policyCount];
+        policyStartRanges = new long[policyCount];
+        policyEndRanges = new long[policyCount];
+
+        for (int i = 0; policyTable.advanceRow(); i++) {
+            policyNames[i] = policyTable.getString("policy_name");
+            policyMaxBandwidths[i] = policyTable.getLong("policy_max_bandwidth_per_min");
+            policyMinBandwidths[i] = policyTable.getLong("policy_min_bandwidth_per_min");
+            policyStartRanges[i] = policyTable.getLong("policy_start_range");
+            policyEndRanges[i] = policyTable.getLong("policy_end_range");
+        }
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return the value of policy_parameters row 'name', or 'defaultValue' if
+     *         there isn't one
+     */
+    public long getParameter(String name, long defaultValue) {
+
+        Long value = parameters.get(name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return value;
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return true if policy_parameters row 'name' is 1, or 'defaultValue' if
+     *         there isn't one
+     */
+    public boolean getParameter(String name, boolean defaultValue) {
+
+        Long value = parameters.get(name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return value == 1;
+    }
+
+    /**
+     * @param userId
+     * @return the policy whose range 'userId' is in, or -1 if there isn't one
+     */
+    public int findPolicy(long userId) {
+
+        for (int i = 0; i < policyNames.length; i++) {
+            if (userId >= policyStartRanges[i] && userId <= policyEndRanges[i]) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return how many policies there are
+     */
+    public int getPolicyCount() {
+        return policyNames.length;
+    }
+
+    /**
+     * @param policy
+     * @return policy_name for 'policy'
+     */
+    public String getPolicyName(int policy) {
+        return policyNames[policy];
+    }
+
+    /**
+     * @param policy
+     * @return policy_max_bandwidth_per_min for 'policy'
+     */
+    public long getPolicyMaxBandwidth(int policy) {
+        return policyMaxBandwidths[policy];
+    }
+
+    /**
+     * @param policy
+     * @return policy_min_bandwidth_per_min for 'policy'
+     */
+    public long getPolicyMinBandwidth(int policy) {
+        return policyMinBandwidths[policy];
+    }
+
+}
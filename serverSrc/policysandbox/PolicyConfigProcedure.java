@@ -0,0 +1,66 @@
+package policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+
+/**
+ * Base class for procedures that need policy_parameters or
+ * available_policies. Subclasses read them in the same batch as their own
+ * queries, by calling queueConfigReads, and pass the results to PolicyConfig.
+ *
+ */
+public abstract class PolicyConfigProcedure extends VoltProcedure {
+
+    // @formatter:off
+
+    public static final SQLStmt getAllParameters = new SQLStmt(
+            "SELECT parameter_name, parameter_value FROM policy_parameters;");
+
+    public static final SQLStmt getAllPolicies = new SQLStmt(
+            "SELECT policy_name, policy_max_bandwidth_per_min, policy_min_bandwidth_per_min "
+            + ", policy_start_range, policy_end_range "
+            + "FROM available_policies "
+            + "ORDER BY policy_max_bandwidth_per_min DESC, policy_name; ");
+
+    // @formatter:on
+
+    /**
+     * Queue a read of policy_parameters and, if 'withPolicies', one of
+     * available_policies after it. Their results are what PolicyConfig's
+     * constructors want.
+     *
+     * @param withPolicies
+     */
+    protected void queueConfigReads(boolean withPolicies) {
+
+        voltQueueSQL(getAllParameters);
+
+        if (withPolicies) {
+            voltQueueSQL(getAllPolicies);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Report usage that the client has already added up by policy for one cell
+ * and minute. Each row we write stands for 'usageCount' session reports, so
+ * cell_activity_summary ends up the same as if they had been sent one at a
+ * time. The arrays are parallel - element 'n' of each one is for the same
+ * policy.
+ *
+ */
+public class ReportAggregatedUsage extends VoltProcedure {
+
+    /**
+     * sessionId we use for rows that aren't for a single session.
+     */
+    public static final long AGGREGATED_SESSION_ID = -1;
+
+    // @formatter:off
+
+	public static final SQLStmt reportActivity = new SQLStmt(
+				"INSERT INTO cell_activity  " +
+						"( cell_id, " +
+				        " sessionId, " +
+						" sessionStartUTC, " +
+				        " policy_name, "
+				        + "usage_amount, "
+				        + "usage_timestamp, "
+				        + "usage_count, "
+				        + "max_usage_amount)" +
+						"VALUES " +
+						"(?,?,?,?,?,?,?,?); ");
+
+	// @formatter:on
+
+    public VoltTable[] run(long cellId, TimestampType usageTimestamp, String[] policyNames, long[] totalUsages,
+            long[] maxUsages, long[] usageCounts) throws VoltAbortException {
+
+        if (totalUsages.length != policyNames.length || maxUsages.length != policyNames.length
+                || usageCounts.length != policyNames.length) {
+            throw new VoltAbortException("Arrays must all be the same length");
+        }
+
+        for (int i = 0; i < policyNames.length; i++) {
+            voltQueueSQL(reportActivity, cellId, AGGREGATED_SESSION_ID, usageTimestamp, policyNames[i],
+                    totalUsages[i], usageTimestamp, usageCounts[i], maxUsages[i]);
+        }
+
+        return (voltExecuteSQL(true));
+
+    }
+
+}
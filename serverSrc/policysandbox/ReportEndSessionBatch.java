@@ -0,0 +1,72 @@
+package policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Delete many sessions in one cell at the end of the run. The arrays are
+ * parallel - element 'n' of each one is for the same session.
+ *
+ */
+public class ReportEndSessionBatch extends VoltProcedure {
+
+    /**
+     * How many statements we queue before calling voltExecuteSQL.
+     */
+    public static final int MAX_STATEMENTS_PER_EXECUTE = 200;
+
+    // @formatter:off
+
+    public static final SQLStmt deleteOldSession = new SQLStmt(
+            "DELETE FROM session_policy_state  " +
+            " WHERE sessionId = ?  " +
+            " AND   sessionStartUTC = ? " +
+            " AND   cell_id = ?;" );
+
+	// @formatter:on
+
+    public VoltTable[] run(long cellId, long[] sessionIds, long[] sessionStartUTCMs) throws VoltAbortException {
+
+        if (sessionStartUTCMs.length != sessionIds.length) {
+            throw new VoltAbortException("Arrays must all be the same length");
+        }
+
+        for (int i = 0; i < sessionIds.length; i++) {
+
+            voltQueueSQL(deleteOldSession, sessionIds[i], new TimestampType(sessionStartUTCMs[i] * 1000), cellId);
+
+            if ((i + 1) % MAX_STATEMENTS_PER_EXECUTE == 0 && i + 1 < sessionIds.length) {
+                voltExecuteSQL();
+            }
+        }
+
+        return (voltExecuteSQL(true));
+
+    }
+
+}
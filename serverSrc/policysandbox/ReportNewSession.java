@@ -49,33 +49,29 @@ import java.util.Date;
  */
 
 import org.voltdb.SQLStmt;
-import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 
 /**
- * Create a session at the start of the run
+ * Create a session at the start of the run.
+ *
+ * Unless the cell/policy is new this is a single batch: find the user's policy
+ * and this cell's limit for it, and create the session with the same policy.
+ * Everything we decide comes from what we read in this transaction.
  *
  */
-public class ReportNewSession extends VoltProcedure {
+public class ReportNewSession extends PolicyConfigProcedure {
 
     // @formatter:off
 
-    public static final SQLStmt getParameter = new SQLStmt(
-            "SELECT parameter_value FROM policy_parameters WHERE parameter_name = ? ;");
-       
-    public static final SQLStmt getPolicy = new SQLStmt(
-            "SELECT policy_name, policy_max_bandwidth_per_min "
-            + "FROM available_policies "
-            + "WHERE ? BETWEEN policy_start_range AND policy_end_range "
-            + "ORDER BY policy_max_bandwidth_per_min DESC, policy_name; ");
-
-
-    public static final SQLStmt getPolicyLimitsByCell = new SQLStmt(
-            "SELECT current_limit_per_user FROM policy_active_limits_by_cell "
-            + "WHERE cell_id = ? "
-            + "AND policy_name = ?; ");
-
+    public static final SQLStmt getPolicyAndLimit = new SQLStmt(
+            "SELECT ap.policy_name, ap.policy_max_bandwidth_per_min, palbc.current_limit_per_user "
+            + "FROM available_policies ap "
+            + "LEFT OUTER JOIN policy_active_limits_by_cell palbc "
+            + "     ON palbc.cell_id = ? "
+            + "     AND palbc.policy_name = ap.policy_name "
+            + "WHERE ? BETWEEN ap.policy_start_range AND ap.policy_end_range "
+            + "ORDER BY ap.policy_max_bandwidth_per_min DESC, ap.policy_name; ");
 
     public static final SQLStmt createNewSession = new SQLStmt(
             "INSERT INTO session_policy_state  " +
@@ -84,8 +80,9 @@ public class ReportNewSession extends VoltProcedure {
                     " cell_id, " +
                     " policy_name, " +
                     " last_policy_update_date)  " +
-                    "VALUES " +
-                    "(?,?,?,?,NOW); ");
+                    "SELECT CAST(? AS BIGINT), CAST(? AS TIMESTAMP), CAST(? AS BIGINT), policy_name, NOW " +
+                    "FROM available_policies " +
+                    "WHERE ? BETWEEN policy_start_range AND policy_end_range; ");
 
     public static final SQLStmt createNewPolicyLimitsByCell = new SQLStmt(
             "INSERT INTO policy_active_limits_by_cell  " +
@@ -102,39 +99,38 @@ public class ReportNewSession extends VoltProcedure {
                     "(thing_id,message_date,message_text) VALUES " +
                      "(?,NOW,?);");
 
+    public static final SQLStmt sendEventToConsole = new SQLStmt(
+            "INSERT INTO console_events  " +
+                    "(cell_id,event_date,event_code,policy_name,old_limit,new_limit" +
+                    ",pct_full,pct_change,user_count,avg_per_user,change_timestamp) VALUES " +
+                     "(?,NOW,?,?,?,?,?,?,?,?,?);");
+
 
 		
 	// @formatter:on
 
     public VoltTable[] run(long cellId, long sessionId, Date sessionStartUTC, long userId) throws VoltAbortException {
 
-        String policyName = "";
-        long defaultCellTotalCapacity = 1000000;
-        long userCellFractionOf = 1000;
-        long userCellCapacityPerUser = 0;
-
-        voltQueueSQL(getPolicy, EXPECT_ONE_ROW, userId);
-        VoltTable policyResults = voltExecuteSQL()[0];
-        policyResults.advanceRow();
-        policyName = policyResults.getString("policy_name");
+        // Usually this is the only round trip we make...
+        voltQueueSQL(getPolicyAndLimit, EXPECT_ONE_ROW, cellId, userId);
+        voltQueueSQL(createNewSession, sessionId, sessionStartUTC, cellId, userId);
 
-        voltQueueSQL(getPolicyLimitsByCell, cellId, policyName);
-        voltQueueSQL(getParameter, "USER_CELL_FRACTION_OF");
-        voltQueueSQL(getParameter, "DEFAULT_CELL_TOTAL_CAPACITY");
+        VoltTable policyAndLimit = voltExecuteSQL()[0];
+        policyAndLimit.advanceRow();
 
-        VoltTable[] policyLimits = voltExecuteSQL();
+        final String policyName = policyAndLimit.getString("policy_name");
+        long userCellCapacityPerUser = policyAndLimit.getLong("current_limit_per_user");
 
-        VoltTable currentPolicyTableForThisCell = policyLimits[0];
-        VoltTable userCellFractionTable = policyLimits[1];
-        VoltTable defaultCellTotalCapacityTable = policyLimits[2];
+        if (policyAndLimit.wasNull()) {
 
-        if (!currentPolicyTableForThisCell.advanceRow()) {
+            queueConfigReads(false);
+            final PolicyConfig config = new PolicyConfig(voltExecuteSQL()[0]);
 
-            defaultCellTotalCapacity = getParameter(defaultCellTotalCapacity, defaultCellTotalCapacityTable);
-            userCellFractionOf = getParameter(userCellFractionOf, userCellFractionTable);
+            final long defaultCellTotalCapacity = config.getParameter("DEFAULT_CELL_TOTAL_CAPACITY", 1000000);
+            final long userCellFractionOf = config.getParameter("USER_CELL_FRACTION_OF", 1000);
             userCellCapacityPerUser = defaultCellTotalCapacity / userCellFractionOf;
 
-            long maxBandwidthPerUser = policyResults.getLong("policy_max_bandwidth_per_min");
+            long maxBandwidthPerUser = policyAndLimit.getLong("policy_max_bandwidth_per_min");
 
             if (userCellCapacityPerUser < maxBandwidthPerUser) {
                 maxBandwidthPerUser = userCellCapacityPerUser;
@@ -142,15 +138,20 @@ public class ReportNewSession extends VoltProcedure {
 
             voltQueueSQL(createNewPolicyLimitsByCell, cellId, policyName, defaultCellTotalCapacity,
                     maxBandwidthPerUser);
-            voltQueueSQL(sendMessageToConsole, cellId,
-                    "Created new Cell/Policy " + cellId + "/" + policyName + " with limit of " + maxBandwidthPerUser);
 
-        } else {
-            userCellCapacityPerUser = currentPolicyTableForThisCell.getLong("current_limit_per_user");
-        }
+            if (config.getParameter(ConsoleEvent.CONSOLE_EVENTS_PARAMETER, false)) {
+                voltQueueSQL(sendEventToConsole, cellId, ConsoleEvent.NEW_CELL_POLICY, policyName, null,
+                        maxBandwidthPerUser, null, null, null, null, null);
+            } else {
+                voltQueueSQL(sendMessageToConsole, cellId, "Created new Cell/Policy " + cellId + "/" + policyName
+                        + " with limit of " + maxBandwidthPerUser);
+            }
 
-        voltQueueSQL(createNewSession, sessionId, sessionStartUTC, cellId, policyName);
-        voltExecuteSQL(true);
+            voltExecuteSQL(true);
+
+            // Return the limit we stored, as ReportNewSessionBatch does...
+            userCellCapacityPerUser = maxBandwidthPerUser;
+        }
 
         VoltTable resultTable = new VoltTable(new VoltTable.ColumnInfo("policy_name", VoltType.STRING),
                 new VoltTable.ColumnInfo("current_limit_per_user", VoltType.BIGINT));
@@ -162,11 +163,4 @@ public class ReportNewSession extends VoltProcedure {
 
     }
 
-    protected long getParameter(long value, VoltTable parameterTable) {
-        if (parameterTable.advanceRow()) {
-            value = parameterTable.getLong("parameter_value");
-        }
-        return value;
-    }
-
 }
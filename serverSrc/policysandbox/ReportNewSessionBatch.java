@@ -0,0 +1,177 @@
+package policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.HashMap;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Create many sessions in one cell in a single transaction, for warming up a
+ * run. Does the same thing as ReportNewSession for each session, but reads
+ * available_policies, policy_parameters and the cell's limits once instead of
+ * once per session. The arrays are parallel - element 'n' of each one is for
+ * the same session. Returns one row per session, in the order given, with the
+ * policy and per user limit it got.
+ *
+ */
+public class ReportNewSessionBatch extends PolicyConfigProcedure {
+
+    /**
+     * How many statements we queue before calling voltExecuteSQL.
+     */
+    public static final int MAX_STATEMENTS_PER_EXECUTE = 200;
+
+    // @formatter:off
+
+    public static final SQLStmt getPolicyLimitsForCell = new SQLStmt(
+            "SELECT policy_name, current_limit_per_user FROM policy_active_limits_by_cell "
+            + "WHERE cell_id = ?; ");
+
+    public static final SQLStmt createNewSession = new SQLStmt(
+            "INSERT INTO session_policy_state  " +
+                    "( sessionId, " +
+                    " sessionStartUTC, " +
+                    " cell_id, " +
+                    " policy_name, " +
+                    " last_policy_update_date)  " +
+                    "VALUES " +
+                    "(?,?,?,?,NOW); ");
+
+    public static final SQLStmt createNewPolicyLimitsByCell = new SQLStmt(
+            "INSERT INTO policy_active_limits_by_cell  " +
+                    "(cell_id, " +
+                    " policy_name," +
+                    "current_limit_per_cell, " +
+                     "current_limit_per_user, " +
+                     " last_update_date)  " +
+                    "VALUES " +
+                    "(?,?,?,?,NOW); ");
+
+    public static final SQLStmt sendMessageToConsole = new SQLStmt(
+            "INSERT INTO console_messages  " +
+                    "(thing_id,message_date,message_text) VALUES " +
+                     "(?,NOW,?);");
+
+    public static final SQLStmt sendEventToConsole = new SQLStmt(
+            "INSERT INTO console_events  " +
+                    "(cell_id,event_date,event_code,policy_name,old_limit,new_limit" +
+                    ",pct_full,pct_change,user_count,avg_per_user,change_timestamp) VALUES " +
+                     "(?,NOW,?,?,?,?,?,?,?,?,?);");
+
+	// @formatter:on
+
+    public VoltTable[] run(long cellId, long[] sessionIds, long[] sessionStartUTCMs, long[] userIds)
+            throws VoltAbortException {
+
+        if (sessionStartUTCMs.length != sessionIds.length || userIds.length != sessionIds.length) {
+            throw new VoltAbortException("Arrays must all be the same length");
+        }
+
+        queueConfigReads(true);
+        voltQueueSQL(getPolicyLimitsForCell, cellId);
+
+        VoltTable[] lookups = voltExecuteSQL();
+
+        final PolicyConfig config = new PolicyConfig(lookups[0], lookups[1]);
+        VoltTable cellLimitsTable = lookups[2];
+        final long defaultCellTotalCapacity = config.getParameter("DEFAULT_CELL_TOTAL_CAPACITY", 1000000);
+        final long userCellFractionOf = config.getParameter("USER_CELL_FRACTION_OF", 1000);
+        final boolean consoleEvents = config.getParameter(ConsoleEvent.CONSOLE_EVENTS_PARAMETER, false);
+
+        // Current limits for this cell...
+        HashMap<String, Long> limitsPerUser = new HashMap<String, Long>();
+
+        while (cellLimitsTable.advanceRow()) {
+            limitsPerUser.put(cellLimitsTable.getString("policy_name"),
+                    cellLimitsTable.getLong("current_limit_per_user"));
+        }
+
+        VoltTable resultTable = new VoltTable(new VoltTable.ColumnInfo("sessionId", VoltType.BIGINT),
+                new VoltTable.ColumnInfo("policy_name", VoltType.STRING),
+                new VoltTable.ColumnInfo("current_limit_per_user", VoltType.BIGINT));
+
+        int queued = 0;
+
+        for (int i = 0; i < sessionIds.length; i++) {
+
+            final int policy = config.findPolicy(userIds[i]);
+
+            if (policy < 0) {
+                throw new VoltAbortException("No policy for user " + userIds[i]);
+            }
+
+            final String policyName = config.getPolicyName(policy);
+
+            Long userCellCapacityPerUser = limitsPerUser.get(policyName);
+
+            if (userCellCapacityPerUser == null) {
+
+                long maxBandwidthPerUser = config.getPolicyMaxBandwidth(policy);
+
+                if (defaultCellTotalCapacity / userCellFractionOf < maxBandwidthPerUser) {
+                    maxBandwidthPerUser = defaultCellTotalCapacity / userCellFractionOf;
+                }
+
+                voltQueueSQL(createNewPolicyLimitsByCell, cellId, policyName, defaultCellTotalCapacity,
+                        maxBandwidthPerUser);
+
+                if (consoleEvents) {
+                    voltQueueSQL(sendEventToConsole, cellId, ConsoleEvent.NEW_CELL_POLICY, policyName, null,
+                            maxBandwidthPerUser, null, null, null, null, null);
+                } else {
+                    voltQueueSQL(sendMessageToConsole, cellId, "Created new Cell/Policy " + cellId + "/"
+                            + policyName + " with limit of " + maxBandwidthPerUser);
+                }
+
+                queued += 2;
+
+                userCellCapacityPerUser = maxBandwidthPerUser;
+                limitsPerUser.put(policyName, userCellCapacityPerUser);
+            }
+
+            voltQueueSQL(createNewSession, sessionIds[i], new TimestampType(sessionStartUTCMs[i] * 1000), cellId,
+                    policyName);
+            queued++;
+
+            resultTable.addRow(sessionIds[i], policyName, userCellCapacityPerUser);
+
+            if (queued >= MAX_STATEMENTS_PER_EXECUTE - 2) {
+                voltExecuteSQL();
+                queued = 0;
+            }
+        }
+
+        voltExecuteSQL(true);
+
+        VoltTable[] voltTableArray = { resultTable };
+
+        return (voltTableArray);
+
+    }
+
+}
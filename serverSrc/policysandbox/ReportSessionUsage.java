@@ -44,9 +44,11 @@ public class ReportSessionUsage extends VoltProcedure {
 						" sessionStartUTC, " +
 				        " policy_name, "
 				        + "usage_amount, "
-				        + "usage_timestamp)" +
+				        + "usage_timestamp, "
+				        + "usage_count, "
+				        + "max_usage_amount)" +
 						"VALUES " +
-						"(?,?,?,?,?,NOW); ");
+						"(?,?,?,?,?,NOW,1,?); ");
 
 	
 		
@@ -55,7 +57,7 @@ public class ReportSessionUsage extends VoltProcedure {
     public VoltTable[] run(long cellId, long sessionId, TimestampType sessionStartUTC, String policyName, long recordUsage)
             throws VoltAbortException {
 
-        voltQueueSQL(reportActivity, cellId, sessionId, sessionStartUTC, policyName, recordUsage);
+        voltQueueSQL(reportActivity, cellId, sessionId, sessionStartUTC, policyName, recordUsage, recordUsage);
         return (voltExecuteSQL(true));
 
     }
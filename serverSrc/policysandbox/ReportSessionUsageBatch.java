@@ -0,0 +1,83 @@
+package policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Report activity for many sessions in one cell in a single transaction. The
+ * arrays are parallel - element 'n' of each one describes the same usage
+ * record.
+ *
+ */
+public class ReportSessionUsageBatch extends VoltProcedure {
+
+    /**
+     * How many statements we queue before calling voltExecuteSQL.
+     */
+    public static final int MAX_STATEMENTS_PER_EXECUTE = 200;
+
+    // @formatter:off
+
+	public static final SQLStmt reportActivity = new SQLStmt(
+				"INSERT INTO cell_activity  " +
+						"( cell_id, " +
+				        " sessionId, " +
+						" sessionStartUTC, " +
+				        " policy_name, "
+				        + "usage_amount, "
+				        + "usage_timestamp, "
+				        + "usage_count, "
+				        + "max_usage_amount)" +
+						"VALUES " +
+						"(?,?,?,?,?,NOW,1,?); ");
+
+	// @formatter:on
+
+    public VoltTable[] run(long cellId, long[] sessionIds, long[] sessionStartUTCMs, String[] policyNames,
+            long[] recordUsages) throws VoltAbortException {
+
+        if (sessionStartUTCMs.length != sessionIds.length || policyNames.length != sessionIds.length
+                || recordUsages.length != sessionIds.length) {
+            throw new VoltAbortException("Arrays must all be the same length");
+        }
+
+        for (int i = 0; i < sessionIds.length; i++) {
+
+            voltQueueSQL(reportActivity, cellId, sessionIds[i], new TimestampType(sessionStartUTCMs[i] * 1000),
+                    policyNames[i], recordUsages[i], recordUsages[i]);
+
+            if ((i + 1) % MAX_STATEMENTS_PER_EXECUTE == 0 && i + 1 < sessionIds.length) {
+                voltExecuteSQL();
+            }
+        }
+
+        return (voltExecuteSQL(true));
+
+    }
+
+}
@@ -24,7 +24,6 @@ package policysandbox;
  */
 
 import org.voltdb.SQLStmt;
-import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.types.TimestampType;
 
@@ -36,7 +35,7 @@ import org.voltdb.types.TimestampType;
  * time...
  *
  */
-public class SteppedPolicyChange extends VoltProcedure {
+public class SteppedPolicyChange extends PolicyConfigProcedure {
 
     // @formatter:off
     
@@ -44,9 +43,6 @@ public class SteppedPolicyChange extends VoltProcedure {
     = new SQLStmt("SELECT MIN(policy_change_started)  policy_change_started "
             + "FROM policy_active_limits_by_cell;");
 
-     public static final SQLStmt getParameter = new SQLStmt(
-             "SELECT parameter_value FROM policy_parameters WHERE parameter_name = ? ;");
-
      public static final SQLStmt getChange 
     = new SQLStmt("SELECT policy_change_percent_done,cell_id,policy_name"
             + ", current_limit_per_user "
@@ -61,11 +57,12 @@ public class SteppedPolicyChange extends VoltProcedure {
                     " sessionStartUTC,"
                     + "changeTimestamp, " +
                     " cell_id, "
-                    + " new_limit)  " +
+                    + " new_limit, "
+                    + " decision_timestamp)  " +
                     "SELECT sessionId, "
                     + " sessionStartUTC, "
                     + " NOW, "
-                    + " cell_id, CAST(? AS BIGINT) "
+                    + " cell_id, CAST(? AS BIGINT), CAST(? AS TIMESTAMP) "
                     + "FROM session_policy_state "
                     + "WHERE cell_id = ? "
                     + "AND   policy_name = ? "
@@ -89,19 +86,27 @@ public class SteppedPolicyChange extends VoltProcedure {
             "INSERT INTO console_messages  " +
                     "(thing_id,message_date,message_text) VALUES " +
                      "(?,NOW,?);");
+
+    public static final SQLStmt sendEventToConsole = new SQLStmt(
+            "INSERT INTO console_events  " +
+                    "(cell_id,event_date,event_code,policy_name,old_limit,new_limit" +
+                    ",pct_full,pct_change,user_count,avg_per_user,change_timestamp) VALUES " +
+                     "(?,NOW,?,?,?,?,?,?,?,?,?);");
    
 
     // @formatter:on
 
     public VoltTable[] run() throws VoltAbortException {
 
-        voltQueueSQL(getParameter, "MAX_PCT_PER_STEPPED_CHANGE");
+        queueConfigReads(false);
         voltQueueSQL(findNextChange);
 
         VoltTable[] queryResults = voltExecuteSQL();
 
-        VoltTable maxPctStepedChangeTable = queryResults[0];
-        final long maxPctPerPass = getParameter(2, maxPctStepedChangeTable);
+        final PolicyConfig config = new PolicyConfig(queryResults[0]);
+
+        final long maxPctPerPass = config.getParameter("MAX_PCT_PER_STEPPED_CHANGE", 2);
+        final boolean consoleEvents = config.getParameter(ConsoleEvent.CONSOLE_EVENTS_PARAMETER, false);
 
         VoltTable nextChangeExistsTable = queryResults[1];
 
@@ -123,17 +128,30 @@ public class SteppedPolicyChange extends VoltProcedure {
             int pctThisPass = 0;
 
             while (pctDone < 99 && ++pctThisPass <= maxPctPerPass) {
-                voltQueueSQL(sendMessageToDevice, newLimit, cellId, policyName, ++pctDone);
+                voltQueueSQL(sendMessageToDevice, newLimit, nextChangeTimestamp, cellId, policyName, ++pctDone);
             }
 
             if (pctDone < 99) {
                 voltQueueSQL(updateStatus, pctDone, cellId, policyName);
-                voltQueueSQL(sendMessageToConsole, cellId, "Cell/Policy " + cellId + "/" + policyName + " change to "
-                        + newLimit + " @" + nextChangeTimestamp.toString() + " " + pctDone + "% done.");
+
+                if (consoleEvents) {
+                    voltQueueSQL(sendEventToConsole, cellId, ConsoleEvent.STEPPED_CHANGE_PROGRESS, policyName, null,
+                            newLimit, null, pctDone, null, null, nextChangeTimestamp);
+                } else {
+                    voltQueueSQL(sendMessageToConsole, cellId, "Cell/Policy " + cellId + "/" + policyName
+                            + " change to " + newLimit + " @" + nextChangeTimestamp.toString() + " " + pctDone
+                            + "% done.");
+                }
             } else {
                 voltQueueSQL(finishTask, cellId, policyName);
-                voltQueueSQL(sendMessageToConsole, cellId, "Cell/Policy " + cellId + "/" + policyName + " change to "
-                        + newLimit + " @" + nextChangeTimestamp.toString() + " finished.");
+
+                if (consoleEvents) {
+                    voltQueueSQL(sendEventToConsole, cellId, ConsoleEvent.STEPPED_CHANGE_FINISHED, policyName, null,
+                            newLimit, null, null, null, null, nextChangeTimestamp);
+                } else {
+                    voltQueueSQL(sendMessageToConsole, cellId, "Cell/Policy " + cellId + "/" + policyName
+                            + " change to " + newLimit + " @" + nextChangeTimestamp.toString() + " finished.");
+                }
             }
 
         }
@@ -142,11 +160,4 @@ public class SteppedPolicyChange extends VoltProcedure {
 
     }
 
-    protected long getParameter(long value, VoltTable parameterTable) {
-        if (parameterTable.advanceRow()) {
-            value = parameterTable.getLong("parameter_value");
-        }
-        return value;
-    }
-
 }
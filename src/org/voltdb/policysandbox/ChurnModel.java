@@ -0,0 +1,142 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+/**
+ * Settings for session churn. When churn is on, each session a GeneratorWorker
+ * creates gets a lifetime. When it expires the session is ended - or, with
+ * probability 'abandonProbability', just forgotten so the TTL on
+ * session_policy_state has to clean it up - and then, with probability
+ * 'restartProbability', started again straight away with the same sessionId
+ * and a new sessionStartUTC. New sessions arrive at no more than
+ * 'arrivalsPerSecond'.
+ *
+ * Settings come from SandboxOptions:
+ * <ul>
+ * <li>churnMeanLifetimeSeconds - mean session lifetime. 0, the default, turns
+ * churn off.</li>
+ * <li>churnLifetime - exponential (default), fixed or uniform (0 to twice the
+ * mean).</li>
+ * <li>churnArrivalsPerSecond - most new sessions per second, across all
+ * threads. 0 means no limit.</li>
+ * <li>churnRestartProbability - default 0.5.</li>
+ * <li>churnAbandonProbability - default 0.</li>
+ * </ul>
+ *
+ */
+public class ChurnModel {
+
+    public static final String EXPONENTIAL = "exponential";
+
+    public static final String FIXED = "fixed";
+
+    public static final String UNIFORM = "uniform";
+
+    /**
+     * Mean session lifetime in milliseconds.
+     */
+    final long meanLifetimeMs;
+
+    /**
+     * exponential, fixed or uniform
+     */
+    final String lifetimeDistribution;
+
+    /**
+     * Most new sessions per second, across all threads. 0 means no limit.
+     */
+    final double arrivalsPerSecond;
+
+    /**
+     * Chance an expired session starts again straight away.
+     */
+    final double restartProbability;
+
+    /**
+     * Chance an expired session is forgotten instead of ended.
+     */
+    final double abandonProbability;
+
+    /**
+     * Create a ChurnModel from SandboxOptions.
+     */
+    public ChurnModel() {
+
+        meanLifetimeMs = (long) (SandboxOptions.getDouble("churnMeanLifetimeSeconds", 0) * 1000);
+        arrivalsPerSecond = SandboxOptions.getDouble("churnArrivalsPerSecond", 0);
+        restartProbability = SandboxOptions.getDouble("churnRestartProbability", 0.5);
+        abandonProbability = SandboxOptions.getDouble("churnAbandonProbability", 0);
+
+        String name = SandboxOptions.getString("churnLifetime", EXPONENTIAL).toLowerCase();
+
+        if (!FIXED.equals(name) && !UNIFORM.equals(name) && !EXPONENTIAL.equals(name)) {
+            ConsoleMessageConsumer.msg("Unknown churnLifetime '" + name + "', using " + EXPONENTIAL);
+            name = EXPONENTIAL;
+        }
+
+        lifetimeDistribution = name;
+    }
+
+    /**
+     * @return true if sessions should churn
+     */
+    public boolean isEnabled() {
+        return meanLifetimeMs > 0;
+    }
+
+    /**
+     * @param r
+     * @return how long a new session should last, in milliseconds
+     */
+    public long nextLifetimeMs(Random r) {
+
+        if (FIXED.equals(lifetimeDistribution)) {
+            return meanLifetimeMs;
+        }
+
+        if (UNIFORM.equals(lifetimeDistribution)) {
+            return (long) (r.nextDouble() * 2 * meanLifetimeMs);
+        }
+
+        return (long) (-Math.log(1 - r.nextDouble()) * meanLifetimeMs);
+    }
+
+    /**
+     * @param threadCount
+     * @return a Pacer for one thread's share of arrivalsPerSecond
+     */
+    public Pacer createArrivalPacer(int threadCount) {
+        return new Pacer(arrivalsPerSecond / 1000 / threadCount);
+    }
+
+    @Override
+    public String toString() {
+        return "meanLifetimeMs=" + meanLifetimeMs + ", lifetime=" + lifetimeDistribution + ", arrivalsPerSecond="
+                + arrivalsPerSecond + ", restartProbability=" + restartProbability + ", abandonProbability="
+                + abandonProbability;
+    }
+
+}
@@ -0,0 +1,595 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * A session store that keeps each field of a session in its own column of
+ * primitives instead of creating a PolicySession object per session. Session
+ * ids in the generator are always in the range offset .. offset + userCount,
+ * so a session's position in the columns is simply sessionId - offset.
+ *
+ * Columns can live on the Java heap or, if 'offHeap' is set, in direct
+ * buffers so they don't count against -Xmx or get scanned by the GC.
+ *
+ * The handful of sessions we 'track' are kept as real PolicySession objects so
+ * we can still print their history.
+ *
+ */
+public class CompactSessionStore implements SessionStore {
+
+    /**
+     * We only generate one non-zero record per minute per session.
+     */
+    private static final long ONE_MINUTE_MS = 60000;
+
+    /**
+     * Number of locks we spread our sessions over. Must be a power of 2.
+     */
+    private static final int LOCK_COUNT = 1024;
+
+    /**
+     * Lowest sessionId we can hold.
+     */
+    private final long firstSessionId;
+
+    /**
+     * How many sessions we can hold.
+     */
+    private final int capacity;
+
+    /**
+     * When a session started, in ms. 0 means 'no session'.
+     */
+    private final LongBuffer sessionStartMs;
+
+    /**
+     * Last time we generated a non-zero usage message.
+     */
+    private final LongBuffer lastMessageTime;
+
+    /**
+     * The user this session is for.
+     */
+    private final IntBuffer userId;
+
+    /**
+     * Id of 'cell' session is using
+     */
+    private final IntBuffer cellId;
+
+    /**
+     * How much bandwidth we are allowed to use per minute.
+     */
+    private final IntBuffer usageLimit;
+
+    /**
+     * Index into policyNames for each session.
+     */
+    private final short[] policyId;
+
+    /**
+     * Policy names we've seen. There are only a handful, so we store a short in
+     * 'policyId' instead of a String per session. Element 0 is "NONE".
+     */
+    private volatile String[] policyNames = { "NONE" };
+
+    /**
+     * Locks for our sessions.
+     */
+    private final Object[] locks = new Object[LOCK_COUNT];
+
+    /**
+     * Sessions we track as real PolicySessions. There are very few, so we just
+     * search the array.
+     */
+    private volatile PolicySession[] trackedSessions = new PolicySession[0];
+
+    /**
+     * How many sessions we have.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Bytes allocated off heap.
+     */
+    private final long offHeapBytes;
+
+    /**
+     * Create a store for sessions with ids from firstSessionId to firstSessionId
+     * + capacity - 1.
+     *
+     * @param firstSessionId
+     * @param capacity
+     * @param offHeap        - whether to store columns outside the Java heap
+     */
+    public CompactSessionStore(long firstSessionId, int capacity, boolean offHeap) {
+
+        this.firstSessionId = firstSessionId;
+        this.capacity = capacity;
+
+        if (offHeap) {
+            sessionStartMs = allocateDirect(capacity * 8L).asLongBuffer();
+            lastMessageTime = allocateDirect(capacity * 8L).asLongBuffer();
+            userId = allocateDirect(capacity * 4L).asIntBuffer();
+            cellId = allocateDirect(capacity * 4L).asIntBuffer();
+            usageLimit = allocateDirect(capacity * 4L).asIntBuffer();
+            offHeapBytes = capacity * (8L + 8L + 4L + 4L + 4L);
+        } else {
+            sessionStartMs = LongBuffer.wrap(new long[capacity]);
+            lastMessageTime = LongBuffer.wrap(new long[capacity]);
+            userId = IntBuffer.wrap(new int[capacity]);
+            cellId = IntBuffer.wrap(new int[capacity]);
+            usageLimit = IntBuffer.wrap(new int[capacity]);
+            offHeapBytes = 0;
+        }
+
+        policyId = new short[capacity];
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+
+    }
+
+    /**
+     * @param bytes
+     * @return a zeroed direct ByteBuffer in native byte order
+     */
+    private static ByteBuffer allocateDirect(long bytes) {
+
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Column of " + bytes + " bytes is too big for a direct buffer");
+        }
+
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param sessionId
+     * @return where sessionId lives in our columns, or -1 if it's out of range
+     */
+    private int slotFor(long sessionId) {
+
+        long slot = sessionId - firstSessionId;
+
+        if (slot < 0 || slot >= capacity) {
+            return -1;
+        }
+
+        return (int) slot;
+    }
+
+    /**
+     * @param slot
+     * @return the lock for 'slot'
+     */
+    private Object lockFor(int slot) {
+        return locks[slot & (LOCK_COUNT - 1)];
+    }
+
+    /**
+     * @param sessionId
+     * @return our tracked PolicySession for sessionId, or null
+     */
+    private PolicySession getTracked(long sessionId) {
+
+        PolicySession[] tracked = trackedSessions;
+
+        for (int i = 0; i < tracked.length; i++) {
+            if (tracked[i].getSessionId() == sessionId) {
+                return tracked[i];
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void forEachSession(SessionVisitor visitor) {
+
+        for (int slot = 0; slot < capacity; slot++) {
+
+            if (sessionStartMs.get(slot) == 0) {
+                continue;
+            }
+
+            long ourStartMs;
+            int ourUserId;
+            int ourCellId;
+            int ourUsageLimit;
+            short ourPolicyId;
+
+            synchronized (lockFor(slot)) {
+                ourStartMs = sessionStartMs.get(slot);
+                ourUserId = userId.get(slot);
+                ourCellId = cellId.get(slot);
+                ourUsageLimit = usageLimit.get(slot);
+                ourPolicyId = policyId[slot];
+            }
+
+            if (ourStartMs != 0) {
+                visitor.visit(slot + firstSessionId, ourStartMs, ourUserId, ourCellId, policyNames[ourPolicyId],
+                        ourUsageLimit);
+            }
+        }
+    }
+
+    /**
+     * @param policyName
+     * @return the id we use for policyName, adding it if needed
+     */
+    private short getPolicyId(String policyName) {
+
+        String[] names = policyNames;
+
+        for (short i = 0; i < names.length; i++) {
+            if (names[i].equals(policyName)) {
+                return i;
+            }
+        }
+
+        synchronized (this) {
+
+            names = policyNames;
+
+            for (short i = 0; i < names.length; i++) {
+                if (names[i].equals(policyName)) {
+                    return i;
+                }
+            }
+
+            String[] newNames = new String[names.length + 1];
+            System.arraycopy(names, 0, newNames, 0, names.length);
+            newNames[names.length] = policyName;
+            policyNames = newNames;
+
+            return (short) names.length;
+        }
+    }
+
+    @Override
+    public synchronized void track(PolicySession session) {
+
+        PolicySession[] newTracked = new PolicySession[trackedSessions.length + 1];
+        System.arraycopy(trackedSessions, 0, newTracked, 0, trackedSessions.length);
+        newTracked[trackedSessions.length] = session;
+        trackedSessions = newTracked;
+    }
+
+    @Override
+    public boolean createSession(long sessionId, TimestampType sessionStartUTC, long userId, long cellId,
+            Random r) {
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0 || getTracked(sessionId) != null) {
+            return false;
+        }
+
+        synchronized (lockFor(slot)) {
+
+            if (sessionStartMs.get(slot) != 0) {
+                return false;
+            }
+
+            sessionStartMs.put(slot, sessionStartUTC.asExactJavaDate().getTime());
+            lastMessageTime.put(slot, 0);
+            this.userId.put(slot, (int) userId);
+            this.cellId.put(slot, (int) cellId);
+            usageLimit.put(slot, 1);
+            policyId[slot] = 0;
+        }
+
+        size.incrementAndGet();
+
+        return true;
+    }
+
+    @Override
+    public boolean removeSession(long sessionId, long sessionStartMs) {
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0 || getTracked(sessionId) != null) {
+            return false;
+        }
+
+        synchronized (lockFor(slot)) {
+
+            if (sessionStartMs == 0 || this.sessionStartMs.get(slot) != sessionStartMs) {
+                return false;
+            }
+
+            this.sessionStartMs.put(slot, 0);
+        }
+
+        size.decrementAndGet();
+
+        return true;
+    }
+
+    @Override
+    public PolicyUsageMessage getNextUsageMessage(long sessionId, Random r) {
+
+        PolicySession trackedSession = getTracked(sessionId);
+
+        if (trackedSession != null) {
+            synchronized (trackedSession) {
+                return trackedSession.getNextUsageMessage();
+            }
+        }
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        long startMs;
+        long usage = 0;
+        int ourCellId;
+        short ourPolicyId;
+
+        synchronized (lockFor(slot)) {
+
+            startMs = sessionStartMs.get(slot);
+
+            if (startMs == 0) {
+                return null;
+            }
+
+            final long now = System.currentTimeMillis();
+
+            if (lastMessageTime.get(slot) + ONE_MINUTE_MS < now) {
+                usage = r.nextInt(usageLimit.get(slot));
+                lastMessageTime.put(slot, now);
+            }
+
+            ourCellId = cellId.get(slot);
+            ourPolicyId = policyId[slot];
+        }
+
+        return new PolicyUsageMessage(ourCellId, sessionId, new TimestampType(startMs * 1000), policyNames[ourPolicyId],
+                usage);
+    }
+
+    @Override
+    public Object[] getParamsForVoltDBCall(long sessionId) {
+
+        PolicySession trackedSession = getTracked(sessionId);
+
+        if (trackedSession != null) {
+            return trackedSession.getParamsForVoltDBCall();
+        }
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0) {
+            return null;
+        }
+
+        Object[] newParams = new Object[4];
+
+        synchronized (lockFor(slot)) {
+
+            final long startMs = sessionStartMs.get(slot);
+
+            if (startMs == 0) {
+                return null;
+            }
+
+            newParams[0] = (long) cellId.get(slot);
+            newParams[1] = sessionId;
+            newParams[2] = new Date(startMs);
+            newParams[3] = (long) userId.get(slot);
+        }
+
+        return newParams;
+    }
+
+    @Override
+    public boolean changePolicy(PolicyChangeMessage policyChangeMessage) {
+
+        final long sessionId = policyChangeMessage.getSessionId();
+        final long changeStartMs = policyChangeMessage.getSessionStartMs();
+
+        PolicySession trackedSession = getTracked(sessionId);
+
+        if (trackedSession != null) {
+
+            if (trackedSession.getSessionStartUTC().asExactJavaDate().getTime() != changeStartMs) {
+                return false;
+            }
+
+            synchronized (trackedSession) {
+                trackedSession.changePolicy(policyChangeMessage);
+            }
+
+            return true;
+        }
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0) {
+            return false;
+        }
+
+        synchronized (lockFor(slot)) {
+
+            if (sessionStartMs.get(slot) != changeStartMs) {
+                return false;
+            }
+
+            usageLimit.put(slot, policyChangeMessage.getNewLimit());
+        }
+
+        return true;
+    }
+
+    @Override
+    public void setPolicyNameAndLimit(long sessionId, long sessionStartMs, String policyName, long usageLimit) {
+
+        PolicySession trackedSession = getTracked(sessionId);
+
+        if (trackedSession != null) {
+            synchronized (trackedSession) {
+                trackedSession.setPolicyNameAndLimit(policyName, usageLimit);
+            }
+            return;
+        }
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0) {
+            return;
+        }
+
+        final short newPolicyId = getPolicyId(policyName);
+
+        synchronized (lockFor(slot)) {
+
+            if (this.sessionStartMs.get(slot) == sessionStartMs) {
+                this.usageLimit.put(slot, (int) usageLimit);
+                policyId[slot] = newPolicyId;
+            }
+        }
+    }
+
+    @Override
+    public boolean replaceUsageLimit(long sessionId, long sessionStartMs, long expectedLimit, long usageLimit) {
+
+        PolicySession trackedSession = getTracked(sessionId);
+
+        if (trackedSession != null) {
+
+            if (trackedSession.getSessionStartUTC().asExactJavaDate().getTime() != sessionStartMs) {
+                return false;
+            }
+
+            synchronized (trackedSession) {
+                if (trackedSession.getUsageLimit() == expectedLimit) {
+                    trackedSession.setPolicyNameAndLimit(trackedSession.getPolicyName(), usageLimit);
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0) {
+            return false;
+        }
+
+        synchronized (lockFor(slot)) {
+
+            if (this.sessionStartMs.get(slot) != sessionStartMs || this.usageLimit.get(slot) != expectedLimit) {
+                return false;
+            }
+
+            this.usageLimit.put(slot, (int) usageLimit);
+        }
+
+        return true;
+    }
+
+    @Override
+    public long getSessionStartMs(long sessionId) {
+
+        PolicySession trackedSession = getTracked(sessionId);
+
+        if (trackedSession != null) {
+            return trackedSession.getSessionStartUTC().asExactJavaDate().getTime();
+        }
+
+        final int slot = slotFor(sessionId);
+
+        if (slot < 0) {
+            return 0;
+        }
+
+        synchronized (lockFor(slot)) {
+            return sessionStartMs.get(slot);
+        }
+    }
+
+    @Override
+    public long[] getSessionIds() {
+
+        PolicySession[] tracked = trackedSessions;
+
+        // Plain reads are fine here - we only want a point in time copy, but
+        // sessions can be created while we look, so we count first...
+        int count = tracked.length;
+
+        for (int slot = 0; slot < capacity; slot++) {
+            if (sessionStartMs.get(slot) != 0) {
+                count++;
+            }
+        }
+
+        long[] sessionIds = new long[count];
+        count = 0;
+
+        for (int i = 0; i < tracked.length; i++) {
+            sessionIds[count++] = tracked[i].getSessionId();
+        }
+
+        for (int slot = 0; slot < capacity && count < sessionIds.length; slot++) {
+            if (sessionStartMs.get(slot) != 0) {
+                sessionIds[count++] = slot + firstSessionId;
+            }
+        }
+
+        if (count < sessionIds.length) {
+            long[] result = new long[count];
+            System.arraycopy(sessionIds, 0, result, 0, count);
+            return result;
+        }
+
+        return sessionIds;
+    }
+
+    @Override
+    public int size() {
+        return size.get() + trackedSessions.length;
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Checks that CompactSessionStore serves tracked sessions whose ids are
+ * outside its range - e.g. the known student session when 'users' is less
+ * than KNOWN_STUDENT_SESSION_ID. Exits with status 2 on the first failure.
+ *
+ */
+public class CompactSessionStoreTest {
+
+    /**
+     * @param args none
+     */
+    public static void main(String[] args) {
+
+        checkTrackedSessionOutOfRange(false);
+        checkTrackedSessionOutOfRange(true);
+
+        ConsoleMessageConsumer.msg("CompactSessionStoreTest passed");
+    }
+
+    /**
+     * Track a session outside a small store's range and use it the way
+     * PolicyDataGenerator does.
+     *
+     * @param offHeap
+     */
+    private static void checkTrackedSessionOutOfRange(boolean offHeap) {
+
+        final int offset = 5;
+        final int userCount = 1000;
+        final long sessionId = PolicyDataGenerator.KNOWN_STUDENT_SESSION_ID + offset;
+        final String name = "offHeap=" + offHeap + ": ";
+
+        Random r = new Random(42);
+        CompactSessionStore store = new CompactSessionStore(offset, userCount, offHeap);
+
+        TimestampType sessionStartUTC = new TimestampType();
+        PolicySession studentSession = new PolicySession(sessionStartUTC, sessionId,
+                PolicyDataGenerator.KNOWN_STUDENT_SESSION_ID, 0, r);
+        store.track(studentSession);
+
+        final long sessionStartMs = sessionStartUTC.asExactJavaDate().getTime();
+
+        check(name + "getSessionStartMs", store.getSessionStartMs(sessionId) == sessionStartMs);
+
+        Object[] params = store.getParamsForVoltDBCall(sessionId);
+        check(name + "getParamsForVoltDBCall", params != null && (Long) params[1] == sessionId);
+
+        store.setPolicyNameAndLimit(sessionId, sessionStartMs, "STARVING_STUDENT", 42);
+        check(name + "setPolicyNameAndLimit", studentSession.getUsageLimit() == 42
+                && "STARVING_STUDENT".equals(studentSession.getPolicyName()));
+
+        PolicyUsageMessage usage = store.getNextUsageMessage(sessionId, r);
+        check(name + "getNextUsageMessage", usage != null);
+
+        boolean changed = store.changePolicy(
+                new PolicyChangeMessage(0, sessionId, sessionStartUTC, new TimestampType(), 7));
+        check(name + "changePolicy", changed && studentSession.getUsageLimit() == 7);
+
+        // Untracked ids outside our range are still ignored...
+        check(name + "untracked", store.getParamsForVoltDBCall(sessionId + 1) == null
+                && store.getSessionStartMs(sessionId + 1) == 0);
+    }
+
+    /**
+     * @param what
+     * @param passed
+     */
+    private static void check(String what, boolean passed) {
+
+        if (!passed) {
+            ConsoleMessageConsumer.msg("CompactSessionStoreTest failed: " + what);
+            System.exit(2);
+        }
+    }
+
+}
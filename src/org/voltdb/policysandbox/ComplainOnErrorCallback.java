@@ -32,9 +32,43 @@ import org.voltdb.client.ProcedureCallback;
  */
 public class ComplainOnErrorCallback implements ProcedureCallback {
 
+    /**
+     * Where we record latency. Can be null.
+     */
+    ProcedureStats stats = null;
+
+    /**
+     * When the call was scheduled, as per System.nanoTime()
+     */
+    long scheduledNs;
+
+    /**
+     * Simple callback that complains if something went badly wrong.
+     */
+    public ComplainOnErrorCallback() {
+        super();
+    }
+
+    /**
+     * Simple callback that complains if something went badly wrong, and records
+     * latency in 'stats'.
+     *
+     * @param stats
+     * @param scheduledNs - when the call was scheduled, as per System.nanoTime()
+     */
+    public ComplainOnErrorCallback(ProcedureStats stats, long scheduledNs) {
+        super();
+        this.stats = stats;
+        this.scheduledNs = scheduledNs;
+    }
+
     @Override
     public void clientCallback(ClientResponse arg0) throws Exception {
 
+        if (stats != null) {
+            stats.record(scheduledNs, arg0);
+        }
+
         if (arg0.getStatus() != ClientResponse.SUCCESS) {
             ConsoleMessageConsumer.msg("Error Code " + arg0.getStatusString());
         }
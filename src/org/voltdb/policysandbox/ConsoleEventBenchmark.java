@@ -0,0 +1,314 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.voltdb.VoltTable;
+import org.voltdb.client.ClientResponse;
+
+/**
+ * Compares console_messages - text built inside procedures - with
+ * console_events - numbers, turned into text by ConsoleEventRenderer.
+ *
+ * Without VoltDB we make up ChangePolicies style events and report the
+ * exported record size in each format, how many text messages wouldn't fit in
+ * varchar(180), and what building the text costs a procedure compared to
+ * rendering it here.
+ *
+ * Given hostnames we also call ChangeCellAllocation 'callCount' times with
+ * CONSOLE_EVENTS set to 0 and then 1, moving 0 capacity from a policy to
+ * itself, and compare latencies. CONSOLE_EVENTS is put back afterwards.
+ *
+ */
+public class ConsoleEventBenchmark {
+
+    /**
+     * How VoltDB formats timestamps when exporting CSV.
+     */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS").withZone(ZoneOffset.UTC);
+
+    /**
+     * Longest message console_messages can hold.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 180;
+
+    /**
+     * Policies to make events for.
+     */
+    private static final String[] POLICY_NAMES = { "EXECUTIVE_PLUS", "AVERAGE_USER", "STARVING_STUDENT" };
+
+    /**
+     * @param args eventCount [hostnames callCount]
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 1 && args.length != 3) {
+            ConsoleMessageConsumer.msg("Usage: ConsoleEventBenchmark eventCount [hostnames callCount]");
+            System.exit(1);
+        }
+
+        final int eventCount = Integer.parseInt(args[0]);
+
+        compareFormats(eventCount);
+
+        if (args.length == 3) {
+            compareProcedureLatency(args[1], Integer.parseInt(args[2]));
+        }
+    }
+
+    /**
+     * Make up 'eventCount' ChangePolicies events and compare the two formats.
+     *
+     * @param eventCount
+     */
+    private static void compareFormats(int eventCount) {
+
+        Random r = new Random(42);
+        long[][] events = new long[eventCount][];
+        String[] eventRecords = new String[eventCount];
+        final String now = quote(TIMESTAMP_FORMAT.format(Instant.now()));
+        long textBytes = 0;
+        long eventBytes = 0;
+        int tooLongCount = 0;
+
+        for (int i = 0; i < eventCount; i++) {
+
+            // cell, policy, code, old limit, new limit, pct full, pct change, users, average...
+            final long eventCode = ConsoleEventRenderer.SHRINK + r.nextInt(ConsoleEventRenderer.GROW_HIT_LIMIT);
+            final long oldLimit = 10 + r.nextInt(1000000);
+            events[i] = new long[] { r.nextInt(1000), r.nextInt(POLICY_NAMES.length), eventCode, oldLimit,
+                    oldLimit + r.nextInt(100000) - 50000, r.nextInt(400), r.nextInt(100), r.nextInt(100000),
+                    r.nextInt(1000000000) };
+
+            final String text = buildText(events[i]);
+
+            eventRecords[i] = events[i][0] + "," + now + "," + eventCode + "," + quote(POLICY_NAMES[(int) events[i][1]])
+                    + "," + events[i][3] + "," + events[i][4] + "," + events[i][5] + ","
+                    + (eventCode >= ConsoleEventRenderer.GROW ? Long.toString(events[i][6]) : "NULL") + ","
+                    + events[i][7] + "," + events[i][8] + ",NULL";
+
+            if (!text.equals(ConsoleEventRenderer.render(eventRecords[i]))) {
+                ConsoleMessageConsumer.msg("Mismatch for " + eventRecords[i] + ": '" + text + "' vs '"
+                        + ConsoleEventRenderer.render(eventRecords[i]) + "'");
+                System.exit(2);
+            }
+
+            if (text.length() > MAX_MESSAGE_LENGTH) {
+                tooLongCount++;
+            }
+
+            textBytes += (events[i][0] + "," + now + "," + quote(text)).getBytes(StandardCharsets.UTF_8).length;
+            eventBytes += eventRecords[i].getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        ConsoleMessageConsumer.msg(String.format(
+                "console_messages %.1f bytes/msg (%d of %d longer than %d), console_events %.1f bytes/msg",
+                (double) textBytes / eventCount, tooLongCount, eventCount, MAX_MESSAGE_LENGTH,
+                (double) eventBytes / eventCount));
+
+        long checksum = 0;
+
+        for (int round = 0; round < 10; round++) {
+
+            final boolean report = round >= 5;
+
+            long startAllocated = allocatedBytes();
+            long startNs = System.nanoTime();
+
+            for (int i = 0; i < eventCount; i++) {
+                checksum += buildText(events[i]).length();
+            }
+
+            if (report) {
+                report("Procedure builds text", eventCount, System.nanoTime() - startNs,
+                        allocatedBytes() - startAllocated);
+            }
+
+            startAllocated = allocatedBytes();
+            startNs = System.nanoTime();
+
+            for (int i = 0; i < eventCount; i++) {
+                checksum += ConsoleEventRenderer.render(eventRecords[i]).length();
+            }
+
+            if (report) {
+                report("Client renders event", eventCount, System.nanoTime() - startNs,
+                        allocatedBytes() - startAllocated);
+            }
+        }
+
+        ConsoleMessageConsumer.msg("Checksum " + checksum);
+    }
+
+    /**
+     * Build a message the way ChangePolicies does.
+     *
+     * @param event
+     * @return the text
+     */
+    private static String buildText(long[] event) {
+
+        final String policyName = POLICY_NAMES[(int) event[1]];
+        final int eventCode = (int) event[2];
+
+        if (eventCode >= ConsoleEventRenderer.GROW) {
+            return "ChangePolicies: " + (eventCode == ConsoleEventRenderer.GROW ? "Grow" : "GrowHitLimit")
+                    + ": Cell/policy " + event[0] + "/" + policyName + " is at " + event[5] + "%. Growing by "
+                    + event[6] + "% from " + event[3] + " to " + event[4] + " for " + event[7]
+                    + " users. Current Avg is " + event[8];
+        }
+
+        return "ChangePolicies: "
+                + (eventCode == ConsoleEventRenderer.SHRINK ? "Shrink"
+                        : eventCode == ConsoleEventRenderer.PANIC_SHRINK ? "PanicShrink" : "ShrinkHitLimit")
+                + ": Cell/policy " + event[0] + "/" + policyName + " is at " + event[5] + "%. Shrinking from "
+                + event[3] + " to " + event[4] + " for " + event[7] + " users. Current Avg is " + event[8];
+    }
+
+    /**
+     * Time ChangeCellAllocation with CONSOLE_EVENTS off and on.
+     *
+     * @param hostnames
+     * @param callCount
+     * @throws Exception
+     */
+    private static void compareProcedureLatency(String hostnames, int callCount) throws Exception {
+
+        SendPipeline voltClient = PolicyDataGenerator.connectVoltDB(hostnames);
+
+        VoltTable cellPolicy = voltClient.callProcedure("@AdHoc",
+                "SELECT cell_id, policy_name FROM policy_active_limits_by_cell ORDER BY cell_id, policy_name LIMIT 1;")
+                .getResults()[0];
+
+        if (!cellPolicy.advanceRow()) {
+            ConsoleMessageConsumer.msg("No rows in policy_active_limits_by_cell - run PolicyDataGenerator first");
+            voltClient.close();
+            return;
+        }
+
+        final long cellId = cellPolicy.getLong("cell_id");
+        final String policyName = cellPolicy.getString("policy_name");
+
+        VoltTable oldSetting = voltClient.callProcedure("@AdHoc",
+                "SELECT parameter_value FROM policy_parameters WHERE parameter_name = 'CONSOLE_EVENTS';")
+                .getResults()[0];
+        final long oldValue = oldSetting.advanceRow() ? oldSetting.getLong("parameter_value") : 0;
+
+        try {
+
+            for (int round = 0; round < 2; round++) {
+                for (int consoleEvents = 0; consoleEvents <= 1; consoleEvents++) {
+
+                    setConsoleEvents(voltClient, consoleEvents);
+
+                    LatencyHistogram latencies = new LatencyHistogram();
+
+                    for (int i = 0; i < callCount; i++) {
+
+                        final long startNs = System.nanoTime();
+                        ClientResponse response = voltClient.callProcedure("ChangeCellAllocation", cellId,
+                                policyName, policyName, 0);
+                        latencies.recordValue((System.nanoTime() - startNs) / 1000);
+
+                        if (response.getStatus() != ClientResponse.SUCCESS) {
+                            ConsoleMessageConsumer.msg(response.getStatusString());
+                        }
+                    }
+
+                    // The first round is warm up...
+                    if (round > 0) {
+                        ConsoleMessageConsumer.msg(String.format(
+                                "ChangeCellAllocation %s: calls=%d latency(ms) mean=%.3f p50=%.3f p99=%.3f max=%.3f",
+                                consoleEvents == 1 ? "console_events  " : "console_messages", callCount,
+                                latencies.getMean() / 1000, latencies.getValueAtPercentile(50) / 1000.0,
+                                latencies.getValueAtPercentile(99) / 1000.0, latencies.getMaxValue() / 1000.0));
+                    }
+                }
+            }
+
+        } finally {
+            setConsoleEvents(voltClient, oldValue);
+            voltClient.close();
+        }
+    }
+
+    /**
+     * @param voltClient
+     * @param value      - 1 to use console_events, 0 to use console_messages
+     * @throws Exception
+     */
+    private static void setConsoleEvents(SendPipeline voltClient, long value) throws Exception {
+        voltClient.callProcedure("@AdHoc",
+                "UPSERT INTO policy_parameters (parameter_name, parameter_value) VALUES ('CONSOLE_EVENTS', " + value
+                        + ");");
+    }
+
+    /**
+     * @param value
+     * @return 'value' in double quotes, as VoltDB exports strings and
+     *         timestamps
+     */
+    private static String quote(String value) {
+        return '"' + value + '"';
+    }
+
+    /**
+     * Report how long something took.
+     *
+     * @param name
+     * @param eventCount
+     * @param elapsedNs
+     * @param allocated
+     */
+    private static void report(String name, int eventCount, long elapsedNs, long allocated) {
+
+        ConsoleMessageConsumer.msg(String.format("%-22s %8.1f ns/msg %8.1f bytes/msg", name,
+                (double) elapsedNs / eventCount, (double) allocated / eventCount));
+    }
+
+    /**
+     * @return bytes allocated by this thread so far, or 0 if the JVM can't tell
+     *         us
+     */
+    private static long allocatedBytes() {
+
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Turns console_events records - numbers - into the same text procedures used
+ * to put in console_messages. Doing this here instead of in the procedures
+ * saves them building strings, makes the exported records smaller, and means
+ * messages are no longer cut off at 180 characters.
+ *
+ * The event codes are the ones in policysandbox.ConsoleEvent, which lives with
+ * the procedures. Keep the two in step.
+ *
+ */
+public class ConsoleEventRenderer {
+
+    public static final int SHRINK = 1;
+    public static final int PANIC_SHRINK = 2;
+    public static final int SHRINK_HIT_LIMIT = 3;
+    public static final int GROW = 4;
+    public static final int GROW_HIT_LIMIT = 5;
+    public static final int STEPPED_CHANGE_PROGRESS = 6;
+    public static final int STEPPED_CHANGE_FINISHED = 7;
+    public static final int NEW_CELL_POLICY = 8;
+    public static final int CELL_ALLOCATION_MOVED = 9;
+    public static final int CELL_ALLOCATION_REFUSED = 10;
+
+    /*
+     * Where each column is in an exported record.
+     */
+    private static final int CELL_ID = 0;
+    private static final int EVENT_CODE = 2;
+    private static final int POLICY_NAME = 3;
+    private static final int OLD_LIMIT = 4;
+    private static final int NEW_LIMIT = 5;
+    private static final int PCT_FULL = 6;
+    private static final int PCT_CHANGE = 7;
+    private static final int USER_COUNT = 8;
+    private static final int AVG_PER_USER = 9;
+    private static final int CHANGE_TIMESTAMP = 10;
+    private static final int COLUMN_COUNT = 11;
+
+    /**
+     * @param value a console_events record, exported as CSV
+     * @return the message the procedure would have sent to console_messages
+     */
+    public static String render(String value) {
+
+        String[] fields = value.split(",", -1);
+
+        if (fields.length < COLUMN_COUNT) {
+            return "Unreadable console event: " + value;
+        }
+
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = unquote(fields[i]);
+        }
+
+        final String cellId = fields[CELL_ID];
+        final String policyName = fields[POLICY_NAME];
+        final int eventCode;
+
+        try {
+            eventCode = Integer.parseInt(fields[EVENT_CODE]);
+        } catch (NumberFormatException e) {
+            return "Unreadable console event: " + value;
+        }
+
+        switch (eventCode) {
+
+        case SHRINK:
+        case PANIC_SHRINK:
+        case SHRINK_HIT_LIMIT:
+            return "ChangePolicies: " + eventName(eventCode) + ": Cell/policy " + cellId + "/" + policyName + " is at "
+                    + fields[PCT_FULL] + "%. Shrinking from " + fields[OLD_LIMIT] + " to " + fields[NEW_LIMIT]
+                    + " for " + fields[USER_COUNT] + " users. Current Avg is " + fields[AVG_PER_USER];
+
+        case GROW:
+        case GROW_HIT_LIMIT:
+            return "ChangePolicies: " + eventName(eventCode) + ": Cell/policy " + cellId + "/" + policyName + " is at "
+                    + fields[PCT_FULL] + "%. Growing by " + fields[PCT_CHANGE] + "% from " + fields[OLD_LIMIT] + " to "
+                    + fields[NEW_LIMIT] + " for " + fields[USER_COUNT] + " users. Current Avg is "
+                    + fields[AVG_PER_USER];
+
+        case STEPPED_CHANGE_PROGRESS:
+            return "Cell/Policy " + cellId + "/" + policyName + " change to " + fields[NEW_LIMIT] + " @"
+                    + fields[CHANGE_TIMESTAMP] + " " + fields[PCT_CHANGE] + "% done.";
+
+        case STEPPED_CHANGE_FINISHED:
+            return "Cell/Policy " + cellId + "/" + policyName + " change to " + fields[NEW_LIMIT] + " @"
+                    + fields[CHANGE_TIMESTAMP] + " finished.";
+
+        case NEW_CELL_POLICY:
+            return "Created new Cell/Policy " + cellId + "/" + policyName + " with limit of " + fields[NEW_LIMIT];
+
+        case CELL_ALLOCATION_MOVED:
+            return "Current 'from' is " + fields[OLD_LIMIT] + ". Reduced by " + difference(fields);
+
+        case CELL_ALLOCATION_REFUSED:
+            return "Current 'from' is " + fields[OLD_LIMIT] + ". Can't reduce by " + difference(fields);
+
+        default:
+            return "Unknown console event " + eventCode + ": " + value;
+        }
+    }
+
+    /**
+     * @param eventCode
+     * @return the name ChangePolicies used for 'eventCode'
+     */
+    private static String eventName(int eventCode) {
+
+        switch (eventCode) {
+        case SHRINK:
+            return "Shrink";
+        case PANIC_SHRINK:
+            return "PanicShrink";
+        case SHRINK_HIT_LIMIT:
+            return "ShrinkHitLimit";
+        case GROW:
+            return "Grow";
+        default:
+            return "GrowHitLimit";
+        }
+    }
+
+    /**
+     * @param fields
+     * @return old_limit - new_limit, which for ChangeCellAllocation is the
+     *         amount moved
+     */
+    private static String difference(String[] fields) {
+
+        try {
+            return Long.toString(Long.parseLong(fields[OLD_LIMIT]) - Long.parseLong(fields[NEW_LIMIT]));
+        } catch (NumberFormatException e) {
+            return "?";
+        }
+    }
+
+    /**
+     * @param field
+     * @return 'field' without surrounding quotes. VoltDB's way of writing null
+     *         becomes an empty string.
+     */
+    private static String unquote(String field) {
+
+        if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+            field = field.substring(1, field.length() - 1);
+        }
+
+        if (field.equals("NULL") || field.equals("\\N")) {
+            return "";
+        }
+
+        return field;
+    }
+
+}
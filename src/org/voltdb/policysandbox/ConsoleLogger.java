@@ -0,0 +1,356 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes console messages for ConsoleMessageConsumer.msg() on a thread of its
+ * own, so the generator loop, the Kafka consumers and client callbacks don't
+ * wait for System.out.
+ *
+ * Callers put messages in a fixed size ring buffer and return straight away.
+ * If the buffer is full the message is dropped and counted - we never block a
+ * caller - and the writer reports how many were lost. The writer is the only
+ * thread that formats timestamps, and only does so once a second. It writes
+ * whatever has piled up in one go before flushing.
+ *
+ * The ring buffer is the usual bounded multi producer queue: each slot has a
+ * sequence number which tells producers when it's free and the writer when
+ * it's full.
+ *
+ */
+public class ConsoleLogger implements Runnable {
+
+    /**
+     * How long the writer sleeps when there's nothing to do.
+     */
+    private static final long IDLE_PARK_NS = 1000000;
+
+    /**
+     * Most messages we write before flushing.
+     */
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    /**
+     * Messages.
+     */
+    private final String[] messages;
+
+    /**
+     * When each message was logged.
+     */
+    private final long[] messageMs;
+
+    /**
+     * Sequence number of each slot. A slot is free for the producer who claimed
+     * position 'n' when it holds 'n', and ready for the writer when it holds
+     * 'n + 1'.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * messages.length - 1
+     */
+    private final int mask;
+
+    /**
+     * Next position a producer will claim.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position the writer will read. Only touched by the writer.
+     */
+    private long head = 0;
+
+    /**
+     * How many messages we've dropped because the buffer was full.
+     */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * How many dropped messages we've told people about.
+     */
+    private long reportedDroppedCount = 0;
+
+    /**
+     * Where messages go.
+     */
+    private final Writer out;
+
+    /**
+     * Formats timestamps. Only used by the writer.
+     */
+    private final SimpleDateFormat sdfDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Second we last formatted a timestamp for.
+     */
+    private long cachedSecond = Long.MIN_VALUE;
+
+    /**
+     * 'cachedSecond' formatted, followed by ':'.
+     */
+    private char[] cachedPrefix;
+
+    /**
+     * Our thread.
+     */
+    private Thread writerThread;
+
+    /**
+     * Set when the JVM is shutting down. We write what's left and stop.
+     */
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Create a logger. Call start() before using it.
+     *
+     * @param capacity - how many messages we can hold. Rounded up to a power
+     *                 of 2.
+     * @param stream   - where messages go
+     */
+    public ConsoleLogger(int capacity, OutputStream stream) {
+
+        super();
+
+        final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        messages = new String[size];
+        messageMs = new long[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+
+        out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 65536);
+    }
+
+    /**
+     * Create a logger according to -Dpolicysandbox.consoleLogFile and
+     * -Dpolicysandbox.consoleLogBufferSize, and start it.
+     *
+     * @return a running logger
+     */
+    public static ConsoleLogger create() {
+
+        final String filename = SandboxOptions.getString("consoleLogFile", "");
+        final int capacity = SandboxOptions.getInt("consoleLogBufferSize", 65536);
+        OutputStream stream = System.out;
+
+        if (filename.length() > 0) {
+            try {
+                stream = new FileOutputStream(filename, true);
+            } catch (IOException e) {
+                System.out.println("Can't write console messages to " + filename + ": " + e.getMessage());
+            }
+        }
+
+        ConsoleLogger logger = new ConsoleLogger(capacity, stream);
+        logger.start();
+
+        return logger;
+    }
+
+    /**
+     * Start our writer thread, and make sure whatever is left in the buffer is
+     * written when the JVM exits.
+     */
+    public void start() {
+
+        writerThread = new Thread(this, "ConsoleLogger");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "ConsoleLogger-shutdown"));
+    }
+
+    /**
+     * Queue a message. Never blocks.
+     *
+     * @param message
+     * @return false if the buffer was full and the message was dropped
+     */
+    public boolean log(String message) {
+
+        final long nowMs = System.currentTimeMillis();
+        long position = tail.get();
+
+        while (true) {
+
+            final int slot = (int) position & mask;
+            final long difference = sequences.get(slot) - position;
+
+            if (difference == 0) {
+
+                if (tail.compareAndSet(position, position + 1)) {
+                    messages[slot] = message;
+                    messageMs[slot] = nowMs;
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+
+                position = tail.get();
+
+            } else if (difference < 0) {
+
+                // The writer hasn't caught up with this slot yet...
+                droppedCount.incrementAndGet();
+                return false;
+
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+
+        while (true) {
+
+            // Once we're told to stop we keep going until the buffer is empty...
+            final boolean stopping = !keepGoing;
+
+            if (writeBatch() == 0) {
+
+                if (stopping) {
+                    return;
+                }
+
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+    }
+
+    /**
+     * Write up to MAX_BATCH_SIZE messages and flush them.
+     *
+     * @return how many messages we wrote
+     */
+    private int writeBatch() {
+
+        int writtenCount = 0;
+
+        try {
+
+            while (writtenCount < MAX_BATCH_SIZE) {
+
+                final int slot = (int) head & mask;
+
+                if (sequences.get(slot) != head + 1) {
+                    break;
+                }
+
+                final String message = messages[slot];
+                final long ms = messageMs[slot];
+
+                messages[slot] = null;
+                sequences.lazySet(slot, head + messages.length);
+                head++;
+
+                write(ms, message);
+                writtenCount++;
+            }
+
+            final long currentDroppedCount = droppedCount.get();
+
+            if (currentDroppedCount != reportedDroppedCount) {
+                write(System.currentTimeMillis(), "Console buffer full; dropped "
+                        + (currentDroppedCount - reportedDroppedCount) + " messages (" + currentDroppedCount
+                        + " in total)");
+                reportedDroppedCount = currentDroppedCount;
+                writtenCount++;
+            }
+
+            if (writtenCount > 0) {
+                out.flush();
+            }
+
+        } catch (IOException e) {
+            // Nowhere sensible to report this...
+        }
+
+        return writtenCount;
+    }
+
+    /**
+     * Write one message, without flushing.
+     *
+     * @param ms
+     * @param message
+     * @throws IOException
+     */
+    private void write(long ms, String message) throws IOException {
+
+        final long second = ms / 1000;
+
+        if (second != cachedSecond) {
+            cachedPrefix = (sdfDate.format(new Date(second * 1000)) + ":").toCharArray();
+            cachedSecond = second;
+        }
+
+        out.write(cachedPrefix);
+        out.write(String.valueOf(message));
+        out.write('\n');
+    }
+
+    /**
+     * Stop our writer thread once it has written everything it has.
+     */
+    public void stop() {
+
+        keepGoing = false;
+
+        if (writerThread != null) {
+            try {
+                writerThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return How many messages we've dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+}
@@ -26,19 +26,29 @@ package org.voltdb.policysandbox;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.Properties;
 
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 
 /**
- * Runnable class to read Kafka messages and log them.
+ * Runnable class to read Kafka messages and log them. Messages can come as text
+ * from console_messages, or as numbers from console_events, which we turn into
+ * text ourselves.
  *
  */
 public class ConsoleMessageConsumer implements Runnable {
 
+    /**
+     * Messages from procedures, as text.
+     */
+    public static final String CONSOLE_MESSAGES_TOPIC = "console_messages";
+
+    /**
+     * Messages from procedures, as numbers. See ConsoleEventRenderer.
+     */
+    public static final String CONSOLE_EVENTS_TOPIC = "console_events";
+
     /**
      * Comma delimited list of Kafka hosts. Note we expect the port number with 
      * each host name
@@ -51,9 +61,9 @@ public class ConsoleMessageConsumer implements Runnable {
     boolean keepGoing = true;
     
     /**
-     * Used for formatting messages
+     * Writes our messages on a thread of its own. See ConsoleLogger.
      */
-    static SimpleDateFormat sdfDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    static final ConsoleLogger logger = ConsoleLogger.create();
 
     /**
      * Create a runnable instance of a class to poll the Kafka topic console_messages
@@ -77,7 +87,7 @@ public class ConsoleMessageConsumer implements Runnable {
             props.put("auto.commit.interval.ms", "100");
 
             KafkaConsumer<String, String> consumer = new KafkaConsumer<>(props);
-            consumer.subscribe(Arrays.asList("console_messages"));
+            consumer.subscribe(Arrays.asList(CONSOLE_MESSAGES_TOPIC, CONSOLE_EVENTS_TOPIC));
 
             while (keepGoing) {
 
@@ -85,7 +95,11 @@ public class ConsoleMessageConsumer implements Runnable {
                 ConsumerRecords<String, String> records = consumer.poll(100); //TODO
                 for (ConsumerRecord<String, String> record : records) {
 
-                    ConsoleMessageConsumer.msg(record.value());
+                    if (CONSOLE_EVENTS_TOPIC.equals(record.topic())) {
+                        ConsoleMessageConsumer.msg(ConsoleEventRenderer.render(record.value()));
+                    } else {
+                        ConsoleMessageConsumer.msg(record.value());
+                    }
 
                 }
             }
@@ -107,15 +121,14 @@ public class ConsoleMessageConsumer implements Runnable {
     }
     
     /**
-     * Print a formatted message.
+     * Print a formatted message. This doesn't wait for the message to be
+     * written, and drops it if too many are waiting.
      * 
      * @param message
      */
     public static void msg(String message) {
 
-        Date now = new Date();
-        String strDate = sdfDate.format(now);
-        System.out.println(strDate + ":" + message);
+        logger.log(message);
 
     }
 
@@ -126,10 +139,16 @@ public class ConsoleMessageConsumer implements Runnable {
      */
     public static void msg(Exception e) {
 
-        Date now = new Date();
-        String strDate = sdfDate.format(now);
-        System.out.println(strDate + ":" + e.getClass().getName() + ":" + e.getMessage());
+        logger.log(e.getClass().getName() + ":" + e.getMessage());
+
+    }
 
+    /**
+     * @return How many messages msg() has dropped because too many were
+     *         waiting to be written
+     */
+    public static long getDroppedMessageCount() {
+        return logger.getDroppedCount();
     }
 
 
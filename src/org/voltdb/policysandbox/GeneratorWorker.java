@@ -0,0 +1,307 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * One of PolicyDataGenerator's load generating threads. Each worker owns a
+ * disjoint 'shard' of the session id space, has its own Random and does its own
+ * pacing, but sends everything through the generator's shared VoltDB client.
+ *
+ */
+public class GeneratorWorker implements Runnable {
+
+    /**
+     * The generator we work for.
+     */
+    PolicyDataGenerator pdg;
+
+    /**
+     * Which worker we are.
+     */
+    int workerId;
+
+    /**
+     * First session id in our shard.
+     */
+    long shardStart;
+
+    /**
+     * How many session ids are in our shard.
+     */
+    int shardSize;
+
+    /**
+     * Paces us to our share of the target transactions per millisecond.
+     */
+    Pacer pacer;
+
+    /**
+     * When we stop, as per System.currentTimeMillis().
+     */
+    long endMs;
+
+    /**
+     * Our own Random, so workers don't contend on a shared one.
+     */
+    Random r;
+
+    /**
+     * How we pick sessions from our shard.
+     */
+    KeyDistribution sessionDistribution;
+
+    /**
+     * How we pick cells for new sessions.
+     */
+    KeyDistribution cellDistribution;
+
+    /**
+     * Session churn settings, or null if churn is off.
+     */
+    ChurnModel churn;
+
+    /**
+     * When our sessions expire, if churn is on.
+     */
+    SessionExpiryQueue expiryQueue;
+
+    /**
+     * Limits how fast new sessions arrive, if churn is on.
+     */
+    Pacer arrivalPacer;
+
+    /**
+     * How many sessions we've ended because they expired.
+     */
+    AtomicLong endedCount = new AtomicLong();
+
+    /**
+     * How many expired sessions we forgot about without telling VoltDB.
+     */
+    AtomicLong abandonedCount = new AtomicLong();
+
+    /**
+     * How many expired sessions we started again with a new sessionStartUTC.
+     */
+    AtomicLong restartedCount = new AtomicLong();
+
+    /**
+     * How many records we have generated. Read by the generator's stats
+     * reporting.
+     */
+    AtomicLong recordCount = new AtomicLong();
+
+    /**
+     * Create a worker.
+     *
+     * @param pdg
+     * @param workerId
+     * @param shardStart
+     * @param shardSize
+     * @param tpMs - our share of the target transactions per millisecond
+     * @param endMs
+     * @param seed - seed for our Random
+     */
+    public GeneratorWorker(PolicyDataGenerator pdg, int workerId, long shardStart, int shardSize, double tpMs,
+            long endMs, long seed) {
+        super();
+        this.pdg = pdg;
+        this.workerId = workerId;
+        this.shardStart = shardStart;
+        this.shardSize = shardSize;
+        this.pacer = new Pacer(tpMs);
+        this.endMs = endMs;
+        this.r = new Random(seed);
+        this.sessionDistribution = KeyDistribution.create(pdg.sessionDistributionName, shardSize);
+        this.cellDistribution = KeyDistribution.create(pdg.cellDistributionName, pdg.cellCount);
+
+        if (pdg.churn.isEnabled()) {
+            this.churn = pdg.churn;
+            this.expiryQueue = new SessionExpiryQueue();
+            this.arrivalPacer = churn.createArrivalPacer(pdg.threadCount);
+        }
+    }
+
+    @Override
+    public void run() {
+
+        long ourRecordCount = 0;
+
+        final SessionStore sessionStore = pdg.sessionStore;
+
+        if (churn != null) {
+            scheduleExistingSessions();
+        }
+
+        while (System.currentTimeMillis() < endMs) {
+
+            final long scheduledNs = pacer.acquire();
+
+            if (churn != null) {
+                expireSessions();
+            }
+
+            // pick a random session from our shard and a random cell id..
+            long randomSessionId = sessionDistribution.next(r) + shardStart;
+            int randomCellId = cellDistribution.next(r);
+
+            // See if our session already exists. If it does then generate some usage. If not,
+            // create it...
+            PolicyUsageMessage newMessage = sessionStore.getNextUsageMessage(randomSessionId, r);
+
+            if (newMessage == null) {
+
+                if (churn == null) {
+
+                    if (sessionStore.createSession(randomSessionId, new TimestampType(), r.nextInt(pdg.userCount),
+                            randomCellId, r)) {
+                        pdg.sendNewSessionMessage(randomSessionId, scheduledNs);
+                    }
+
+                } else if (arrivalPacer.tryAcquire() >= 0) {
+
+                    startSession(randomSessionId, r.nextInt(pdg.userCount), randomCellId, scheduledNs);
+                }
+
+            } else {
+
+                pdg.sendSessionUsageMessage(newMessage, scheduledNs);
+
+            }
+
+            recordCount.lazySet(++ourRecordCount);
+
+        }
+
+    }
+
+    /**
+     * Create a session and give it a lifetime.
+     *
+     * @param sessionId
+     * @param userId
+     * @param cellId
+     * @param scheduledNs
+     */
+    private void startSession(long sessionId, long userId, int cellId, long scheduledNs) {
+
+        if (pdg.sessionStore.createSession(sessionId, new TimestampType(), userId, cellId, r)) {
+            pdg.sendNewSessionMessage(sessionId, scheduledNs);
+            expiryQueue.add(System.currentTimeMillis() + churn.nextLifetimeMs(r), sessionId);
+        }
+    }
+
+    /**
+     * Give any sessions in our shard that already exist - e.g. because of a
+     * warm-up - a lifetime.
+     */
+    private void scheduleExistingSessions() {
+
+        final long now = System.currentTimeMillis();
+
+        for (long sessionId = shardStart; sessionId < shardStart + shardSize; sessionId++) {
+            if (!pdg.isTrackedSession(sessionId) && pdg.sessionStore.getSessionStartMs(sessionId) != 0) {
+                expiryQueue.add(now + churn.nextLifetimeMs(r), sessionId);
+            }
+        }
+    }
+
+    /**
+     * End - or abandon - any sessions whose lifetime is up, and restart some of
+     * them.
+     */
+    private void expireSessions() {
+
+        final long now = System.currentTimeMillis();
+        final SessionStore sessionStore = pdg.sessionStore;
+
+        while (expiryQueue.peekExpiryMs() <= now) {
+
+            final long sessionId = expiryQueue.poll();
+            final Object[] params = sessionStore.getParamsForVoltDBCall(sessionId);
+
+            if (params == null) {
+                continue;
+            }
+
+            final long scheduledNs = System.nanoTime();
+
+            if (r.nextDouble() < churn.abandonProbability) {
+                abandonedCount.lazySet(abandonedCount.get() + 1);
+            } else {
+                pdg.sendEndSessionMessage(sessionId, scheduledNs);
+                endedCount.lazySet(endedCount.get() + 1);
+            }
+
+            sessionStore.removeSession(sessionId, ((Date) params[2]).getTime());
+
+            if (r.nextDouble() < churn.restartProbability) {
+                startSession(sessionId, (Long) params[3], cellDistribution.next(r), scheduledNs);
+                restartedCount.lazySet(restartedCount.get() + 1);
+            }
+        }
+    }
+
+    /**
+     * @return How many sessions we've ended because they expired
+     */
+    public long getEndedCount() {
+        return endedCount.get();
+    }
+
+    /**
+     * @return How many expired sessions we forgot about without telling VoltDB
+     */
+    public long getAbandonedCount() {
+        return abandonedCount.get();
+    }
+
+    /**
+     * @return How many expired sessions we started again
+     */
+    public long getRestartedCount() {
+        return restartedCount.get();
+    }
+
+    /**
+     * @return our Pacer, so the generator can report achieved vs target rates
+     */
+    public Pacer getPacer() {
+        return pacer;
+    }
+
+    /**
+     * @return How many records this worker has generated
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+}
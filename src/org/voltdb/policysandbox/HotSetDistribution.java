@@ -0,0 +1,106 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+/**
+ * A fraction of the keys - the 'hot set' - gets a fixed share of the picks,
+ * and the rest are spread over everything else. If moveMs is more than 0 the
+ * hot set moves along by its own size every moveMs, wrapping around at the
+ * end, which lets us see how ChangePolicies copes with a hot spot that moves
+ * from cell to cell.
+ *
+ */
+public class HotSetDistribution implements KeyDistribution {
+
+    /**
+     * How many keys there are.
+     */
+    final int n;
+
+    /**
+     * How many keys are hot.
+     */
+    final int hotCount;
+
+    /**
+     * Fraction of picks that go to hot keys.
+     */
+    final double hotProbability;
+
+    /**
+     * How often the hot set moves. 0 means never.
+     */
+    final long moveMs;
+
+    /**
+     * When we were created, as per System.currentTimeMillis().
+     */
+    final long startMs;
+
+    /**
+     * @param n              - how many keys there are
+     * @param hotFraction    - what fraction of keys are hot
+     * @param hotProbability - what fraction of picks go to hot keys
+     * @param moveMs         - how often the hot set moves. 0 means never.
+     */
+    public HotSetDistribution(int n, double hotFraction, double hotProbability, long moveMs) {
+        this.n = n;
+        this.hotCount = (int) Math.min(n, Math.max(1, Math.round(n * hotFraction)));
+        this.hotProbability = hotProbability;
+        this.moveMs = moveMs;
+        this.startMs = System.currentTimeMillis();
+    }
+
+    @Override
+    public int next(Random r) {
+
+        final int hotStart = getHotStart();
+        int offset;
+
+        if (hotCount == n || r.nextDouble() < hotProbability) {
+            offset = r.nextInt(hotCount);
+        } else {
+            offset = hotCount + r.nextInt(n - hotCount);
+        }
+
+        return (int) ((hotStart + (long) offset) % n);
+    }
+
+    /**
+     * @return the first hot key
+     */
+    public int getHotStart() {
+
+        if (moveMs <= 0) {
+            return 0;
+        }
+
+        final long moves = (System.currentTimeMillis() - startMs) / moveMs;
+
+        return (int) ((moves * hotCount) % n);
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+/**
+ * A way of picking keys - cell ids or session ids - between 0 and n - 1. Real
+ * networks don't spread load evenly across cells, and since each cell_id maps
+ * to one VoltDB partition, skew is what finds hot spots.
+ *
+ */
+public interface KeyDistribution {
+
+    public static final String UNIFORM = "uniform";
+
+    public static final String ZIPF = "zipf";
+
+    public static final String HOT_SET = "hotset";
+
+    public static final String MOVING_HOTSPOT = "movinghotspot";
+
+    /**
+     * @param r
+     * @return a key between 0 and n - 1
+     */
+    int next(Random r);
+
+    /**
+     * Create a distribution. Settings other than the name come from
+     * SandboxOptions:
+     * <ul>
+     * <li>zipfExponent - for 'zipf'. Default 1.</li>
+     * <li>hotSetFraction - for 'hotset' and 'movinghotspot', what fraction of
+     * keys are hot. Default 0.1.</li>
+     * <li>hotSetProbability - for 'hotset' and 'movinghotspot', what fraction of
+     * picks go to hot keys. Default 0.9.</li>
+     * <li>hotspotMoveMs - for 'movinghotspot', how often the hot keys move on.
+     * Default 60000.</li>
+     * </ul>
+     *
+     * @param name - uniform, zipf, hotset or movinghotspot
+     * @param n    - how many keys there are
+     * @return a new distribution
+     */
+    public static KeyDistribution create(String name, int n) {
+
+        final String lowerName = name.toLowerCase();
+
+        if (ZIPF.equals(lowerName)) {
+            return new ZipfDistribution(n, SandboxOptions.getDouble("zipfExponent", 1));
+        }
+
+        if (HOT_SET.equals(lowerName)) {
+            return new HotSetDistribution(n, SandboxOptions.getDouble("hotSetFraction", 0.1),
+                    SandboxOptions.getDouble("hotSetProbability", 0.9), 0);
+        }
+
+        if (MOVING_HOTSPOT.equals(lowerName)) {
+            return new HotSetDistribution(n, SandboxOptions.getDouble("hotSetFraction", 0.1),
+                    SandboxOptions.getDouble("hotSetProbability", 0.9), SandboxOptions.getLong("hotspotMoveMs", 60000));
+        }
+
+        if (!UNIFORM.equals(lowerName)) {
+            ConsoleMessageConsumer.msg("Unknown distribution '" + name + "', using " + UNIFORM);
+        }
+
+        return new UniformDistribution(n);
+    }
+
+}
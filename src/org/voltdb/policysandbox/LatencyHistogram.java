@@ -0,0 +1,299 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe, fixed size latency histogram in the style of HdrHistogram.
+ * Values (we use microseconds) below 128 get a bucket each. Above that each
+ * power of 2 is split into 64 linear sub buckets, so any recorded value is
+ * accurate to within about 1.5%, and memory use doesn't depend on how many
+ * values we record.
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * Each power of 2 is split into this many sub buckets.
+     */
+    private static final int SUB_BUCKET_HALF_COUNT = 64;
+
+    /**
+     * Values below this get their own bucket.
+     */
+    private static final int SUB_BUCKET_COUNT = SUB_BUCKET_HALF_COUNT * 2;
+
+    /**
+     * log2(SUB_BUCKET_HALF_COUNT)
+     */
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 6;
+
+    /**
+     * Highest power of 2 we track. Anything bigger is recorded as the biggest
+     * value we can hold, which is about 25 days in microseconds.
+     */
+    private static final int MAX_EXPONENT = 34;
+
+    /**
+     * Counts for each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(
+            SUB_BUCKET_COUNT + (MAX_EXPONENT * SUB_BUCKET_HALF_COUNT));
+
+    /**
+     * How many values we have.
+     */
+    private final AtomicLong totalCount = new AtomicLong();
+
+    /**
+     * Biggest value we've seen.
+     */
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Sum of all values, for the mean.
+     */
+    private final AtomicLong totalValue = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param value - must not be negative; negative values are recorded as 0.
+     */
+    public void recordValue(long value) {
+
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts.incrementAndGet(indexFor(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+
+        long currentMax = maxValue.get();
+
+        while (value > currentMax && !maxValue.compareAndSet(currentMax, value)) {
+            currentMax = maxValue.get();
+        }
+    }
+
+    /**
+     * Add all of 'other's values to ours.
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+
+        for (int i = 0; i < counts.length(); i++) {
+
+            long bucketCount = other.counts.get(i);
+
+            if (bucketCount > 0) {
+                counts.addAndGet(i, bucketCount);
+            }
+        }
+
+        totalCount.addAndGet(other.totalCount.get());
+        totalValue.addAndGet(other.totalValue.get());
+
+        long otherMax = other.getMaxValue();
+        long currentMax = maxValue.get();
+
+        while (otherMax > currentMax && !maxValue.compareAndSet(currentMax, otherMax)) {
+            currentMax = maxValue.get();
+        }
+    }
+
+    /**
+     * @param value
+     * @return the bucket for 'value'
+     */
+    static int indexFor(long value) {
+
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // Shift 'value' so it lands between SUB_BUCKET_HALF_COUNT and SUB_BUCKET_COUNT...
+        int exponent = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+
+        if (exponent > MAX_EXPONENT) {
+            return SUB_BUCKET_COUNT + (MAX_EXPONENT * SUB_BUCKET_HALF_COUNT) - 1;
+        }
+
+        int subBucket = (int) (value >>> exponent) - SUB_BUCKET_HALF_COUNT;
+
+        return SUB_BUCKET_COUNT + ((exponent - 1) * SUB_BUCKET_HALF_COUNT) + subBucket;
+    }
+
+    /**
+     * @param index
+     * @return the highest value that would be recorded in bucket 'index'
+     */
+    static long highestValueFor(int index) {
+
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int exponent = ((index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT) + 1;
+        int subBucket = ((index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT) + SUB_BUCKET_HALF_COUNT;
+
+        return (((long) subBucket + 1) << exponent) - 1;
+    }
+
+    /**
+     * @param percentile - 0 to 100
+     * @return the value at 'percentile', or 0 if we have no values
+     */
+    public long getValueAtPercentile(double percentile) {
+
+        final long count = totalCount.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long countAtPercentile = (long) Math.ceil((Math.min(percentile, 100) / 100) * count);
+
+        if (countAtPercentile < 1) {
+            countAtPercentile = 1;
+        }
+
+        long runningCount = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+
+            runningCount += counts.get(i);
+
+            if (runningCount >= countAtPercentile) {
+                return Math.min(highestValueFor(i), getMaxValue());
+            }
+        }
+
+        return getMaxValue();
+    }
+
+    /**
+     * @return How many values we have recorded
+     */
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the biggest value we've recorded
+     */
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /**
+     * @return the mean of the values we've recorded
+     */
+    public double getMean() {
+
+        final long count = totalCount.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        return (double) totalValue.get() / count;
+    }
+
+    /**
+     * @return the standard deviation of the values we've recorded, using the
+     *         highest value of each bucket
+     */
+    public double getStdDeviation() {
+
+        final long count = totalCount.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final double mean = getMean();
+        double totalSquaredDeviation = 0;
+
+        for (int i = 0; i < counts.length(); i++) {
+
+            long bucketCount = counts.get(i);
+
+            if (bucketCount > 0) {
+                double deviation = highestValueFor(i) - mean;
+                totalSquaredDeviation += deviation * deviation * bucketCount;
+            }
+        }
+
+        return Math.sqrt(totalSquaredDeviation / count);
+    }
+
+    /**
+     * Write our distribution in the same text format as HdrHistogram's
+     * outputPercentileDistribution, so the output can be fed to the usual
+     * histogram plotting tools.
+     *
+     * @param out
+     * @param outputValueUnitScalingRatio - e.g. 1000.0 to show microseconds as
+     *                                    milliseconds
+     */
+    public void outputPercentileDistribution(PrintStream out, double outputValueUnitScalingRatio) {
+
+        final int ticksPerHalfDistance = 5;
+        final long count = totalCount.get();
+
+        out.format("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+
+        if (count > 0) {
+
+            for (int tick = 0;; tick++) {
+
+                double percentile = 100.0 * (1.0 - Math.pow(0.5, (double) tick / ticksPerHalfDistance));
+                long countAtPercentile = Math.max(1, (long) Math.ceil((percentile / 100) * count));
+
+                if (countAtPercentile >= count) {
+                    break;
+                }
+
+                out.format("%12.3f %2.12f %10d %14.2f%n",
+                        getValueAtPercentile(percentile) / outputValueUnitScalingRatio, percentile / 100,
+                        countAtPercentile, 1 / (1 - (percentile / 100)));
+            }
+
+            out.format("%12.3f %2.12f %10d%n", getMaxValue() / outputValueUnitScalingRatio, 1.0, count);
+        }
+
+        out.format("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", getMean() / outputValueUnitScalingRatio,
+                getStdDeviation() / outputValueUnitScalingRatio);
+        out.format("#[Max     = %12.3f, Total count    = %12d]%n", getMaxValue() / outputValueUnitScalingRatio,
+                count);
+        out.format("#[Buckets = %12d, SubBuckets     = %12d]%n", MAX_EXPONENT, SUB_BUCKET_COUNT);
+    }
+
+}
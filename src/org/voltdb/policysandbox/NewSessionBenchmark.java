@@ -0,0 +1,161 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Measures new session throughput and latency of ReportNewSession. Run it
+ * against two builds to compare them.
+ *
+ * We create 'sessionCount' sessions spread over 'cellCount' cells, as fast as
+ * the client will let us, twice. The first round is warm up. Session ids start
+ * at FIRST_SESSION_ID so we don't collide with PolicyDataGenerator, and the
+ * sessions are deleted with ReportEndSessionBatch after each round.
+ *
+ */
+public class NewSessionBenchmark {
+
+    /**
+     * Procedure we measure.
+     */
+    private static final String PROCEDURE_NAME = "ReportNewSession";
+
+    /**
+     * First session id we use.
+     */
+    private static final long FIRST_SESSION_ID = 1000000000000L;
+
+    /**
+     * Range of user ids we pick from, so sessions end up with a mix of
+     * policies.
+     */
+    private static final int USER_COUNT = 1000000;
+
+    /**
+     * @param args hostnames sessionCount cellCount
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 3) {
+            ConsoleMessageConsumer.msg("Usage: NewSessionBenchmark hostnames sessionCount cellCount");
+            System.exit(1);
+        }
+
+        final int sessionCount = Integer.parseInt(args[1]);
+        final int cellCount = Integer.parseInt(args[2]);
+
+        SendPipeline voltClient = PolicyDataGenerator.connectVoltDB(args[0]);
+
+        try {
+
+            for (int round = 0; round < 2; round++) {
+                createSessions(voltClient, PROCEDURE_NAME, FIRST_SESSION_ID + ((long) round * sessionCount),
+                        sessionCount, cellCount, round > 0);
+            }
+
+        } finally {
+            voltClient.close();
+        }
+    }
+
+    /**
+     * Create 'sessionCount' sessions with 'procName', report how it went and
+     * then delete them.
+     *
+     * @param voltClient
+     * @param procName
+     * @param firstSessionId
+     * @param sessionCount
+     * @param cellCount
+     * @param report         - false for the warm up round
+     * @throws Exception
+     */
+    private static void createSessions(SendPipeline voltClient, String procName, long firstSessionId,
+            int sessionCount, int cellCount, boolean report) throws Exception {
+
+        Random r = new Random(42);
+        ProcedureStats stats = new ProcedureStats(procName);
+        final Date sessionStartUTC = new Date();
+
+        final long startMs = System.currentTimeMillis();
+
+        for (int i = 0; i < sessionCount; i++) {
+            voltClient.callProcedure(new ComplainOnErrorCallback(stats, System.nanoTime()), procName,
+                    i % cellCount, firstSessionId + i, sessionStartUTC, r.nextInt(USER_COUNT));
+        }
+
+        voltClient.drain();
+
+        final long elapsedMs = Math.max(1, System.currentTimeMillis() - startMs);
+
+        if (report) {
+
+            LatencyHistogram latencies = stats.getTotalHistogram();
+
+            ConsoleMessageConsumer.msg(String.format(
+                    "%-24s sessions=%d sessions/sec=%d latency(ms) mean=%.3f p50=%.3f p99=%.3f max=%.3f", procName,
+                    sessionCount, (sessionCount * 1000L) / elapsedMs, latencies.getMean() / 1000,
+                    latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(99) / 1000.0,
+                    latencies.getMaxValue() / 1000.0));
+        }
+
+        deleteSessions(voltClient, firstSessionId, sessionCount, cellCount, sessionStartUTC.getTime());
+    }
+
+    /**
+     * Delete the sessions createSessions made, one ReportEndSessionBatch call
+     * per cell.
+     *
+     * @param voltClient
+     * @param firstSessionId
+     * @param sessionCount
+     * @param cellCount
+     * @param sessionStartMs
+     * @throws Exception
+     */
+    private static void deleteSessions(SendPipeline voltClient, long firstSessionId, int sessionCount,
+            int cellCount, long sessionStartMs) throws Exception {
+
+        for (int cellId = 0; cellId < cellCount && cellId < sessionCount; cellId++) {
+
+            // Session 'i' went to cell i % cellCount...
+            long[] sessionIds = new long[((sessionCount - 1 - cellId) / cellCount) + 1];
+            long[] sessionStartUTCMs = new long[sessionIds.length];
+
+            for (int i = 0; i < sessionIds.length; i++) {
+                sessionIds[i] = firstSessionId + cellId + ((long) i * cellCount);
+                sessionStartUTCMs[i] = sessionStartMs;
+            }
+
+            voltClient.callProcedure(new ComplainOnErrorCallback(), "ReportEndSessionBatch", cellId, sessionIds,
+                    sessionStartUTCMs);
+        }
+
+        voltClient.drain();
+    }
+
+}
@@ -0,0 +1,225 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the operations the generator sends - new session, usage and end
+ * session - to a binary log, so the same load can be offered again later with
+ * OperationReplayer.
+ *
+ * The log is a header of MAGIC and the wall clock time we started, followed by
+ * fixed size little endian records:
+ *
+ * <pre>
+ * long offsetNs   - when the operation was scheduled, relative to the start
+ * long sessionId
+ * long value      - userId for new sessions, usage amount for usage
+ * int  cellId
+ * int  type       - TYPE_NEW_SESSION, TYPE_USAGE or TYPE_END_SESSION
+ * </pre>
+ *
+ * Fixed size records mean the replayer can walk a memory mapped file without
+ * parsing anything. Can be used by many threads at once.
+ *
+ */
+public class OperationRecorder {
+
+    /**
+     * First 8 bytes of every log.
+     */
+    public static final long MAGIC = 0x50534F504C4F4731L; // "PSOPLOG1"
+
+    /**
+     * Size of MAGIC plus start time.
+     */
+    public static final int HEADER_BYTES = 16;
+
+    /**
+     * Size of one record.
+     */
+    public static final int RECORD_BYTES = 32;
+
+    public static final int TYPE_NEW_SESSION = 1;
+
+    public static final int TYPE_USAGE = 2;
+
+    public static final int TYPE_END_SESSION = 3;
+
+    /**
+     * How much we buffer before writing.
+     */
+    private static final int BUFFER_BYTES = RECORD_BYTES * 32768;
+
+    /**
+     * Where we write.
+     */
+    FileChannel channel;
+
+    /**
+     * Records waiting to be written.
+     */
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * System.nanoTime() when we started. Offsets are relative to this.
+     */
+    long startNs;
+
+    /**
+     * How many records we've written.
+     */
+    long recordCount = 0;
+
+    /**
+     * Create a new log at 'filename', replacing anything that's there.
+     *
+     * @param filename
+     * @throws IOException
+     */
+    public OperationRecorder(String filename) throws IOException {
+
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        startNs = System.nanoTime();
+
+        buffer.putLong(MAGIC);
+        buffer.putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Record a new session.
+     *
+     * @param scheduledNs - when it was scheduled, as per System.nanoTime()
+     * @param sessionId
+     * @param userId
+     * @param cellId
+     */
+    public void recordNewSession(long scheduledNs, long sessionId, long userId, long cellId) {
+        record(TYPE_NEW_SESSION, scheduledNs, sessionId, userId, cellId);
+    }
+
+    /**
+     * Record a usage report.
+     *
+     * @param scheduledNs - when it was scheduled, as per System.nanoTime()
+     * @param usageMessage
+     */
+    public void recordUsage(long scheduledNs, PolicyUsageMessage usageMessage) {
+        record(TYPE_USAGE, scheduledNs, usageMessage.getSessionId(), usageMessage.getRecordUsage(),
+                usageMessage.getCellId());
+    }
+
+    /**
+     * Record the end of a session.
+     *
+     * @param scheduledNs - when it was scheduled, as per System.nanoTime()
+     * @param sessionId
+     */
+    public void recordEndSession(long scheduledNs, long sessionId) {
+        record(TYPE_END_SESSION, scheduledNs, sessionId, 0, 0);
+    }
+
+    /**
+     * Add a record to our buffer, writing the buffer out if it's full.
+     *
+     * @param type
+     * @param scheduledNs
+     * @param sessionId
+     * @param value
+     * @param cellId
+     */
+    private synchronized void record(int type, long scheduledNs, long sessionId, long value, long cellId) {
+
+        if (channel == null) {
+            return;
+        }
+
+        if (buffer.remaining() < RECORD_BYTES) {
+            write();
+        }
+
+        buffer.putLong(scheduledNs - startNs);
+        buffer.putLong(sessionId);
+        buffer.putLong(value);
+        buffer.putInt((int) cellId);
+        buffer.putInt(type);
+
+        recordCount++;
+    }
+
+    /**
+     * Write our buffer to disk.
+     */
+    private void write() {
+
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Write anything that's left and close the log.
+     */
+    public synchronized void close() {
+
+        if (channel == null) {
+            return;
+        }
+
+        write();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+
+        channel = null;
+        ConsoleMessageConsumer.msg("Recorded " + recordCount + " operations");
+    }
+
+    /**
+     * @return How many records we've written
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+}
@@ -0,0 +1,248 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Replays a log written by OperationRecorder through a PolicyDataGenerator.
+ * The log is memory mapped a window at a time, so reading it costs little more
+ * than touching the pages. Operations are sent at their original offsets
+ * divided by 'speed' - 1 is the original rate, 2 is twice as fast, and 0 or
+ * less means as fast as possible.
+ *
+ */
+public class OperationReplayer implements Runnable {
+
+    /**
+     * How much of the log we map at once. A multiple of RECORD_BYTES.
+     */
+    private static final long WINDOW_BYTES = OperationRecorder.RECORD_BYTES * (1L << 25);
+
+    /**
+     * The generator we send through.
+     */
+    PolicyDataGenerator pdg;
+
+    /**
+     * The log we're replaying.
+     */
+    String filename;
+
+    /**
+     * Replay speed relative to the original.
+     */
+    double speed;
+
+    /**
+     * Used when creating sessions.
+     */
+    Random r;
+
+    /**
+     * How many operations we've replayed.
+     */
+    AtomicLong recordCount = new AtomicLong();
+
+    /**
+     * How many usage records were for sessions we didn't have.
+     */
+    AtomicLong unknownSessionCount = new AtomicLong();
+
+    /**
+     * How many new session records were for cells we don't have.
+     */
+    AtomicLong badCellCount = new AtomicLong();
+
+    /**
+     * How many end session records we've replayed.
+     */
+    AtomicLong endSessionCount = new AtomicLong();
+
+    /**
+     * How many new session records were for sessions we already had, because
+     * the original run abandoned them without telling VoltDB.
+     */
+    AtomicLong replacedSessionCount = new AtomicLong();
+
+    /**
+     * @param pdg
+     * @param filename
+     * @param speed - 1 is the original rate, 0 or less is as fast as possible
+     * @param r
+     */
+    public OperationReplayer(PolicyDataGenerator pdg, String filename, double speed, Random r) {
+        super();
+        this.pdg = pdg;
+        this.filename = filename;
+        this.speed = speed;
+        this.r = r;
+    }
+
+    @Override
+    public void run() {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+
+            final long size = channel.size();
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, OperationRecorder.HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (size < OperationRecorder.HEADER_BYTES || header.getLong() != OperationRecorder.MAGIC) {
+                ConsoleMessageConsumer.msg(filename + " is not an operation log");
+                return;
+            }
+
+            ConsoleMessageConsumer.msg("Replaying " + ((size - OperationRecorder.HEADER_BYTES)
+                    / OperationRecorder.RECORD_BYTES) + " operations from " + filename + " at speed " + speed);
+
+            final long startNs = System.nanoTime();
+            long ourRecordCount = 0;
+
+            for (long position = OperationRecorder.HEADER_BYTES; position + OperationRecorder.RECORD_BYTES <= size;) {
+
+                long windowBytes = Math.min(WINDOW_BYTES, size - position);
+                windowBytes -= windowBytes % OperationRecorder.RECORD_BYTES;
+
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowBytes);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+
+                while (window.remaining() >= OperationRecorder.RECORD_BYTES) {
+
+                    final long offsetNs = window.getLong();
+                    final long sessionId = window.getLong();
+                    final long value = window.getLong();
+                    final int cellId = window.getInt();
+                    final int type = window.getInt();
+
+                    long scheduledNs;
+
+                    if (speed > 0) {
+                        scheduledNs = startNs + (long) (offsetNs / speed);
+                        Pacer.waitUntil(scheduledNs);
+                    } else {
+                        scheduledNs = System.nanoTime();
+                    }
+
+                    replay(type, scheduledNs, sessionId, value, cellId);
+                    recordCount.lazySet(++ourRecordCount);
+                }
+
+                position += windowBytes;
+            }
+
+        } catch (IOException e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+
+        ConsoleMessageConsumer.msg("Replay finished: " + recordCount.get() + " operations, "
+                + unknownSessionCount.get() + " usage records for unknown sessions, " + badCellCount.get()
+                + " new sessions in cells outside 0 to " + (pdg.cellCount - 1) + ", " + endSessionCount.get()
+                + " sessions ended, " + replacedSessionCount.get() + " abandoned sessions replaced");
+    }
+
+    /**
+     * Send one operation.
+     *
+     * @param type
+     * @param scheduledNs
+     * @param sessionId
+     * @param value
+     * @param cellId
+     */
+    private void replay(int type, long scheduledNs, long sessionId, long value, int cellId) {
+
+        final SessionStore sessionStore = pdg.sessionStore;
+
+        switch (type) {
+
+        case OperationRecorder.TYPE_NEW_SESSION:
+
+            // The log may have been recorded with a bigger cellCount...
+            if (cellId < 0 || cellId >= pdg.cellCount) {
+                badCellCount.incrementAndGet();
+                break;
+            }
+
+            // Abandoned sessions aren't in the log, so if we still have this
+            // session it was abandoned and then restarted...
+            final long oldSessionStartMs = sessionStore.getSessionStartMs(sessionId);
+
+            if (oldSessionStartMs != 0 && sessionStore.removeSession(sessionId, oldSessionStartMs)) {
+                replacedSessionCount.incrementAndGet();
+            }
+
+            if (sessionStore.createSession(sessionId, new TimestampType(), value, cellId, r)) {
+                pdg.sendNewSessionMessage(sessionId, scheduledNs);
+            }
+            break;
+
+        case OperationRecorder.TYPE_USAGE:
+
+            PolicyUsageMessage currentMessage = sessionStore.getNextUsageMessage(sessionId, r);
+
+            if (currentMessage == null) {
+                unknownSessionCount.incrementAndGet();
+            } else {
+                pdg.sendSessionUsageMessage(new PolicyUsageMessage(currentMessage.getCellId(), sessionId,
+                        currentMessage.getSessionStartUTC(), currentMessage.getPolicyName(), value), scheduledNs);
+            }
+            break;
+
+        case OperationRecorder.TYPE_END_SESSION:
+
+            final long sessionStartMs = sessionStore.getSessionStartMs(sessionId);
+
+            // Forget the session, so a restart of it later in the log starts
+            // a new one...
+            if (sessionStartMs != 0) {
+                pdg.sendEndSessionMessage(sessionId, scheduledNs);
+                sessionStore.removeSession(sessionId, sessionStartMs);
+                endSessionCount.incrementAndGet();
+            }
+            break;
+
+        default:
+            ConsoleMessageConsumer.msg("Ignoring unknown operation type " + type);
+        }
+    }
+
+    /**
+     * @return How many operations we've replayed
+     */
+    public long getRecordCount() {
+        return recordCount.get();
+    }
+
+}
@@ -0,0 +1,251 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a single thread to a target rate. Instead of counting calls per wall
+ * clock millisecond we give every send its own scheduled time, spaced
+ * 1/rate apart, and wait until that time comes. This means:
+ * <ul>
+ * <li>Sends are spread evenly within each millisecond instead of arriving in a
+ * burst at the start of it.</li>
+ * <li>Rates can be fractional, including less than 1 per millisecond.</li>
+ * <li>If we fall behind - e.g. because of a GC pause - we don't skip the sends
+ * we missed. They go out late, as fast as the caller can send them, each with
+ * its own scheduled time, so latency measured from it is charged for the
+ * stall. Sends more than 'lateThresholdMs' behind are counted as 'late'.</li>
+ * </ul>
+ *
+ * A Pacer is used by one thread. getSendCount() etc may be called from others.
+ *
+ */
+public class Pacer {
+
+    /**
+     * Gaps longer than this are waited for by parking the thread.
+     */
+    private static final long PARK_THRESHOLD_NS = 200000;
+
+    /**
+     * How early we wake up from parking, to allow for timer slop. We spin for the
+     * rest.
+     */
+    private static final long PARK_MARGIN_NS = 100000;
+
+    /**
+     * Default for how far behind schedule a send has to be before we count it
+     * as late.
+     */
+    public static final double DEFAULT_LATE_THRESHOLD_MS = 10;
+
+    /**
+     * Target rate, in transactions per millisecond. 0 or less means 'as fast as
+     * possible'.
+     */
+    private final double tpMs;
+
+    /**
+     * Nanoseconds between sends.
+     */
+    private final double intervalNs;
+
+    /**
+     * Sends further behind schedule than this are counted as late.
+     */
+    private final long lateThresholdNs;
+
+    /**
+     * When our schedule starts.
+     */
+    private long scheduleStartNs;
+
+    /**
+     * How many slots we have used since scheduleStartNs.
+     */
+    private long slot = 0;
+
+    /**
+     * When we started.
+     */
+    private final long startNs;
+
+    /**
+     * How many sends we've allowed.
+     */
+    private final AtomicLong sendCount = new AtomicLong();
+
+    /**
+     * How many sends were more than lateThresholdNs behind schedule.
+     */
+    private final AtomicLong lateCount = new AtomicLong();
+
+    /**
+     * Create a Pacer with the default late threshold.
+     *
+     * @param tpMs transactions per millisecond. Can be fractional. 0 means no
+     *             limit.
+     */
+    public Pacer(double tpMs) {
+        this(tpMs, DEFAULT_LATE_THRESHOLD_MS);
+    }
+
+    /**
+     * Create a Pacer.
+     *
+     * @param tpMs            transactions per millisecond. Can be fractional. 0
+     *                        means no limit.
+     * @param lateThresholdMs how far behind schedule a send has to be before we
+     *                        count it as late.
+     */
+    public Pacer(double tpMs, double lateThresholdMs) {
+        this.tpMs = tpMs;
+        this.intervalNs = tpMs > 0 ? 1000000 / tpMs : 0;
+        this.lateThresholdNs = (long) Math.max(intervalNs, lateThresholdMs * 1000000);
+        this.startNs = System.nanoTime();
+        this.scheduleStartNs = startNs;
+    }
+
+    /**
+     * Wait until we are allowed to send again.
+     *
+     * @return the System.nanoTime() at which this send was scheduled. This can
+     *         be earlier than 'now' if we're catching up, so latency measured
+     *         from it includes any stall.
+     */
+    public long acquire() {
+
+        long now = System.nanoTime();
+
+        if (intervalNs == 0) {
+            sendCount.lazySet(sendCount.get() + 1);
+            return now;
+        }
+
+        long scheduledNs = scheduleStartNs + (long) (slot * intervalNs);
+
+        if (now - scheduledNs > lateThresholdNs) {
+            lateCount.lazySet(lateCount.get() + 1);
+        } else {
+            waitUntil(scheduledNs);
+        }
+
+        slot++;
+        sendCount.lazySet(sendCount.get() + 1);
+
+        return scheduledNs;
+    }
+
+    /**
+     * Like acquire(), but returns straight away if our next send isn't due yet.
+     * This is for using a Pacer as a limit rather than to generate load, so if
+     * we haven't been asked for a while the unused slots are thrown away
+     * instead of being allowed in one burst.
+     *
+     * @return the System.nanoTime() at which this send was scheduled, or -1 if
+     *         it isn't time to send yet
+     */
+    public long tryAcquire() {
+
+        if (intervalNs > 0) {
+
+            final long now = System.nanoTime();
+            final long scheduledNs = scheduleStartNs + (long) (slot * intervalNs);
+
+            if (scheduledNs > now) {
+                return -1;
+            }
+
+            if (now - scheduledNs > lateThresholdNs) {
+                scheduleStartNs = now;
+                slot = 0;
+            }
+        }
+
+        return acquire();
+    }
+
+    /**
+     * Wait until System.nanoTime() reaches 'deadlineNs'. Long waits park the
+     * thread, the last bit is spent spinning so we don't oversleep.
+     *
+     * @param deadlineNs
+     * @return System.nanoTime() when we stopped waiting
+     */
+    public static long waitUntil(long deadlineNs) {
+
+        long now = System.nanoTime();
+
+        while (deadlineNs - now > PARK_THRESHOLD_NS) {
+            LockSupport.parkNanos(deadlineNs - now - PARK_MARGIN_NS);
+            now = System.nanoTime();
+        }
+
+        while (deadlineNs > now) {
+            Thread.onSpinWait();
+            now = System.nanoTime();
+        }
+
+        return now;
+    }
+
+    /**
+     * @return the target rate in transactions per millisecond
+     */
+    public double getTargetTpMs() {
+        return tpMs;
+    }
+
+    /**
+     * @return How many sends we've allowed
+     */
+    public long getSendCount() {
+        return sendCount.get();
+    }
+
+    /**
+     * @return How many sends were more than lateThresholdMs behind schedule
+     */
+    public long getLateCount() {
+        return lateCount.get();
+    }
+
+    /**
+     * @return our achieved rate since we were created, in transactions per
+     *         millisecond
+     */
+    public double getAchievedTpMs() {
+
+        long elapsedNs = System.nanoTime() - startNs;
+
+        if (elapsedNs <= 0) {
+            return 0;
+        }
+
+        return (getSendCount() * 1000000.0) / elapsedNs;
+    }
+
+}
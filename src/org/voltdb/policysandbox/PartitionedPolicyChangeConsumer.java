@@ -0,0 +1,196 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Alternative to PolicyChangeSessionMessageConsumer that spreads the partitions
+ * of policy_change_session_messages over 'threadCount'
+ * PolicyChangeConsumerWorkers, so a big stepped rollout isn't applied by a
+ * single core. Every 10 seconds we report messages/sec and how far behind we
+ * are, both in messages and in milliseconds since the server made the change.
+ *
+ */
+public class PartitionedPolicyChangeConsumer implements Runnable {
+
+    /**
+     * Topic we read.
+     */
+    public static final String TOPIC = "policy_change_session_messages";
+
+    /**
+     * How often we report.
+     */
+    private static final long REPORT_INTERVAL_MS = 10000;
+
+    /**
+     * Handle for data generator so we can update its sessions
+     */
+    PolicyDataGenerator pdg;
+
+    /**
+     * Comma delimited list of Kafka hosts. Note we expect the port number with each
+     * host name
+     */
+    String hostnames;
+
+    /**
+     * How many workers we want.
+     */
+    int threadCount;
+
+    /**
+     * Our workers, once we've started them.
+     */
+    PolicyChangeConsumerWorker[] workers = new PolicyChangeConsumerWorker[0];
+
+    /**
+     * Keep running until told to stop..
+     */
+    volatile boolean keepGoing = true;
+
+    /**
+     * @param pdg         - An instance of our policy session emulator
+     * @param hostnames   - hostname1:9092,hostname2:9092 etc
+     * @param threadCount - how many threads to use
+     */
+    public PartitionedPolicyChangeConsumer(PolicyDataGenerator pdg, String hostnames, int threadCount) {
+        super();
+        this.pdg = pdg;
+        this.hostnames = hostnames;
+        this.threadCount = threadCount;
+    }
+
+    @Override
+    public void run() {
+
+        try {
+
+            Properties props = new Properties();
+            props.put("bootstrap.servers", hostnames);
+            props.put("group.id", pdg.getPolicyChangeGroupId());
+            props.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+            props.put("value.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
+            props.put("enable.auto.commit", "false");
+
+            List<PartitionInfo> partitionInfos;
+
+            try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(props)) {
+                partitionInfos = new ArrayList<PartitionInfo>(consumer.partitionsFor(TOPIC));
+            }
+
+            Collections.sort(partitionInfos, Comparator.comparingInt(PartitionInfo::partition));
+
+            int ourThreadCount = Math.min(threadCount, partitionInfos.size());
+
+            if (ourThreadCount < threadCount) {
+                ConsoleMessageConsumer.msg(TOPIC + " only has " + partitionInfos.size() + " partitions; using "
+                        + ourThreadCount + " consumer threads");
+            }
+
+            // Deal partitions out to workers like cards...
+            PolicyChangeConsumerWorker[] newWorkers = new PolicyChangeConsumerWorker[ourThreadCount];
+
+            for (int i = 0; i < ourThreadCount; i++) {
+
+                List<TopicPartition> ourPartitions = new ArrayList<TopicPartition>();
+
+                for (int j = i; j < partitionInfos.size(); j += ourThreadCount) {
+                    ourPartitions.add(new TopicPartition(TOPIC, partitionInfos.get(j).partition()));
+                }
+
+                newWorkers[i] = new PolicyChangeConsumerWorker(pdg, i, props, ourPartitions);
+                ConsoleMessageConsumer.msg("PolicyChangeConsumerWorker-" + i + " has partitions "
+                        + newWorkers[i].getPartitionList());
+
+                Thread workerThread = new Thread(newWorkers[i], "PolicyChangeConsumerWorker-" + i);
+                workerThread.setDaemon(true);
+                workerThread.start();
+            }
+
+            workers = newWorkers;
+
+            long lastReportMs = System.currentTimeMillis();
+            long lastMessageCount = 0;
+
+            while (keepGoing) {
+
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    ConsoleMessageConsumer.msg(e);
+                }
+
+                if (lastReportMs + REPORT_INTERVAL_MS < System.currentTimeMillis()) {
+
+                    long messageCount = 0;
+                    long lagMessages = 0;
+                    LatencyHistogram lagMs = new LatencyHistogram();
+
+                    for (int i = 0; i < workers.length; i++) {
+                        messageCount += workers[i].getMessageCount();
+                        lagMessages += workers[i].getLagMessages();
+                        lagMs.add(workers[i].takeLagMsHistogram());
+                    }
+
+                    final long nowMs = System.currentTimeMillis();
+
+                    ConsoleMessageConsumer.msg("Policy changes: threads=" + workers.length + " received="
+                            + messageCount + " msgs/sec=" + (((messageCount - lastMessageCount) * 1000)
+                                    / Math.max(1, nowMs - lastReportMs))
+                            + " lag(msgs)=" + lagMessages + " lag(ms) p50=" + lagMs.getValueAtPercentile(50) + " p99="
+                            + lagMs.getValueAtPercentile(99) + " max=" + lagMs.getMaxValue());
+
+                    lastMessageCount = messageCount;
+                    lastReportMs = nowMs;
+                }
+            }
+
+        } catch (Exception e1) {
+            ConsoleMessageConsumer.msg(e1.getMessage());
+        }
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].stop();
+        }
+
+    }
+
+    /**
+     * Stop polling for messages and exit.
+     */
+    public void stop() {
+        keepGoing = false;
+    }
+
+}
@@ -0,0 +1,275 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+
+/**
+ * Reduces a batch of policy_change_session_messages records to the newest
+ * change for each session, so a session that got - say - a Shrink quickly
+ * followed by a PanicShrink is only updated once. Sessions are identified by
+ * sessionId + sessionStartUTC, and 'newest' means the latest changeTimestamp,
+ * with later records winning ties. Changes come out in the order their
+ * sessions first appeared in the batch.
+ *
+ * Messages are parsed into a pool we reuse for every batch, and we find
+ * duplicates with an open addressing hash table of ints, so coalescing doesn't
+ * create any garbage once the pool is big enough. A coalescer belongs to one
+ * thread.
+ *
+ * If we're given a session filter, records for sessions it doesn't want are
+ * thrown away by looking at the record's key - the sessionId - without parsing
+ * the value.
+ *
+ */
+public class PolicyChangeCoalescer {
+
+    /**
+     * Turns records into messages.
+     */
+    PolicyChangeMessageParser parser = new PolicyChangeMessageParser();
+
+    /**
+     * Sessions we want changes for, or null for all of them.
+     */
+    LongPredicate sessionFilter;
+
+    /**
+     * Messages for the current batch.
+     */
+    PolicyChangeMessage[] pool = new PolicyChangeMessage[0];
+
+    /**
+     * Where in 'pool' each surviving change is.
+     */
+    int[] winners = new int[0];
+
+    /**
+     * How many changes survived the current batch.
+     */
+    int winnerCount = 0;
+
+    /**
+     * Hash table of positions in 'winners', plus 1. 0 means empty.
+     */
+    int[] table = new int[0];
+
+    /**
+     * How many messages for sessions we want we've read.
+     */
+    long messageCount = 0;
+
+    /**
+     * How many messages we've thrown away because a newer one for the same
+     * session was in the same batch.
+     */
+    long coalescedCount = 0;
+
+    /**
+     * How many records we've thrown away because they were for sessions
+     * 'sessionFilter' doesn't want.
+     */
+    long discardedCount = 0;
+
+    /**
+     * Create a coalescer that keeps changes for all sessions.
+     */
+    public PolicyChangeCoalescer() {
+        this(null);
+    }
+
+    /**
+     * Create a coalescer that only keeps changes for some sessions.
+     *
+     * @param sessionFilter - true for sessionIds we want, or null for all of
+     *                      them
+     */
+    public PolicyChangeCoalescer(LongPredicate sessionFilter) {
+        super();
+        this.sessionFilter = sessionFilter;
+    }
+
+    /**
+     * Read a batch of records, keeping only the newest change for each
+     * session.
+     *
+     * @param records
+     * @return How many changes survived. Fetch them with get().
+     */
+    public int coalesce(ConsumerRecords<String, byte[]> records) {
+
+        makeRoomFor(records.count());
+
+        Arrays.fill(table, 0);
+        winnerCount = 0;
+
+        final int tableMask = table.length - 1;
+        int poolUsed = 0;
+
+        nextRecord: for (ConsumerRecord<String, byte[]> record : records) {
+
+            final PolicyChangeMessage message = pool[poolUsed];
+            final long keySessionId = sessionFilter == null ? -1 : parseSessionId(record.key());
+
+            if (keySessionId >= 0 && !sessionFilter.test(keySessionId)) {
+                discardedCount++;
+                continue;
+            }
+
+            if (!parser.read(record.key(), record.value(), message)) {
+                continue;
+            }
+
+            // We couldn't make sense of the key, so filter on the value instead...
+            if (sessionFilter != null && keySessionId < 0 && !sessionFilter.test(message.getSessionId())) {
+                discardedCount++;
+                continue;
+            }
+
+            messageCount++;
+
+            final long sessionId = message.getSessionId();
+            final long sessionStartMs = message.getSessionStartMs();
+            int slot = (int) PolicySessionStore.hash((sessionId * 31) + sessionStartMs) & tableMask;
+
+            while (table[slot] != 0) {
+
+                final int winnerPosition = table[slot] - 1;
+                final PolicyChangeMessage winner = pool[winners[winnerPosition]];
+
+                if (winner.getSessionId() == sessionId && winner.getSessionStartMs() == sessionStartMs) {
+
+                    coalescedCount++;
+
+                    if (message.getChangeTimestampMs() >= winner.getChangeTimestampMs()) {
+                        winners[winnerPosition] = poolUsed++;
+                    }
+
+                    continue nextRecord;
+                }
+
+                slot = (slot + 1) & tableMask;
+            }
+
+            table[slot] = winnerCount + 1;
+            winners[winnerCount++] = poolUsed++;
+        }
+
+        return winnerCount;
+    }
+
+    /**
+     * Turn a record key into a sessionId without creating any objects. VoltDB
+     * uses the sessionId as the key, but it might be quoted.
+     *
+     * @param key
+     * @return the sessionId in 'key', or -1 if 'key' isn't a number
+     */
+    static long parseSessionId(String key) {
+
+        if (key == null) {
+            return -1;
+        }
+
+        long sessionId = 0;
+        int digitCount = 0;
+
+        for (int i = 0; i < key.length(); i++) {
+
+            final char c = key.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                sessionId = (sessionId * 10) + (c - '0');
+                digitCount++;
+            } else if (c != '"') {
+                return -1;
+            }
+        }
+
+        return digitCount > 0 && digitCount <= 18 ? sessionId : -1;
+    }
+
+    /**
+     * @param index - 0 to the number coalesce() returned, less 1
+     * @return a surviving change. It's reused by the next batch, so it must not
+     *         be kept.
+     */
+    public PolicyChangeMessage get(int index) {
+        return pool[winners[index]];
+    }
+
+    /**
+     * Make sure we can cope with a batch of 'recordCount' records.
+     *
+     * @param recordCount
+     */
+    private void makeRoomFor(int recordCount) {
+
+        if (pool.length < recordCount) {
+
+            final int oldLength = pool.length;
+
+            pool = Arrays.copyOf(pool, recordCount);
+
+            for (int i = oldLength; i < pool.length; i++) {
+                pool[i] = new PolicyChangeMessage();
+            }
+
+            winners = new int[recordCount];
+        }
+
+        // Keep the table no more than half full...
+        if (table.length < recordCount * 2) {
+            table = new int[Math.max(16, Integer.highestOneBit(Math.max(1, recordCount)) * 4)];
+        }
+    }
+
+    /**
+     * @return How many messages for sessions we want we've read
+     */
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return How many messages we've thrown away because a newer one for the
+     *         same session was in the same batch
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return How many records we've thrown away because they were for
+     *         sessions we don't want
+     */
+    public long getDiscardedCount() {
+        return discardedCount;
+    }
+
+}
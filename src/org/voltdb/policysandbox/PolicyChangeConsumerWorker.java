@@ -0,0 +1,220 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * One of PartitionedPolicyChangeConsumer's threads. Has its own KafkaConsumer
+ * which is assigned - not subscribed to - a fixed set of partitions, so no
+ * other worker sees the same messages and there is no rebalancing. Changes are
+ * applied straight to the generator's session store.
+ *
+ */
+public class PolicyChangeConsumerWorker implements Runnable {
+
+    /**
+     * How often we work out how many messages we are behind by.
+     */
+    private static final long LAG_CHECK_INTERVAL_MS = 1000;
+
+    /**
+     * The generator whose sessions we update.
+     */
+    PolicyDataGenerator pdg;
+
+    /**
+     * Which worker we are.
+     */
+    int workerId;
+
+    /**
+     * Properties for our KafkaConsumer.
+     */
+    Properties props;
+
+    /**
+     * The partitions we own.
+     */
+    List<TopicPartition> partitions;
+
+    /**
+     * How many messages we've received.
+     */
+    AtomicLong messageCount = new AtomicLong();
+
+    /**
+     * How many messages are waiting in our partitions, as of our last check.
+     */
+    AtomicLong lagMessages = new AtomicLong();
+
+    /**
+     * Milliseconds between each message's changeTimestamp and us applying it,
+     * since the last time we were asked.
+     */
+    AtomicReference<LatencyHistogram> lagMsHistogram = new AtomicReference<LatencyHistogram>(
+            new LatencyHistogram());
+
+    /**
+     * Keep running until told to stop..
+     */
+    volatile boolean keepGoing = true;
+
+    /**
+     * @param pdg
+     * @param workerId
+     * @param props
+     * @param partitions
+     */
+    public PolicyChangeConsumerWorker(PolicyDataGenerator pdg, int workerId, Properties props,
+            List<TopicPartition> partitions) {
+        super();
+        this.pdg = pdg;
+        this.workerId = workerId;
+        this.props = props;
+        this.partitions = partitions;
+    }
+
+    @Override
+    public void run() {
+
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(props)) {
+
+            consumer.assign(partitions);
+
+            long ourMessageCount = 0;
+            long lastLagCheckMs = 0;
+            PolicyChangeCoalescer coalescer = pdg.createPolicyChangeCoalescer();
+
+            while (keepGoing) {
+
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(100));
+                final long nowMs = System.currentTimeMillis();
+
+                if (!records.isEmpty()) {
+
+                    final LatencyHistogram lagHistogram = lagMsHistogram.get();
+                    final long lastDiscardedCount = coalescer.getDiscardedCount();
+                    final long lastCoalescedCount = coalescer.getCoalescedCount();
+                    final int changeCount = coalescer.coalesce(records);
+
+                    for (int i = 0; i < changeCount; i++) {
+
+                        PolicyChangeMessage newMessage = coalescer.get(i);
+
+                        pdg.reportPolicyChange(newMessage);
+                        lagHistogram.recordValue(nowMs - newMessage.getChangeTimestampMs());
+                    }
+
+                    // Only commit once the whole batch is applied...
+                    consumer.commitAsync();
+
+                    pdg.countPolicyChanges(records.count(), coalescer.getDiscardedCount() - lastDiscardedCount,
+                            coalescer.getCoalescedCount() - lastCoalescedCount);
+                    ourMessageCount += records.count();
+                }
+
+                messageCount.lazySet(ourMessageCount);
+
+                // KafkaConsumer isn't thread safe, so we work out our own lag...
+                if (lastLagCheckMs + LAG_CHECK_INTERVAL_MS < nowMs) {
+
+                    Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+                    long lag = 0;
+
+                    for (TopicPartition partition : partitions) {
+                        Long endOffset = endOffsets.get(partition);
+
+                        if (endOffset != null) {
+                            lag += Math.max(0, endOffset - consumer.position(partition));
+                        }
+                    }
+
+                    lagMessages.set(lag);
+                    lastLagCheckMs = nowMs;
+                }
+            }
+
+            consumer.commitSync();
+
+        } catch (Exception e) {
+            ConsoleMessageConsumer.msg("PolicyChangeConsumerWorker " + workerId + ": " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * Stop polling for messages and exit.
+     */
+    public void stop() {
+        keepGoing = false;
+    }
+
+    /**
+     * @return How many messages we've received
+     */
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * @return How many messages are waiting in our partitions
+     */
+    public long getLagMessages() {
+        return lagMessages.get();
+    }
+
+    /**
+     * @return How far behind the server we were, in ms, since we were last
+     *         asked. Starts a new interval.
+     */
+    public LatencyHistogram takeLagMsHistogram() {
+        return lagMsHistogram.getAndSet(new LatencyHistogram());
+    }
+
+    /**
+     * @return our partitions, as a comma delimited list of numbers
+     */
+    public String getPartitionList() {
+
+        ArrayList<String> numbers = new ArrayList<String>(partitions.size());
+
+        for (TopicPartition partition : partitions) {
+            numbers.add(Integer.toString(partition.partition()));
+        }
+
+        return String.join(",", numbers);
+    }
+
+}
@@ -0,0 +1,272 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Measures how long policy changes take to reach our sessions, in
+ * milliseconds:
+ * <ul>
+ * <li>From each message's changeTimestamp - when the server sent it - to when
+ * the session store applied it, per cell and overall.</li>
+ * <li>From when the server decided to make a change - the start of a stepped
+ * change - to when the last session in the cell got it. We can't know which
+ * session is last, so once a decision hasn't reached any sessions for
+ * QUIET_MS we treat it as finished.</li>
+ * </ul>
+ * Safe to use from many consumer threads at once.
+ *
+ */
+public class PolicyChangeLatencyTracker {
+
+    /**
+     * How long a decision has to go without reaching any sessions before we
+     * consider it finished.
+     */
+    public static final long QUIET_MS = 10000;
+
+    /**
+     * How far a change to one cell and policy has got.
+     */
+    static class DecisionProgress {
+
+        long decisionMs;
+
+        long newLimit;
+
+        long sessionCount;
+
+        long lastAppliedMs;
+
+        DecisionProgress(long decisionMs, long newLimit) {
+            this.decisionMs = decisionMs;
+            this.newLimit = newLimit;
+        }
+    }
+
+    /**
+     * How many cells we have.
+     */
+    int cellCount;
+
+    /**
+     * changeTimestamp to applied, for each cell, since we last reported.
+     */
+    AtomicReferenceArray<LatencyHistogram> cellIntervalHistograms;
+
+    /**
+     * changeTimestamp to applied, for all cells, since we last reported.
+     */
+    AtomicReference<LatencyHistogram> intervalHistogram = new AtomicReference<LatencyHistogram>(
+            new LatencyHistogram());
+
+    /**
+     * changeTimestamp to applied, for all cells, for the whole run.
+     */
+    LatencyHistogram totalHistogram = new LatencyHistogram();
+
+    /**
+     * Decision to last session, for the whole run.
+     */
+    LatencyHistogram decisionToLastSessionHistogram = new LatencyHistogram();
+
+    /**
+     * Unfinished decisions for each cell. Each list is its own lock, and is
+     * normally very short.
+     */
+    List<ArrayList<DecisionProgress>> cellDecisions;
+
+    /**
+     * @param cellCount
+     */
+    public PolicyChangeLatencyTracker(int cellCount) {
+        super();
+        this.cellCount = cellCount;
+
+        cellIntervalHistograms = new AtomicReferenceArray<LatencyHistogram>(cellCount);
+        cellDecisions = new ArrayList<ArrayList<DecisionProgress>>(cellCount);
+
+        for (int i = 0; i < cellCount; i++) {
+            cellIntervalHistograms.set(i, new LatencyHistogram());
+            cellDecisions.add(new ArrayList<DecisionProgress>());
+        }
+    }
+
+    /**
+     * Record that a change has been applied to a session.
+     *
+     * @param message
+     * @param appliedMs - when, as per System.currentTimeMillis()
+     */
+    public void record(PolicyChangeMessage message, long appliedMs) {
+
+        final long latencyMs = appliedMs - message.getChangeTimestampMs();
+
+        intervalHistogram.get().recordValue(latencyMs);
+        totalHistogram.recordValue(latencyMs);
+
+        final long cellId = message.getCellId();
+
+        if (cellId < 0 || cellId >= cellCount) {
+            return;
+        }
+
+        cellIntervalHistograms.get((int) cellId).recordValue(latencyMs);
+
+        final long decisionMs = message.getDecisionTimestampMs();
+        final long newLimit = message.getNewLimit();
+        final ArrayList<DecisionProgress> decisions = cellDecisions.get((int) cellId);
+
+        synchronized (decisions) {
+
+            DecisionProgress ourDecision = null;
+
+            for (int i = 0; i < decisions.size(); i++) {
+
+                DecisionProgress decision = decisions.get(i);
+
+                if (decision.decisionMs == decisionMs && decision.newLimit == newLimit) {
+                    ourDecision = decision;
+                    break;
+                }
+            }
+
+            if (ourDecision == null) {
+                ourDecision = new DecisionProgress(decisionMs, newLimit);
+                decisions.add(ourDecision);
+            }
+
+            ourDecision.sessionCount++;
+            ourDecision.lastAppliedMs = Math.max(ourDecision.lastAppliedMs, appliedMs);
+        }
+    }
+
+    /**
+     * Report on changes since we were last asked, and on any decisions that have
+     * finished.
+     *
+     * @param flush - if true, treat all decisions as finished, e.g. because
+     *              we're stopping
+     */
+    public void report(boolean flush) {
+
+        final long nowMs = System.currentTimeMillis();
+        LatencyHistogram interval = intervalHistogram.getAndSet(new LatencyHistogram());
+
+        if (interval.getTotalCount() > 0) {
+            ConsoleMessageConsumer.msg("Policy change propagation: " + summarize(interval));
+        }
+
+        for (int cellId = 0; cellId < cellCount; cellId++) {
+
+            LatencyHistogram cellInterval = cellIntervalHistograms.getAndSet(cellId, new LatencyHistogram());
+
+            if (cellInterval.getTotalCount() > 0) {
+                ConsoleMessageConsumer.msg("Policy change propagation cell " + cellId + ": " + summarize(cellInterval));
+            }
+
+            final ArrayList<DecisionProgress> decisions = cellDecisions.get(cellId);
+
+            synchronized (decisions) {
+
+                Iterator<DecisionProgress> i = decisions.iterator();
+
+                while (i.hasNext()) {
+
+                    DecisionProgress decision = i.next();
+
+                    if (flush || decision.lastAppliedMs + QUIET_MS < nowMs) {
+
+                        final long decisionToLastMs = decision.lastAppliedMs - decision.decisionMs;
+                        decisionToLastSessionHistogram.recordValue(decisionToLastMs);
+
+                        ConsoleMessageConsumer.msg("Cell " + cellId + " change to " + decision.newLimit + " decided @"
+                                + new TimestampType(decision.decisionMs * 1000) + " reached "
+                                + decision.sessionCount + " sessions; last one after " + decisionToLastMs + "ms");
+                        i.remove();
+                    }
+                }
+            }
+        }
+
+        if (decisionToLastSessionHistogram.getTotalCount() > 0) {
+            ConsoleMessageConsumer
+                    .msg("Policy change decision to last session: " + summarize(decisionToLastSessionHistogram));
+        }
+    }
+
+    /**
+     * @param histogram
+     * @return a one line summary of 'histogram'
+     */
+    private static String summarize(LatencyHistogram histogram) {
+        return "count=" + histogram.getTotalCount() + " latency(ms) p50=" + histogram.getValueAtPercentile(50)
+                + " p99=" + histogram.getValueAtPercentile(99) + " p99.9=" + histogram.getValueAtPercentile(99.9)
+                + " max=" + histogram.getMaxValue();
+    }
+
+    /**
+     * Write the run's distributions to dir/PolicyChangePropagation.hgrm and
+     * dir/PolicyChangeDecisionToLastSession.hgrm.
+     *
+     * @param dir
+     */
+    public void writeHistogramLogs(String dir) {
+        writeHistogramLog(dir, "PolicyChangePropagation", totalHistogram);
+        writeHistogramLog(dir, "PolicyChangeDecisionToLastSession", decisionToLastSessionHistogram);
+    }
+
+    /**
+     * @param dir
+     * @param name
+     * @param histogram
+     */
+    private static void writeHistogramLog(String dir, String name, LatencyHistogram histogram) {
+
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+
+        File logFile = new File(dir, name + ".hgrm");
+
+        try (PrintStream out = new PrintStream(new FileOutputStream(logFile))) {
+            histogram.outputPercentileDistribution(out, 1.0);
+            ConsoleMessageConsumer.msg("Wrote latency histogram for " + name + " to " + logFile);
+        } catch (IOException e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+    }
+
+}
@@ -23,6 +23,13 @@ package org.voltdb.policysandbox;
  * OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+
 import org.voltdb.types.TimestampType;
 
 /**
@@ -31,21 +38,45 @@ import org.voltdb.types.TimestampType;
  */
 public class PolicyChangeMessage {
 
+    /**
+     * Time zone of the timestamps in exported CSV records. VoltDB's Kafka
+     * export uses GMT unless its 'timezone' property says otherwise.
+     */
+    static final ZoneId EXPORT_TIME_ZONE = ZoneOffset.UTC;
+
+    /**
+     * Reads exported timestamps such as 2021-06-01 12:34:56.789000. We don't
+     * use new TimestampType(String), as that assumes local time.
+     */
+    private static final DateTimeFormatter EXPORT_TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss").optionalStart()
+            .appendFraction(ChronoField.MICRO_OF_SECOND, 0, 6, true).optionalEnd().toFormatter()
+            .withZone(EXPORT_TIME_ZONE);
+
     /**
      * A session is identified by sessionId + sessionStartUTC
      */
     private long sessionId;
     
     /**
-     * A session is identified by sessionId + sessionStartUTC
+     * A session is identified by sessionId + sessionStartUTC. Held as
+     * microseconds since the epoch, so a message can be reused without
+     * allocating anything.
      */
-    private TimestampType sessionStartUTC;
+    private long sessionStartUTCMicros;
     
     /**
-     * When this event was created on the server. Useful for seeing how long Kafka
-     * took to deliver.
+     * When this event was created on the server, in microseconds since the
+     * epoch. Useful for seeing how long Kafka took to deliver.
+     */
+    private long changeTimestampMicros;
+
+    /**
+     * When the server decided to make this change, in microseconds since the
+     * epoch. For a stepped change this is when the first step started, so it
+     * can be well before changeTimestamp.
      */
-    private TimestampType changeTimestamp;
+    private long decisionTimestampMicros;
     
     /**
      * Id of 'cell' session is using
@@ -69,12 +100,21 @@ public class PolicyChangeMessage {
             TimestampType changeTimestamp, int newLimit) {
         super();
         this.sessionId = sessionId;
-        this.sessionStartUTC = sessionStartUTC;
-        this.changeTimestamp = changeTimestamp;
+        this.sessionStartUTCMicros = sessionStartUTC.getTime();
+        this.changeTimestampMicros = changeTimestamp.getTime();
+        this.decisionTimestampMicros = changeTimestampMicros;
         this.cellId = cellId;
         this.newLimit = newLimit;
     }
 
+    /**
+     * Constructor for a message that will be filled in later by
+     * PolicyChangeMessageParser, and then reused.
+     */
+    public PolicyChangeMessage() {
+        super();
+    }
+
     /**
      * Constructor for raw Kafka record
      * 
@@ -84,11 +124,27 @@ public class PolicyChangeMessage {
     public PolicyChangeMessage(String key, String value) {
         String[] fields = value.split(",");
         this.sessionId = Long.parseLong(fields[0]);
-        this.sessionStartUTC = new TimestampType(fields[1]);
-        this.changeTimestamp = new TimestampType(fields[2]);
+        this.sessionStartUTCMicros = parseExportTimestampMicros(fields[1]);
+        this.changeTimestampMicros = parseExportTimestampMicros(fields[2]);
         this.cellId = Long.parseLong(fields[3]);
         this.newLimit = Integer.parseInt(fields[4]);
 
+        if (fields.length > 5) {
+            this.decisionTimestampMicros = parseExportTimestampMicros(fields[5]);
+        } else {
+            this.decisionTimestampMicros = changeTimestampMicros;
+        }
+
+    }
+
+    /**
+     * @param timestamp - as exported, in EXPORT_TIME_ZONE
+     * @return 'timestamp' as microseconds since the epoch
+     */
+    static long parseExportTimestampMicros(String timestamp) {
+
+        final Instant instant = Instant.from(EXPORT_TIMESTAMP_FORMAT.parse(timestamp));
+        return (instant.getEpochSecond() * 1000000) + (instant.getNano() / 1000);
     }
 
     @Override
@@ -99,14 +155,46 @@ public class PolicyChangeMessage {
         builder.append(",");
         builder.append(sessionId);
         builder.append(",");
-        builder.append(sessionStartUTC);
+        builder.append(getSessionStartUTC());
         builder.append(",");
-        builder.append(changeTimestamp);
+        builder.append(getChangeTimestamp());
         builder.append(",");
         builder.append(newLimit);
+        builder.append(",");
+        builder.append(getDecisionTimestamp());
         return builder.toString();
     }
 
+    /**
+     * Fill in all our fields at once.
+     *
+     * @param cellId
+     * @param sessionId
+     * @param sessionStartUTCMicros
+     * @param changeTimestampMicros
+     * @param newLimit
+     * @param decisionTimestampMicros
+     */
+    void set(long cellId, long sessionId, long sessionStartUTCMicros, long changeTimestampMicros, int newLimit,
+            long decisionTimestampMicros) {
+        this.cellId = cellId;
+        this.sessionId = sessionId;
+        this.sessionStartUTCMicros = sessionStartUTCMicros;
+        this.changeTimestampMicros = changeTimestampMicros;
+        this.newLimit = newLimit;
+        this.decisionTimestampMicros = decisionTimestampMicros;
+    }
+
+    /**
+     * Make us the same as 'other'.
+     *
+     * @param other
+     */
+    void copyFrom(PolicyChangeMessage other) {
+        set(other.cellId, other.sessionId, other.sessionStartUTCMicros, other.changeTimestampMicros, other.newLimit,
+                other.decisionTimestampMicros);
+    }
+
     /**
      * @return the cellId
      */
@@ -125,7 +213,14 @@ public class PolicyChangeMessage {
      * @return the sessionStartUTC
      */
     public TimestampType getSessionStartUTC() {
-        return sessionStartUTC;
+        return new TimestampType(sessionStartUTCMicros);
+    }
+
+    /**
+     * @return the sessionStartUTC in milliseconds since the epoch
+     */
+    public long getSessionStartMs() {
+        return sessionStartUTCMicros / 1000;
     }
 
     /**
@@ -139,14 +234,36 @@ public class PolicyChangeMessage {
      * @return the changeTimestamp
      */
     public TimestampType getChangeTimestamp() {
-        return changeTimestamp;
+        return new TimestampType(changeTimestampMicros);
+    }
+
+    /**
+     * @return the changeTimestamp in milliseconds since the epoch
+     */
+    public long getChangeTimestampMs() {
+        return changeTimestampMicros / 1000;
+    }
+
+    /**
+     * @return when the server decided to make this change
+     */
+    public TimestampType getDecisionTimestamp() {
+        return new TimestampType(decisionTimestampMicros);
+    }
+
+    /**
+     * @return when the server decided to make this change, in milliseconds
+     *         since the epoch
+     */
+    public long getDecisionTimestampMs() {
+        return decisionTimestampMicros / 1000;
     }
 
     /**
      * @param changeTimestamp the changeTimestamp to set
      */
     public void setChangeTimestamp(TimestampType changeTimestamp) {
-        this.changeTimestamp = changeTimestamp;
+        this.changeTimestampMicros = changeTimestamp.getTime();
     }
 
 }
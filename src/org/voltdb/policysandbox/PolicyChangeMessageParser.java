@@ -0,0 +1,345 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns policy_change_session_messages records into PolicyChangeMessages
+ * without creating any garbage. The record value is CSV, as exported by VoltDB:
+ *
+ * <pre>
+ * sessionId,sessionStartUTC,changeTimestamp,cell_id,new_limit,decision_timestamp
+ * </pre>
+ *
+ * where the timestamps look like 2021-06-01 12:34:56.789000 and are in UTC.
+ * decision_timestamp is missing from records exported before it was added.
+ * Instead of making a String, splitting it and parsing each field we walk the
+ * bytes once, straight into the primitive fields of a PolicyChangeMessage we
+ * reuse for every record. Fields may be in double quotes. Anything we don't
+ * understand is handed to the original PolicyChangeMessage(String, String)
+ * constructor, so nothing is lost. Records exported as Avro are spotted by
+ * their first byte and handed to PolicyChangeAvroDecoder instead.
+ *
+ * A parser and the message it returns belong to one thread.
+ *
+ */
+public class PolicyChangeMessageParser {
+
+    /**
+     * Parse with the original String based constructor instead. Set with
+     * -Dpolicysandbox.policyChangeParser=string
+     */
+    static final boolean USE_STRINGS = "string"
+            .equalsIgnoreCase(SandboxOptions.getString("policyChangeParser", "bytes"));
+
+    private static final long MICROS_PER_SECOND = 1000000;
+
+    private static final long SECONDS_PER_DAY = 86400;
+
+    /**
+     * The message we fill in and return for every record.
+     */
+    PolicyChangeMessage reusableMessage = new PolicyChangeMessage();
+
+    /**
+     * Decodes records exported as Avro.
+     */
+    PolicyChangeAvroDecoder avroDecoder = new PolicyChangeAvroDecoder();
+
+    /**
+     * What we're parsing.
+     */
+    private byte[] bytes;
+
+    /**
+     * Where we are in 'bytes'.
+     */
+    private int pos;
+
+    /**
+     * Where the record ends.
+     */
+    private int end;
+
+    /**
+     * Cleared as soon as we find something we don't understand.
+     */
+    private boolean valid;
+
+    /**
+     * How many records we had to hand to the String based constructor.
+     */
+    private long fallbackCount = 0;
+
+    /**
+     * Turn a record into a PolicyChangeMessage.
+     *
+     * @param key
+     * @param value
+     * @return a message, or null if it was Avro we couldn't decode. This is the
+     *         same object every time, so it must not be kept.
+     */
+    public PolicyChangeMessage toMessage(String key, byte[] value) {
+
+        if (read(key, value, reusableMessage)) {
+            return reusableMessage;
+        }
+
+        return null;
+    }
+
+    /**
+     * Read a record into 'message'.
+     *
+     * @param key
+     * @param value
+     * @param message
+     * @return true unless it was Avro we couldn't decode
+     */
+    public boolean read(String key, byte[] value, PolicyChangeMessage message) {
+
+        if (PolicyChangeAvroDecoder.isFramed(value)) {
+
+            if (avroDecoder.decode(value, 0, value.length, message)) {
+                return true;
+            }
+
+            ConsoleMessageConsumer.msg("Unable to decode Avro policy change record of " + value.length + " bytes");
+            return false;
+        }
+
+        if (!USE_STRINGS && parse(value, 0, value.length, message)) {
+            return true;
+        }
+
+        if (!USE_STRINGS) {
+            fallbackCount++;
+        }
+
+        message.copyFrom(new PolicyChangeMessage(key, new String(value, StandardCharsets.UTF_8)));
+
+        return true;
+    }
+
+    /**
+     * Parse a record value into 'message'.
+     *
+     * @param value
+     * @param offset
+     * @param length
+     * @param message
+     * @return true if we could parse it. If not 'message' is unchanged.
+     */
+    public boolean parse(byte[] value, int offset, int length, PolicyChangeMessage message) {
+
+        bytes = value;
+        pos = offset;
+        end = offset + length;
+        valid = true;
+
+        final long sessionId = nextLong();
+        final long sessionStartUTCMicros = nextTimestampMicros();
+        final long changeTimestampMicros = nextTimestampMicros();
+        final long cellId = nextLong();
+        final long newLimit = nextLong();
+        final long decisionTimestampMicros = pos < end ? nextTimestampMicros() : changeTimestampMicros;
+
+        bytes = null;
+
+        if (!valid || pos < end || newLimit > Integer.MAX_VALUE || newLimit < Integer.MIN_VALUE) {
+            return false;
+        }
+
+        message.set(cellId, sessionId, sessionStartUTCMicros, changeTimestampMicros, (int) newLimit,
+                decisionTimestampMicros);
+
+        return true;
+    }
+
+    /**
+     * @return the next field as a long
+     */
+    private long nextLong() {
+
+        final boolean quoted = skip('"');
+        final boolean negative = skip('-');
+        final int start = pos;
+        long value = 0;
+
+        while (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+            value = (value * 10) + (bytes[pos++] - '0');
+        }
+
+        if (pos == start || pos - start > 18) {
+            valid = false;
+        }
+
+        endField(quoted);
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return the next field, a timestamp such as 2021-06-01 12:34:56.789000 in
+     *         PolicyChangeMessage.EXPORT_TIME_ZONE, which is UTC, as
+     *         microseconds since the epoch
+     */
+    private long nextTimestampMicros() {
+
+        final boolean quoted = skip('"');
+
+        final long year = digits(4);
+        expect('-');
+        final long month = digits(2);
+        expect('-');
+        final long day = digits(2);
+
+        if (!skip(' ') && !skip('T')) {
+            valid = false;
+        }
+
+        final long hour = digits(2);
+        expect(':');
+        final long minute = digits(2);
+        expect(':');
+        final long second = digits(2);
+
+        long micros = 0;
+
+        if (skip('.')) {
+
+            long scale = MICROS_PER_SECOND;
+
+            while (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+
+                scale /= 10;
+                micros += (bytes[pos++] - '0') * scale;
+            }
+        }
+
+        endField(quoted);
+
+        final long seconds = (daysSinceEpoch(year, month, day) * SECONDS_PER_DAY) + (hour * 3600) + (minute * 60)
+                + second;
+
+        return (seconds * MICROS_PER_SECOND) + micros;
+    }
+
+    /**
+     * @param count
+     * @return the next 'count' bytes as a number
+     */
+    private long digits(int count) {
+
+        long value = 0;
+
+        for (int i = 0; i < count; i++) {
+
+            if (pos >= end || bytes[pos] < '0' || bytes[pos] > '9') {
+                valid = false;
+                return 0;
+            }
+
+            value = (value * 10) + (bytes[pos++] - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Step over 'c', if it's next.
+     *
+     * @param c
+     * @return true if it was
+     */
+    private boolean skip(char c) {
+
+        if (pos < end && bytes[pos] == c) {
+            pos++;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Step over 'c', which must be next.
+     *
+     * @param c
+     */
+    private void expect(char c) {
+
+        if (!skip(c)) {
+            valid = false;
+        }
+    }
+
+    /**
+     * Step over the end of a field - a closing quote if it was quoted, then a
+     * comma unless it's the last one.
+     *
+     * @param quoted
+     */
+    private void endField(boolean quoted) {
+
+        if (quoted) {
+            expect('"');
+        }
+
+        if (pos < end) {
+            expect(',');
+        }
+    }
+
+    /**
+     * Days from 1970-01-01 to a date, using Howard Hinnant's days_from_civil.
+     *
+     * @param year
+     * @param month - 1 to 12
+     * @param day   - 1 to 31
+     * @return days since the epoch
+     */
+    static long daysSinceEpoch(long year, long month, long day) {
+
+        if (month <= 2) {
+            year--;
+        }
+
+        final long era = (year >= 0 ? year : year - 399) / 400;
+        final long yearOfEra = year - (era * 400);
+        final long dayOfYear = (((153 * (month + (month > 2 ? -3 : 9))) + 2) / 5) + day - 1;
+        final long dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+
+        return (era * 146097) + dayOfEra - 719468;
+    }
+
+    /**
+     * @return How many records we had to hand to the String based constructor
+     */
+    public long getFallbackCount() {
+        return fallbackCount;
+    }
+
+}
@@ -0,0 +1,195 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Compares the cost of turning policy_change_session_messages records into
+ * PolicyChangeMessages with the original PolicyChangeMessage(String, String)
+ * constructor, PolicyChangeMessageParser and - for records exported as Avro -
+ * PolicyChangeAvroDecoder. Doesn't need VoltDB or Kafka - we make up records in
+ * the same formats. Each way is run 'rounds' times and the first half of the
+ * rounds are treated as warm up. We report the average record size, and
+ * nanoseconds and bytes allocated per message.
+ *
+ */
+public class PolicyChangeParseBenchmark {
+
+    /**
+     * How VoltDB formats timestamps when exporting CSV.
+     */
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS").withZone(PolicyChangeMessage.EXPORT_TIME_ZONE);
+
+    /**
+     * @param args messageCount rounds
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 2) {
+            ConsoleMessageConsumer.msg("Usage: PolicyChangeParseBenchmark messageCount rounds");
+            System.exit(1);
+        }
+
+        final int messageCount = Integer.parseInt(args[0]);
+        final int rounds = Math.max(2, Integer.parseInt(args[1]));
+
+        Random r = new Random(42);
+        byte[][] values = new byte[messageCount][];
+        byte[][] avroValues = new byte[messageCount][];
+        long csvBytes = 0;
+        long avroBytes = 0;
+        final long nowMs = System.currentTimeMillis();
+
+        for (int i = 0; i < values.length; i++) {
+
+            long sessionStartMs = nowMs - r.nextInt(3600000);
+            long changeMs = sessionStartMs + r.nextInt(60000);
+            long decisionMs = changeMs - r.nextInt(60000);
+
+            values[i] = (r.nextInt(1000000) + "," + TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(sessionStartMs))
+                    + "," + TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(changeMs)) + "," + r.nextInt(1000) + ","
+                    + r.nextInt(100000) + "," + TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(decisionMs)))
+                            .getBytes(StandardCharsets.UTF_8);
+            avroValues[i] = PolicyChangeAvroDecoder
+                    .encode(new PolicyChangeMessage(null, new String(values[i], StandardCharsets.UTF_8)), 1);
+
+            csvBytes += values[i].length;
+            avroBytes += avroValues[i].length;
+        }
+
+        ConsoleMessageConsumer.msg(String.format("CSV %.1f bytes/msg, Avro %.1f bytes/msg",
+                (double) csvBytes / messageCount, (double) avroBytes / messageCount));
+
+        // Make sure both ways agree before we time anything...
+        PolicyChangeMessageParser parser = new PolicyChangeMessageParser();
+        PolicyChangeAvroDecoder avroDecoder = new PolicyChangeAvroDecoder();
+        PolicyChangeMessage parsed = new PolicyChangeMessage();
+        PolicyChangeMessage decoded = new PolicyChangeMessage();
+
+        for (int i = 0; i < values.length; i++) {
+
+            PolicyChangeMessage expected = new PolicyChangeMessage(null,
+                    new String(values[i], StandardCharsets.UTF_8));
+
+            if (!parser.parse(values[i], 0, values[i].length, parsed) || !expected.toString().equals(parsed.toString())
+                    || expected.getChangeTimestampMs() != parsed.getChangeTimestampMs()) {
+                ConsoleMessageConsumer.msg("Mismatch for " + new String(values[i], StandardCharsets.UTF_8) + ": "
+                        + expected + " vs " + parsed);
+                System.exit(2);
+            }
+
+            if (!avroDecoder.decode(avroValues[i], 0, avroValues[i].length, decoded)
+                    || !expected.toString().equals(decoded.toString())) {
+                ConsoleMessageConsumer.msg("Avro mismatch for " + expected + ": " + decoded);
+                System.exit(2);
+            }
+        }
+
+        long checksum = 0;
+
+        for (int round = 0; round < rounds; round++) {
+
+            final boolean report = round >= rounds / 2;
+
+            long startAllocated = allocatedBytes();
+            long startNs = System.nanoTime();
+
+            for (int i = 0; i < values.length; i++) {
+                PolicyChangeMessage message = new PolicyChangeMessage(null,
+                        new String(values[i], StandardCharsets.UTF_8));
+                checksum += message.getSessionId() + message.getNewLimit();
+            }
+
+            if (report) {
+                report("String constructor", messageCount, System.nanoTime() - startNs,
+                        allocatedBytes() - startAllocated);
+            }
+
+            startAllocated = allocatedBytes();
+            startNs = System.nanoTime();
+
+            for (int i = 0; i < values.length; i++) {
+                parser.parse(values[i], 0, values[i].length, parsed);
+                checksum += parsed.getSessionId() + parsed.getNewLimit();
+            }
+
+            if (report) {
+                report("PolicyChangeMessageParser", messageCount, System.nanoTime() - startNs,
+                        allocatedBytes() - startAllocated);
+            }
+
+            startAllocated = allocatedBytes();
+            startNs = System.nanoTime();
+
+            for (int i = 0; i < avroValues.length; i++) {
+                avroDecoder.decode(avroValues[i], 0, avroValues[i].length, decoded);
+                checksum += decoded.getSessionId() + decoded.getNewLimit();
+            }
+
+            if (report) {
+                report("PolicyChangeAvroDecoder", messageCount, System.nanoTime() - startNs,
+                        allocatedBytes() - startAllocated);
+            }
+        }
+
+        ConsoleMessageConsumer.msg("Checksum " + checksum);
+    }
+
+    /**
+     * @param name
+     * @param messageCount
+     * @param elapsedNs
+     * @param allocated
+     */
+    private static void report(String name, int messageCount, long elapsedNs, long allocated) {
+
+        ConsoleMessageConsumer.msg(String.format("%-26s %8.1f ns/msg %8.1f bytes/msg %,12d msgs/sec", name,
+                (double) elapsedNs / messageCount, (double) allocated / messageCount,
+                (messageCount * 1000000000L) / Math.max(1, elapsedNs)));
+    }
+
+    /**
+     * @return bytes allocated by this thread so far, or 0 if the JVM can't tell
+     *         us
+     */
+    private static long allocatedBytes() {
+
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+
+}
@@ -23,7 +23,6 @@ package org.voltdb.policysandbox;
  * OTHER DEALINGS IN THE SOFTWARE.
  */
 
-import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import java.util.Arrays;
 import java.util.Properties;
@@ -74,30 +73,47 @@ public class PolicyChangeSessionMessageConsumer implements Runnable {
 
             Properties props = new Properties();
             props.put("bootstrap.servers", hostnames);
-            props.put("group.id", "PolicyChangeSessionMessageConsumer");
+            props.put("group.id", pdg.getPolicyChangeGroupId());
             props.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-            props.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-            props.put("auto.commit.interval.ms", "100");
+            props.put("value.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
+            props.put("enable.auto.commit", "false");
 
-            KafkaConsumer<String, String> consumer = new KafkaConsumer<>(props);
+            KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(props);
             consumer.subscribe(Arrays.asList("policy_change_session_messages"));
             long messageCounter = 0;
+            PolicyChangeCoalescer coalescer = pdg.createPolicyChangeCoalescer();
 
             while (keepGoing) {
 
-                ConsumerRecords<String, String> records = consumer.poll(100);
-                for (ConsumerRecord<String, String> record : records) {
-                    if (messageCounter++ % 1000000 == 999999) {
-                        ConsoleMessageConsumer.msg("Received " + messageCounter + " policy change messages via Kafka");
-                    }
+                ConsumerRecords<String, byte[]> records = consumer.poll(100);
 
-                    PolicyChangeMessage newMessage = new PolicyChangeMessage(record.key(), record.value());
+                if (records.isEmpty()) {
+                    continue;
+                }
+
+                final long lastDiscardedCount = coalescer.getDiscardedCount();
+                final long lastCoalescedCount = coalescer.getCoalescedCount();
+                final int changeCount = coalescer.coalesce(records);
+
+                for (int i = 0; i < changeCount; i++) {
+                    pdg.reportPolicyChange(coalescer.get(i));
+                }
+
+                // Only commit once the whole batch is applied...
+                consumer.commitAsync();
 
-                    pdg.reportPolicyChange(newMessage);
+                pdg.countPolicyChanges(records.count(), coalescer.getDiscardedCount() - lastDiscardedCount,
+                        coalescer.getCoalescedCount() - lastCoalescedCount);
 
+                if (messageCounter / 1000000 != (messageCounter + records.count()) / 1000000) {
+                    ConsoleMessageConsumer.msg("Received " + (messageCounter + records.count())
+                            + " policy change messages via Kafka");
                 }
+
+                messageCounter += records.count();
             }
 
+            consumer.commitSync();
             consumer.close();
 
         } catch (Exception e1) {
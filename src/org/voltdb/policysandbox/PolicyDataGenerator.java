@@ -23,19 +23,17 @@ package org.voltdb.policysandbox;
  * OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.voltdb.VoltTable;
-import org.voltdb.client.Client;
-import org.voltdb.client.ClientConfig;
-import org.voltdb.client.ClientFactory;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.NoConnectionsException;
 import org.voltdb.client.ProcCallException;
@@ -62,12 +60,32 @@ public class PolicyDataGenerator {
     /**
      * We track a known student user when running this demo
      */
-    private static final Long KNOWN_STUDENT_SESSION_ID = 100001l;
+    static final Long KNOWN_STUDENT_SESSION_ID = 100001l;
+
+    /**
+     * Default for the most calls we allow to be outstanding at once.
+     */
+    private static final int DEFAULT_OUTSTANDING_LIMIT = 5000;
+
+    /**
+     * Send zero usage reports like any other.
+     */
+    public static final String ZERO_USAGE_SEND = "send";
+
+    /**
+     * Don't send zero usage reports.
+     */
+    public static final String ZERO_USAGE_SUPPRESS = "suppress";
+
+    /**
+     * Send zero usage reports as periodic keep-alives.
+     */
+    public static final String ZERO_USAGE_COALESCE = "coalesce";
 
     /**
      * Our handle to VoltDB
      */
-    Client voltClient = null;
+    SendPipeline voltClient = null;
 
     /**
      * Comma delimited list of hosts *without* port numbers.
@@ -81,9 +99,9 @@ public class PolicyDataGenerator {
     int userCount;
 
     /**
-     * Target transactions per millisecond
+     * Target transactions per millisecond. Can be fractional.
      */
-    int tpMs;
+    double tpMs;
 
     /**
      * How many seconds to run for.
@@ -102,14 +120,298 @@ public class PolicyDataGenerator {
     int offset;
     
     /**
-     * HashMap containing our sessions. It will get to be big...
+     * Store containing our sessions. It will get to be big, and is shared with
+     * PolicyChangeSessionMessageConsumer...
+     */
+    SessionStore sessionStore;
+
+    /**
+     * Whether to use CompactSessionStore instead of one PolicySession object per
+     * session. Set with -Dpolicysandbox.sessionEngine=compact
+     */
+    boolean compactSessions = "compact".equalsIgnoreCase(SandboxOptions.getString("sessionEngine", "objects"));
+
+    /**
+     * Whether CompactSessionStore keeps its columns outside the Java heap. Set
+     * with -Dpolicysandbox.offHeap=true
+     */
+    boolean offHeapSessions = SandboxOptions.getBoolean("offHeap", false);
+
+    /**
+     * How many GeneratorWorker threads to use. Each owns a shard of the session id
+     * space. Set with -Dpolicysandbox.threads=n
+     */
+    int threadCount = Math.max(1, SandboxOptions.getInt("threads", 1));
+
+    /**
+     * Client side latency for ReportNewSession.
+     */
+    ProcedureStats newSessionStats = new ProcedureStats("ReportNewSession");
+
+    /**
+     * Client side latency for ReportSessionUsage.
+     */
+    ProcedureStats usageStats = new ProcedureStats("ReportSessionUsage");
+
+    /**
+     * Client side latency for ReportSessionUsageBatch.
+     */
+    ProcedureStats usageBatchStats = new ProcedureStats("ReportSessionUsageBatch");
+
+    /**
+     * If more than 0, usage records are grouped by cell and sent to
+     * ReportSessionUsageBatch in batches of up to this many. Set with
+     * -Dpolicysandbox.usageBatchSize=n
+     */
+    int usageBatchSize = SandboxOptions.getInt("usageBatchSize", 0);
+
+    /**
+     * Longest a usage record waits to be batched. Set with
+     * -Dpolicysandbox.usageBatchMs=n
+     */
+    long usageBatchMs = SandboxOptions.getLong("usageBatchMs", 10);
+
+    /**
+     * Batches usage records if usageBatchSize is more than 0, otherwise null.
+     */
+    UsageBatcher usageBatcher = null;
+
+    /**
+     * Client side latency for ReportAggregatedUsage.
+     */
+    ProcedureStats aggregatedUsageStats = new ProcedureStats("ReportAggregatedUsage");
+
+    /**
+     * Whether to add up usage by (cell, policy, minute) in the client and send
+     * totals to ReportAggregatedUsage. Takes priority over usageBatchSize. Set
+     * with -Dpolicysandbox.usageAggregation=true
+     */
+    boolean aggregateUsage = SandboxOptions.getBoolean("usageAggregation", false);
+
+    /**
+     * How often aggregated usage is sent. Set with
+     * -Dpolicysandbox.usageAggregationMs=n
+     */
+    long usageAggregationMs = SandboxOptions.getLong("usageAggregationMs", 1000);
+
+    /**
+     * Adds up usage records if aggregateUsage is true, otherwise null.
+     */
+    UsageAggregator usageAggregator = null;
+
+    /**
+     * What to do with usage reports whose amount is 0, which is most of them -
+     * a session only uses anything once a minute. 'send' sends them like any
+     * other report. 'suppress' drops them. 'coalesce' adds them up by cell and
+     * policy and sends one keep-alive row per cell and policy every
+     * zeroUsageKeepAliveMs, so cell_activity_summary.how_many is unchanged. Set
+     * with -Dpolicysandbox.zeroUsage=send|suppress|coalesce
+     */
+    String zeroUsageMode = SandboxOptions.getString("zeroUsage", ZERO_USAGE_SEND).toLowerCase();
+
+    /**
+     * How often zero usage keep-alives are sent in 'coalesce' mode. Set with
+     * -Dpolicysandbox.zeroUsageKeepAliveMs=n
+     */
+    long zeroUsageKeepAliveMs = SandboxOptions.getLong("zeroUsageKeepAliveMs", 10000);
+
+    /**
+     * Adds up zero usage reports in 'coalesce' mode, otherwise null.
      */
-    HashMap<Long, PolicySession> sessionMap = new HashMap<Long, PolicySession>(userCount);
+    UsageAggregator keepAliveAggregator = null;
+
+    /**
+     * Client side latency for zero usage keep-alives.
+     */
+    ProcedureStats keepAliveStats = new ProcedureStats("ReportAggregatedUsage-keepAlive");
+
+    /**
+     * How many usage reports with an amount we've sent.
+     */
+    AtomicLong sentUsageCount = new AtomicLong();
+
+    /**
+     * How many zero usage reports we didn't send individually.
+     */
+    AtomicLong suppressedUsageCount = new AtomicLong();
+
+    /**
+     * How many policy change messages we've received from Kafka.
+     */
+    AtomicLong receivedPolicyChangeCount = new AtomicLong();
+
+    /**
+     * How many policy change messages we didn't apply because a newer one for
+     * the same session was in the same batch.
+     */
+    AtomicLong coalescedPolicyChangeCount = new AtomicLong();
+
+    /**
+     * Whether we only apply policy changes for our own sessions, i.e. offset to
+     * offset + userCount. This also gives us our own Kafka consumer group, so
+     * several generators sharing a cluster each see every change. Set with
+     * -Dpolicysandbox.ownPolicyChangesOnly=true
+     */
+    boolean ownPolicyChangesOnly = SandboxOptions.getBoolean("ownPolicyChangesOnly", false);
+
+    /**
+     * How many policy change messages we threw away because they were for
+     * another generator's sessions.
+     */
+    AtomicLong discardedPolicyChangeCount = new AtomicLong();
+
+    /**
+     * Client side latency for ReportEndSession.
+     */
+    ProcedureStats endSessionStats = new ProcedureStats("ReportEndSession");
+
+    /**
+     * Client side latency for ReportEndSessionBatch.
+     */
+    ProcedureStats endSessionBatchStats = new ProcedureStats("ReportEndSessionBatch");
+
+    /**
+     * At the end of the run, sessions are ended in batches of up to this many
+     * per cell using threadCount threads. 0 means send one ReportEndSession per
+     * session from a single thread. Set with
+     * -Dpolicysandbox.endSessionBatchSize=n
+     */
+    int endSessionBatchSize = SandboxOptions.getInt("endSessionBatchSize", 200);
+
+    /**
+     * Whether to create all userCount sessions with ReportNewSessionBatch before
+     * measured traffic starts, instead of letting GeneratorWorkers create them
+     * as they go. Set with -Dpolicysandbox.warmUp=true
+     */
+    boolean warmUp = SandboxOptions.getBoolean("warmUp", false);
+
+    /**
+     * Max sessions per ReportNewSessionBatch call during warm-up. Set with
+     * -Dpolicysandbox.warmUpBatchSize=n
+     */
+    int warmUpBatchSize = Math.max(1, SandboxOptions.getInt("warmUpBatchSize", 1000));
+
+    /**
+     * Client side latency for ReportNewSessionBatch.
+     */
+    ProcedureStats newSessionBatchStats = new ProcedureStats("ReportNewSessionBatch");
+
+    /**
+     * If set, our sessions are checkpointed to this file every
+     * checkpointIntervalMs, and restored from it when we start. Set with
+     * -Dpolicysandbox.checkpointFile=filename
+     */
+    String checkpointFile = SandboxOptions.getString("checkpointFile", null);
+
+    /**
+     * How often we checkpoint. Set with
+     * -Dpolicysandbox.checkpointIntervalMs=n
+     */
+    long checkpointIntervalMs = SandboxOptions.getLong("checkpointIntervalMs", 30000);
+
+    /**
+     * Writes checkpoints if checkpointFile is set, otherwise null.
+     */
+    SessionCheckpointer checkpointer = null;
+
+    /**
+     * Whether to bring session limits into line with
+     * policy_active_limits_by_cell before measured traffic starts. Set with
+     * -Dpolicysandbox.resync=true
+     */
+    boolean resyncLimits = SandboxOptions.getBoolean("resync", false);
+
+    /**
+     * If more than 0 and resync is on, we also resync this often during the
+     * run. Set with -Dpolicysandbox.resyncIntervalMs=n
+     */
+    long resyncIntervalMs = SandboxOptions.getLong("resyncIntervalMs", 0);
+
+    /**
+     * Resyncs session limits if resyncLimits is true, otherwise null.
+     */
+    SessionLimitResync limitResync = null;
+
+    /**
+     * Where we write latency histograms at the end of a run. Set with
+     * -Dpolicysandbox.latencyDir=dir
+     */
+    String latencyDir = SandboxOptions.getString("latencyDir", ".");
+
+    /**
+     * Seed for all our Randoms, so a run can be repeated. 0 means pick one.
+     * Set with -Dpolicysandbox.seed=n
+     */
+    long seed = SandboxOptions.getLong("seed", 0);
+
+    /**
+     * If set, every operation we send is written to this file. Set with
+     * -Dpolicysandbox.recordFile=filename
+     */
+    String recordFile = SandboxOptions.getString("recordFile", null);
+
+    /**
+     * If set, we replay the operations in this file instead of generating our
+     * own. Set with -Dpolicysandbox.replayFile=filename
+     */
+    String replayFile = SandboxOptions.getString("replayFile", null);
+
+    /**
+     * How fast to replay, relative to the original. 0 means as fast as
+     * possible. Set with -Dpolicysandbox.replaySpeed=n
+     */
+    double replaySpeed = SandboxOptions.getDouble("replaySpeed", 1);
+
+    /**
+     * Writes our operations to recordFile, or null.
+     */
+    OperationRecorder operationRecorder = null;
+
+    /**
+     * How GeneratorWorkers pick sessions - uniform, zipf, hotset or
+     * movinghotspot. See KeyDistribution. Set with
+     * -Dpolicysandbox.sessionDistribution=name
+     */
+    String sessionDistributionName = SandboxOptions.getString("sessionDistribution", KeyDistribution.UNIFORM);
+
+    /**
+     * How GeneratorWorkers pick cells for new sessions - uniform, zipf, hotset or
+     * movinghotspot. See KeyDistribution. Set with
+     * -Dpolicysandbox.cellDistribution=name
+     */
+    String cellDistributionName = SandboxOptions.getString("cellDistribution", KeyDistribution.UNIFORM);
+
+    /**
+     * Session churn settings. See ChurnModel.
+     */
+    ChurnModel churn = new ChurnModel();
+
+    /**
+     * How long policy changes take to reach our sessions.
+     */
+    PolicyChangeLatencyTracker propagationTracker;
+
+    /**
+     * How many operations we've sent for each cell.
+     */
+    AtomicLongArray offeredByCell;
+
+    /**
+     * offeredByCell when we last reported.
+     */
+    long[] lastReportedOfferedByCell;
+
+    /**
+     * changeTimestamp of the newest policy change from Kafka we've applied to
+     * each cell, in ms. Lets SessionLimitResync tell when its limits are older
+     * than what Kafka has already told us.
+     */
+    AtomicLongArray lastPolicyChangeMsByCell;
 
     /**
      * Shared Random instance.
      */
-    Random r = new Random();
+    Random r;
 
     /**
      * UTC time we started running
@@ -128,7 +430,7 @@ public class PolicyDataGenerator {
      * @param offset
      * @throws Exception
      */
-    public PolicyDataGenerator(String hostnames, int userCount, int tpMs, int durationSeconds, int cellCount
+    public PolicyDataGenerator(String hostnames, int userCount, double tpMs, int durationSeconds, int cellCount
             , int offset)
             throws Exception {
 
@@ -139,13 +441,73 @@ public class PolicyDataGenerator {
         this.cellCount = cellCount;
         this.offset = offset;
 
+        if (seed == 0) {
+            seed = System.nanoTime();
+        }
+
+        r = new Random(seed);
+
+        offeredByCell = new AtomicLongArray(cellCount);
+        propagationTracker = new PolicyChangeLatencyTracker(cellCount);
+        lastReportedOfferedByCell = new long[cellCount];
+        lastPolicyChangeMsByCell = new AtomicLongArray(cellCount);
+
+        if (compactSessions) {
+            sessionStore = new CompactSessionStore(offset, userCount, offHeapSessions);
+        } else {
+            sessionStore = new PolicySessionStore(userCount);
+        }
+
         ConsoleMessageConsumer.msg("hostnames=" + hostnames + ", users=" + userCount + ", tpMs=" + tpMs
                 + ",durationSeconds=" + durationSeconds + ", cellCount=" + cellCount
-                + ", offset=" + offset);
+                + ", offset=" + offset + ", compactSessions=" + compactSessions + ", offHeap=" + offHeapSessions
+                + ", threads=" + threadCount + ", warmUp=" + warmUp + ", usageBatchSize=" + usageBatchSize
+                + ", usageAggregation=" + aggregateUsage + ", zeroUsage=" + zeroUsageMode + ", seed=" + seed
+                + ", sessionDistribution=" + sessionDistributionName + ", cellDistribution=" + cellDistributionName);
+
+        if (churn.isEnabled()) {
+            ConsoleMessageConsumer.msg("Session churn: " + churn);
+        }
+
+        if (checkpointFile != null) {
+
+            if (new File(checkpointFile).exists()) {
+
+                final long restoreStartMs = System.currentTimeMillis();
+                long restoredCount = SessionCheckpointer.restore(checkpointFile, sessionStore, cellCount, r);
+
+                ConsoleMessageConsumer.msg("Restored " + restoredCount + " sessions from " + checkpointFile + " in "
+                        + (System.currentTimeMillis() - restoreStartMs) + "ms");
+            }
+
+            checkpointer = new SessionCheckpointer(sessionStore, checkpointFile, checkpointIntervalMs);
+        }
+
+        if (recordFile != null) {
+            operationRecorder = new OperationRecorder(recordFile);
+            ConsoleMessageConsumer.msg("Recording operations to " + recordFile);
+        }
 
         ConsoleMessageConsumer.msg("Log into VoltDB");
         voltClient = connectVoltDB(hostnames);
 
+        if (resyncLimits) {
+            limitResync = new SessionLimitResync(this);
+        }
+
+        if (aggregateUsage) {
+            usageAggregator = new UsageAggregator(voltClient, cellCount, usageAggregationMs, aggregatedUsageStats);
+        } else if (usageBatchSize > 0) {
+            usageBatcher = new UsageBatcher(voltClient, cellCount, usageBatchSize, usageBatchMs, usageBatchStats);
+        }
+
+        if (ZERO_USAGE_COALESCE.equals(zeroUsageMode)) {
+            keepAliveAggregator = new UsageAggregator(voltClient, cellCount, zeroUsageKeepAliveMs, keepAliveStats);
+        } else if (!ZERO_USAGE_SEND.equals(zeroUsageMode) && !ZERO_USAGE_SUPPRESS.equals(zeroUsageMode)) {
+            ConsoleMessageConsumer.msg("Unknown zeroUsage mode '" + zeroUsageMode + "', using " + ZERO_USAGE_SEND);
+            zeroUsageMode = ZERO_USAGE_SEND;
+        }
+
     }
 
     /**
@@ -156,10 +518,9 @@ public class PolicyDataGenerator {
         long laststatstime = System.currentTimeMillis();
         startMs = System.currentTimeMillis();
 
-        long currentMs = System.currentTimeMillis();
-        int tpThisMs = 0;
         long recordCount = 0;
         long lastReportedRecordCount = 0;
+        long lastReportedLateCount = 0;
         
         // For illustrative purposes we track a sessionm for each of our policies...
         PolicySession averageSession = null;
@@ -168,136 +529,262 @@ public class PolicyDataGenerator {
 
         ConsoleMessageConsumer.msg("Run started");
 
-        synchronized (sessionMap) {
+        if (usageBatcher != null) {
+            Thread usageBatcherThread = new Thread(usageBatcher, "UsageBatcher");
+            usageBatcherThread.setDaemon(true);
+            usageBatcherThread.start();
+        }
 
-            executiveSession = new PolicySession(new TimestampType(), KNOWN_EXECUTIVE_SESSION_ID + offset,
-                    KNOWN_EXECUTIVE_SESSION_ID, 0, r);
-            executiveSession.setRemember(true);
-            sessionMap.put(KNOWN_EXECUTIVE_SESSION_ID + offset, executiveSession);
-            sendNewSessionMessage(executiveSession);
+        if (usageAggregator != null) {
+            Thread usageAggregatorThread = new Thread(usageAggregator, "UsageAggregator");
+            usageAggregatorThread.setDaemon(true);
+            usageAggregatorThread.start();
+        }
 
-            averageSession = new PolicySession(new TimestampType(), KNOWN_AVERAGE_SESSION_ID + offset,
-                    KNOWN_AVERAGE_SESSION_ID, 0, r);
-            averageSession.setRemember(true);
-            sessionMap.put(KNOWN_AVERAGE_SESSION_ID + offset, averageSession);
-            sendNewSessionMessage(averageSession);
+        Thread checkpointerThread = null;
 
-            studentSession = new PolicySession(new TimestampType(), KNOWN_STUDENT_SESSION_ID + offset,
-                    KNOWN_STUDENT_SESSION_ID, 0, r);
-            studentSession.setRemember(true);
-            sessionMap.put(KNOWN_STUDENT_SESSION_ID + offset, studentSession);
-            sendNewSessionMessage(studentSession);
+        if (checkpointer != null) {
+            checkpointerThread = new Thread(checkpointer, "SessionCheckpointer");
+            checkpointerThread.setDaemon(true);
+            checkpointerThread.start();
         }
 
-        while (System.currentTimeMillis() < (startMs + (1000 * durationSeconds))) {
+        if (keepAliveAggregator != null) {
+            Thread keepAliveAggregatorThread = new Thread(keepAliveAggregator, "KeepAliveAggregator");
+            keepAliveAggregatorThread.setDaemon(true);
+            keepAliveAggregatorThread.start();
+        }
 
-            recordCount++;
+        executiveSession = new PolicySession(new TimestampType(), KNOWN_EXECUTIVE_SESSION_ID + offset,
+                KNOWN_EXECUTIVE_SESSION_ID, 0, r);
+        executiveSession.setRemember(true);
+        sessionStore.track(executiveSession);
+        sendNewSessionMessage(executiveSession.getSessionId(), System.nanoTime());
+
+        averageSession = new PolicySession(new TimestampType(), KNOWN_AVERAGE_SESSION_ID + offset,
+                KNOWN_AVERAGE_SESSION_ID, 0, r);
+        averageSession.setRemember(true);
+        sessionStore.track(averageSession);
+        sendNewSessionMessage(averageSession.getSessionId(), System.nanoTime());
+
+        studentSession = new PolicySession(new TimestampType(), KNOWN_STUDENT_SESSION_ID + offset,
+                KNOWN_STUDENT_SESSION_ID, 0, r);
+        studentSession.setRemember(true);
+        sessionStore.track(studentSession);
+        sendNewSessionMessage(studentSession.getSessionId(), System.nanoTime());
+
+        // Create everyone up front, so measured traffic is usage against a full
+        // population...
+        if (warmUp && replayFile == null) {
+            warmUpSessions();
+            laststatstime = System.currentTimeMillis();
+        }
 
-            // pick a random session and cell id..
-            long randomSessionId = r.nextInt(userCount) + offset;
-            int randomCellId = r.nextInt(cellCount);
+        // Make sure restored or warmed up sessions have today's limits...
+        if (limitResync != null) {
+            limitResync.resync();
+            laststatstime = System.currentTimeMillis();
+        }
 
-            synchronized (sessionMap) {
+        long lastResyncMs = System.currentTimeMillis();
 
-                // See if our session already exists. If it does then generate some usage. If not, 
-                // create it...
-                PolicySession ourSession = sessionMap.get(randomSessionId);
-                
-                if (ourSession == null) {
-                    ourSession = new PolicySession(new TimestampType(), randomSessionId, r.nextInt(userCount),
-                            randomCellId, r);
-                    sessionMap.put(randomSessionId, ourSession);
+        // Start our workers. Each gets its own shard of the session id space and
+        // share of tpMs. If we're replaying a log the replayer does all the work
+        // instead...
+        final long endMs = System.currentTimeMillis() + (1000 * durationSeconds);
+        GeneratorWorker[] workers;
+        Thread[] workerThreads;
+        OperationReplayer replayer = null;
 
-                    sendNewSessionMessage(ourSession);
+        if (replayFile != null) {
 
-                } else {
-                    
-                    synchronized (ourSession) {
+            workers = new GeneratorWorker[0];
+            workerThreads = new Thread[1];
 
-                        PolicyUsageMessage newMessage = ourSession.getNextUsageMessage();
+            replayer = new OperationReplayer(this, replayFile, replaySpeed, new Random(seed));
+            workerThreads[0] = new Thread(replayer, "OperationReplayer");
+            workerThreads[0].start();
 
-                        sendSessionUsageMessage(newMessage);
+        } else {
 
-                    }
-                }
+            workers = new GeneratorWorker[threadCount];
+            workerThreads = new Thread[threadCount];
+
+            for (int i = 0; i < threadCount; i++) {
 
+                long shardStart = ((long) userCount * i) / threadCount;
+                long shardEnd = ((long) userCount * (i + 1)) / threadCount;
+
+                workers[i] = new GeneratorWorker(this, i, shardStart + offset, (int) (shardEnd - shardStart),
+                        tpMs / threadCount, endMs, PolicySessionStore.hash(seed + i + 1));
+                workerThreads[i] = new Thread(workers[i], "GeneratorWorker-" + i);
+                workerThreads[i].start();
             }
+        }
 
-            if (tpThisMs++ > tpMs) {
+        while (isAnyAlive(workerThreads)) {
 
-                // but sleep if we're moving too fast...
-                while (currentMs == System.currentTimeMillis()) {
-                    try {
-                        Thread.sleep(0, 50000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
 
-                currentMs = System.currentTimeMillis();
-                tpThisMs = 0;
+            if (limitResync != null && resyncIntervalMs > 0
+                    && lastResyncMs + resyncIntervalMs < System.currentTimeMillis()) {
+                limitResync.resync();
+                lastResyncMs = System.currentTimeMillis();
             }
 
             // Every 10 seconds dump stats to console...
             if (laststatstime + 10000 < System.currentTimeMillis()) {
 
+                recordCount = 0;
+                long lateCount = 0;
+
+                for (int i = 0; i < workers.length; i++) {
+                    recordCount += workers[i].getRecordCount();
+                    lateCount += workers[i].getPacer().getLateCount();
+                }
+
+                if (replayer != null) {
+                    recordCount += replayer.getRecordCount();
+                }
+
                 double recordsProcessed = recordCount - lastReportedRecordCount;
                 double tps = 1000 * (recordsProcessed / (System.currentTimeMillis() - laststatstime));
 
-                ConsoleMessageConsumer.msg("Offset = " + offset + " Record " + recordCount + " TPS=" + (long) tps);
-                ConsoleMessageConsumer.msg("Active Sessions: " + sessionMap.size());
+                ConsoleMessageConsumer.msg("Offset = " + offset + " Record " + recordCount + " TPS=" + (long) tps
+                        + " Target TPS=" + (long) (tpMs * 1000) + " Late sends="
+                        + (lateCount - lastReportedLateCount));
+                ConsoleMessageConsumer.msg("Active Sessions: " + sessionStore.size());
+                printMemoryStats();
+                ConsoleMessageConsumer.msg(voltClient.reportInterval());
+
+                final long intervalMs = System.currentTimeMillis() - laststatstime;
+                printOfferedLoadByCell(intervalMs);
+                ConsoleMessageConsumer.msg(newSessionStats.reportInterval(intervalMs));
+                ConsoleMessageConsumer.msg(usageStats.reportInterval(intervalMs));
+
+                if (churn.isEnabled()) {
+
+                    long endedCount = 0;
+                    long abandonedCount = 0;
+                    long restartedCount = 0;
+
+                    for (int i = 0; i < workers.length; i++) {
+                        endedCount += workers[i].getEndedCount();
+                        abandonedCount += workers[i].getAbandonedCount();
+                        restartedCount += workers[i].getRestartedCount();
+                    }
+
+                    ConsoleMessageConsumer.msg(endSessionStats.reportInterval(intervalMs));
+                    ConsoleMessageConsumer.msg("Churn: ended=" + endedCount + " abandoned=" + abandonedCount
+                            + " restarted=" + restartedCount);
+                }
+
+                if (usageBatcher != null) {
+                    ConsoleMessageConsumer.msg(usageBatchStats.reportInterval(intervalMs) + " rows="
+                            + usageBatcher.getRowCount() + " batches=" + usageBatcher.getBatchCount());
+                }
+
+                if (usageAggregator != null) {
+                    ConsoleMessageConsumer.msg(aggregatedUsageStats.reportInterval(intervalMs) + " reports="
+                            + usageAggregator.getReportCount() + " rows=" + usageAggregator.getRowCount());
+                }
+
+                if (!ZERO_USAGE_SEND.equals(zeroUsageMode)) {
+                    ConsoleMessageConsumer.msg("Usage reports sent=" + sentUsageCount.get() + " zero usage suppressed="
+                            + suppressedUsageCount.get() + " keep-alive rows="
+                            + (keepAliveAggregator == null ? 0 : keepAliveAggregator.getRowCount()));
+                }
+
+                if (keepAliveAggregator != null) {
+                    ConsoleMessageConsumer.msg(keepAliveStats.reportInterval(intervalMs));
+                }
 
                 laststatstime = System.currentTimeMillis();
                 lastReportedRecordCount = recordCount;
+                lastReportedLateCount = lateCount;
+
+                if (ownPolicyChangesOnly) {
+                    ConsoleMessageConsumer.msg("Offset = " + offset + " Policy changes consumed="
+                            + receivedPolicyChangeCount.get() + " matched="
+                            + (receivedPolicyChangeCount.get() - discardedPolicyChangeCount.get()) + " discarded="
+                            + discardedPolicyChangeCount.get() + " coalesced=" + coalescedPolicyChangeCount.get());
+                } else if (coalescedPolicyChangeCount.get() > 0) {
+                    ConsoleMessageConsumer.msg("Policy changes received=" + receivedPolicyChangeCount.get()
+                            + " coalesced=" + coalescedPolicyChangeCount.get());
+                }
+
+                propagationTracker.report(false);
 
                 printApplicationStats(voltClient, executiveSession, averageSession, studentSession);
             }
 
         }
 
-        ConsoleMessageConsumer.msg("Run finished; ending sessions");
+        for (int i = 0; i < workerThreads.length; i++) {
+            try {
+                workerThreads[i].join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
 
-        laststatstime = System.currentTimeMillis();
+        if (usageBatcher != null) {
+            usageBatcher.stop();
+        }
 
-        // End sessions
-        synchronized (sessionMap) {
+        if (usageAggregator != null) {
+            usageAggregator.stop();
+        }
 
-            for (Map.Entry<Long, PolicySession> entry : sessionMap.entrySet()) {
+        if (keepAliveAggregator != null) {
+            keepAliveAggregator.stop();
+        }
 
-                PolicySession endingSession = entry.getValue();
+        // Once we start ending sessions a checkpoint would bring back sessions
+        // VoltDB no longer has...
+        if (checkpointer != null) {
+            checkpointer.stop(checkpointerThread);
+        }
 
-                sendEndSessionMessage(endingSession);
+        ConsoleMessageConsumer.msg("Run finished; ending sessions");
 
-                if (tpThisMs++ > tpMs) {
+        final long teardownStartMs = System.currentTimeMillis();
+        long[] endingSessionIds = sessionStore.getSessionIds();
 
-                    // but sleep if we're moving too fast...
-                    while (currentMs == System.currentTimeMillis()) {
-                        try {
-                            Thread.sleep(0, 50000);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
+        // A replayed log's own end session records have already removed the
+        // sessions they ended, so whatever is left is still live...
+        if (endSessionBatchSize > 0) {
 
-                    currentMs = System.currentTimeMillis();
-                    tpThisMs = 0;
-                }
+            endSessionsInParallel(endingSessionIds);
 
-                if (laststatstime + 10000 < System.currentTimeMillis()) {
+        } else {
 
-                    double recordsProcessed = recordCount - lastReportedRecordCount;
-                    double tps = 1000 * (recordsProcessed / (System.currentTimeMillis() - laststatstime));
+            laststatstime = System.currentTimeMillis();
+            Pacer endPacer = new Pacer(tpMs);
 
-                    ConsoleMessageConsumer.msg("Offset = " + offset + " Record " + recordCount + " TPS=" + (long) tps);
+            // End sessions. We work from a copy so the Kafka consumer isn't locked out
+            // while we do this...
+            for (long endingSessionId : endingSessionIds) {
+
+                sendEndSessionMessage(endingSessionId, endPacer.acquire());
+
+                if (laststatstime + 10000 < System.currentTimeMillis()) {
+
+                    ConsoleMessageConsumer.msg("Offset = " + offset + " Ending sessions: sent="
+                            + endPacer.getSendCount() + " of " + endingSessionIds.length);
+                    ConsoleMessageConsumer
+                            .msg(endSessionStats.reportInterval(System.currentTimeMillis() - laststatstime));
 
                     laststatstime = System.currentTimeMillis();
-                    lastReportedRecordCount = recordCount;
 
                     printApplicationStats(voltClient, executiveSession, averageSession, studentSession);
                 }
 
             }
-
         }
 
         try {
@@ -306,6 +793,35 @@ public class PolicyDataGenerator {
             ConsoleMessageConsumer.msg(e);
         }
 
+        ConsoleMessageConsumer.msg("Ended " + endingSessionIds.length + " sessions in "
+                + (System.currentTimeMillis() - teardownStartMs) + "ms");
+
+        if (checkpointFile != null && new File(checkpointFile).delete()) {
+            ConsoleMessageConsumer.msg("Deleted checkpoint " + checkpointFile);
+        }
+
+        if (operationRecorder != null) {
+            operationRecorder.close();
+        }
+
+        newSessionStats.writeHistogramLog(latencyDir);
+        newSessionBatchStats.writeHistogramLog(latencyDir);
+
+        usageStats.writeHistogramLog(latencyDir);
+        usageBatchStats.writeHistogramLog(latencyDir);
+        aggregatedUsageStats.writeHistogramLog(latencyDir);
+        keepAliveStats.writeHistogramLog(latencyDir);
+        endSessionStats.writeHistogramLog(latencyDir);
+        endSessionBatchStats.writeHistogramLog(latencyDir);
+
+        propagationTracker.report(true);
+        propagationTracker.writeHistogramLogs(latencyDir);
+
+        if (limitResync != null) {
+            ConsoleMessageConsumer.msg("Resync found " + limitResync.getTotalStaleCount() + " stale sessions in total");
+            limitResync.getStats().writeHistogramLog(latencyDir);
+        }
+
         ConsoleMessageConsumer.msg("done...");
 
     }
@@ -313,14 +829,26 @@ public class PolicyDataGenerator {
     /**
      * Send New Session message directly to VoltDB
      * 
-     * @param newSession
+     * @param sessionId
+     * @param scheduledNs - when this call was scheduled, as per System.nanoTime()
      */
-    private void sendNewSessionMessage(PolicySession newSession) {
+    void sendNewSessionMessage(long sessionId, long scheduledNs) {
+
+        Object[] params = sessionStore.getParamsForVoltDBCall(sessionId);
+
+        if (operationRecorder != null && params != null) {
+            operationRecorder.recordNewSession(scheduledNs, sessionId, (Long) params[3], (Long) params[0]);
+        }
 
-        if (voltClient != null) {
+        if (params != null) {
+            countOfferedLoad((Long) params[0]);
+        }
+
+        if (voltClient != null && params != null) {
             try {
-                RememberPolicyCreationDetailsCallback rpdc = new RememberPolicyCreationDetailsCallback(newSession);
-                voltClient.callProcedure(rpdc, "ReportNewSession", newSession.getParamsForVoltDBCall());
+                RememberPolicyCreationDetailsCallback rpdc = new RememberPolicyCreationDetailsCallback(sessionStore,
+                        sessionId, ((Date) params[2]).getTime(), newSessionStats, scheduledNs);
+                voltClient.callProcedure(rpdc, "ReportNewSession", params);
             } catch (Exception e) {
                 ConsoleMessageConsumer.msg(e.getMessage());
             }
@@ -329,15 +857,40 @@ public class PolicyDataGenerator {
     }
 
     /**
-     * Send Usage Message directly to VoltDB
+     * Send Usage Message to VoltDB, either directly or via usageAggregator or
+     * usageBatcher
      * 
      * @param usageMessage
+     * @param scheduledNs - when this call was scheduled, as per System.nanoTime()
      */
-    private void sendSessionUsageMessage(PolicyUsageMessage usageMessage) {
+    void sendSessionUsageMessage(PolicyUsageMessage usageMessage, long scheduledNs) {
+
+        if (operationRecorder != null) {
+            operationRecorder.recordUsage(scheduledNs, usageMessage);
+        }
+
+        countOfferedLoad(usageMessage.getCellId());
+
+        if (usageMessage.getRecordUsage() == 0 && !ZERO_USAGE_SEND.equals(zeroUsageMode)) {
 
-        if (voltClient != null) {
+            suppressedUsageCount.incrementAndGet();
+
+            if (keepAliveAggregator != null) {
+                keepAliveAggregator.add(usageMessage, scheduledNs);
+            }
+
+            return;
+        }
+
+        sentUsageCount.incrementAndGet();
+
+        if (usageAggregator != null) {
+            usageAggregator.add(usageMessage, scheduledNs);
+        } else if (usageBatcher != null) {
+            usageBatcher.add(usageMessage, scheduledNs);
+        } else if (voltClient != null) {
             try {
-                ComplainOnErrorCallback coec = new ComplainOnErrorCallback();
+                ComplainOnErrorCallback coec = new ComplainOnErrorCallback(usageStats, scheduledNs);
                 voltClient.callProcedure(coec, "ReportSessionUsage", usageMessage.getParamsForVoltDBCall());
             } catch (Exception e) {
                 ConsoleMessageConsumer.msg(e.getMessage());
@@ -346,17 +899,170 @@ public class PolicyDataGenerator {
 
     }
 
+    /**
+     * Create all our sessions using threadCount SessionWarmUpWorkers, each of
+     * which sends batches of up to warmUpBatchSize sessions per cell to
+     * ReportNewSessionBatch. We wait until VoltDB has answered every call, so
+     * every session has its policy and limit before measured traffic starts.
+     */
+    private void warmUpSessions() {
+
+        final long warmUpStartMs = System.currentTimeMillis();
+
+        SessionWarmUpWorker[] workers = new SessionWarmUpWorker[threadCount];
+        Thread[] workerThreads = new Thread[threadCount];
+
+        ConsoleMessageConsumer.msg("Warm-up: creating " + userCount + " sessions");
+
+        for (int i = 0; i < threadCount; i++) {
+
+            long from = offset + (((long) userCount * i) / threadCount);
+            long to = offset + (((long) userCount * (i + 1)) / threadCount);
+
+            workers[i] = new SessionWarmUpWorker(this, from, to, warmUpBatchSize,
+                    PolicySessionStore.hash(seed - i - 1));
+            workerThreads[i] = new Thread(workers[i], "SessionWarmUpWorker-" + i);
+            workerThreads[i].start();
+        }
+
+        long laststatstime = System.currentTimeMillis();
+        long createdCount = 0;
+
+        for (int i = 0; i < workerThreads.length; i++) {
+
+            while (workerThreads[i].isAlive()) {
+
+                try {
+                    workerThreads[i].join(1000);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                if (laststatstime + 10000 < System.currentTimeMillis()) {
+
+                    createdCount = 0;
+
+                    for (int j = 0; j < workers.length; j++) {
+                        createdCount += workers[j].getCreatedCount();
+                    }
+
+                    ConsoleMessageConsumer.msg("Offset = " + offset + " Warm-up: sent=" + createdCount + " of "
+                            + userCount);
+                    ConsoleMessageConsumer
+                            .msg(newSessionBatchStats.reportInterval(System.currentTimeMillis() - laststatstime));
+
+                    laststatstime = System.currentTimeMillis();
+                }
+            }
+        }
+
+        try {
+            voltClient.drain();
+        } catch (Exception e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+
+        createdCount = 0;
+
+        for (int j = 0; j < workers.length; j++) {
+            createdCount += workers[j].getCreatedCount();
+        }
+
+        final long warmUpMs = Math.max(1, System.currentTimeMillis() - warmUpStartMs);
+
+        ConsoleMessageConsumer.msg("Warm-up created " + createdCount + " sessions in " + warmUpMs + "ms ("
+                + ((createdCount * 1000) / warmUpMs) + " sessions/sec)");
+        ConsoleMessageConsumer.msg(newSessionBatchStats.reportInterval(System.currentTimeMillis() - laststatstime));
+    }
+
+    /**
+     * End sessions using threadCount SessionTeardownWorkers, each of which sends
+     * batches of up to endSessionBatchSize sessions per cell to
+     * ReportEndSessionBatch.
+     *
+     * @param endingSessionIds
+     */
+    private void endSessionsInParallel(long[] endingSessionIds) {
+
+        SessionTeardownWorker[] workers = new SessionTeardownWorker[threadCount];
+        Thread[] workerThreads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+
+            int from = (int) (((long) endingSessionIds.length * i) / threadCount);
+            int to = (int) (((long) endingSessionIds.length * (i + 1)) / threadCount);
+
+            workers[i] = new SessionTeardownWorker(this, endingSessionIds, from, to, endSessionBatchSize,
+                    tpMs / threadCount);
+            workerThreads[i] = new Thread(workers[i], "SessionTeardownWorker-" + i);
+            workerThreads[i].start();
+        }
+
+        long laststatstime = System.currentTimeMillis();
+
+        for (int i = 0; i < workerThreads.length; i++) {
+
+            while (workerThreads[i].isAlive()) {
+
+                try {
+                    workerThreads[i].join(1000);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+
+                if (laststatstime + 10000 < System.currentTimeMillis()) {
+
+                    long endedCount = 0;
+
+                    for (int j = 0; j < workers.length; j++) {
+                        endedCount += workers[j].getEndedCount();
+                    }
+
+                    ConsoleMessageConsumer.msg("Offset = " + offset + " Ending sessions: sent=" + endedCount + " of "
+                            + endingSessionIds.length);
+                    ConsoleMessageConsumer
+                            .msg(endSessionBatchStats.reportInterval(System.currentTimeMillis() - laststatstime));
+
+                    laststatstime = System.currentTimeMillis();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @param threads
+     * @return true if any of 'threads' is still running
+     */
+    private static boolean isAnyAlive(Thread[] threads) {
+
+        for (int i = 0; i < threads.length; i++) {
+            if (threads[i].isAlive()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Send End Session message directly to VoltDB
      * 
-     * @param endingSession
+     * @param endingSessionId
+     * @param scheduledNs - when this call was scheduled, as per System.nanoTime()
      */
-    private void sendEndSessionMessage(PolicySession endingSession) {
+    void sendEndSessionMessage(long endingSessionId, long scheduledNs) {
 
-        if (voltClient != null) {
+        Object[] params = sessionStore.getParamsForVoltDBCall(endingSessionId);
+
+        if (operationRecorder != null && params != null) {
+            operationRecorder.recordEndSession(scheduledNs, endingSessionId);
+        }
+
+        if (voltClient != null && params != null) {
             try {
-                ComplainOnErrorCallback coec = new ComplainOnErrorCallback();
-                voltClient.callProcedure(coec, "ReportEndSession", endingSession.getParamsForVoltDBCall());
+                ComplainOnErrorCallback coec = new ComplainOnErrorCallback(endSessionStats, scheduledNs);
+                voltClient.callProcedure(coec, "ReportEndSession", params);
             } catch (Exception e) {
                 ConsoleMessageConsumer.msg(e.getMessage());
             }
@@ -365,25 +1071,122 @@ public class PolicyDataGenerator {
     }
 
     /**
-     * Update session hashmap with new policy information. This is called from
-     * PolicyChangeSessionMessageConsumer.
+     * @param sessionId
+     * @return true if sessionId is one of the sessions we track for the demo,
+     *         which are never ended by churn
+     */
+    boolean isTrackedSession(long sessionId) {
+        return sessionId == KNOWN_EXECUTIVE_SESSION_ID + offset || sessionId == KNOWN_AVERAGE_SESSION_ID + offset
+                || sessionId == KNOWN_STUDENT_SESSION_ID + offset;
+    }
+
+    /**
+     * Update session store with new policy information, and record how long it
+     * took to get here. This is called from PolicyChangeSessionMessageConsumer.
      * 
      * @param policyChangeMessage
      */
     public void reportPolicyChange(PolicyChangeMessage policyChangeMessage) {
-        synchronized (sessionMap) {
 
-            PolicySession changedSession = sessionMap.get(policyChangeMessage.getSessionId());
+        if (policyChangeMessage.getChangeTimestampMs() <= startMs) {
+            return;
+        }
+
+        // Before we apply it, so a resync that hasn't seen it yet won't
+        // overwrite it...
+        recordPolicyChangeTime(policyChangeMessage.getCellId(), policyChangeMessage.getChangeTimestampMs());
 
-            if (changedSession != null && policyChangeMessage.getChangeTimestamp().asExactJavaDate().getTime() > startMs
-                    && policyChangeMessage.getSessionStartUTC().asExactJavaDate().getTime() == changedSession
-                            .getSessionStartUTC().asExactJavaDate().getTime()) {
-                changedSession.changePolicy(policyChangeMessage);
-            }
+        if (sessionStore.changePolicy(policyChangeMessage)) {
+            propagationTracker.record(policyChangeMessage, System.currentTimeMillis());
         }
 
     }
 
+    /**
+     * Remember that a change made at 'changeMs' has reached 'cellId'.
+     *
+     * @param cellId
+     * @param changeMs
+     */
+    private void recordPolicyChangeTime(long cellId, long changeMs) {
+
+        if (cellId < 0 || cellId >= lastPolicyChangeMsByCell.length()) {
+            return;
+        }
+
+        long lastChangeMs = lastPolicyChangeMsByCell.get((int) cellId);
+
+        while (changeMs > lastChangeMs
+                && !lastPolicyChangeMsByCell.compareAndSet((int) cellId, lastChangeMs, changeMs)) {
+            lastChangeMs = lastPolicyChangeMsByCell.get((int) cellId);
+        }
+    }
+
+    /**
+     * @param cellId
+     * @return changeTimestamp of the newest policy change from Kafka we've
+     *         applied to 'cellId', in ms, or 0 if there hasn't been one
+     */
+    long getLastPolicyChangeMs(long cellId) {
+
+        if (cellId < 0 || cellId >= lastPolicyChangeMsByCell.length()) {
+            return 0;
+        }
+
+        return lastPolicyChangeMsByCell.get((int) cellId);
+    }
+
+    /**
+     * Count a batch of policy change messages. This is called from the Kafka
+     * consumers.
+     *
+     * @param receivedCount
+     * @param discardedCount - how many were for another generator's sessions
+     * @param coalescedCount - how many weren't applied because a newer one for
+     *                       the same session was in the batch
+     */
+    public void countPolicyChanges(long receivedCount, long discardedCount, long coalescedCount) {
+        receivedPolicyChangeCount.addAndGet(receivedCount);
+        discardedPolicyChangeCount.addAndGet(discardedCount);
+        coalescedPolicyChangeCount.addAndGet(coalescedCount);
+    }
+
+    /**
+     * @param sessionId
+     * @return true if 'sessionId' is one of ours
+     */
+    public boolean isOwnSession(long sessionId) {
+        return (sessionId >= offset && sessionId < offset + (long) userCount) || isTrackedSession(sessionId);
+    }
+
+    /**
+     * @return a PolicyChangeCoalescer for one of our Kafka consumer threads,
+     *         which skips other generators' sessions if ownPolicyChangesOnly is
+     *         set
+     */
+    public PolicyChangeCoalescer createPolicyChangeCoalescer() {
+
+        if (ownPolicyChangesOnly) {
+            return new PolicyChangeCoalescer(this::isOwnSession);
+        }
+
+        return new PolicyChangeCoalescer();
+    }
+
+    /**
+     * @return the Kafka group.id for reading policy changes. If
+     *         ownPolicyChangesOnly is set every generator needs its own, or
+     *         Kafka would split the partitions between them.
+     */
+    public String getPolicyChangeGroupId() {
+
+        if (ownPolicyChangesOnly) {
+            return "PolicyChangeSessionMessageConsumer-" + offset;
+        }
+
+        return "PolicyChangeSessionMessageConsumer";
+    }
+
     /**
      * Run our Policy Demo. This actually involves three activities - emulating a large 
      * number of sessions, using Kafka to absorb policy changes and using Kafka to print 
@@ -402,17 +1205,30 @@ public class PolicyDataGenerator {
 
         String hostnames = args[0];
         int userCount = Integer.parseInt(args[1]);
-        int tpMs = Integer.parseInt(args[2]);
+        double tpMs = Double.parseDouble(args[2]);
         int durationSeconds = Integer.parseInt(args[3]);
         int cellCount = Integer.parseInt(args[4]);
 
         int offset = Integer.parseInt(args[5]);
         PolicyDataGenerator pdg = new PolicyDataGenerator(hostnames, userCount, tpMs, durationSeconds, cellCount,offset);
 
-        PolicyChangeSessionMessageConsumer pcmc = new PolicyChangeSessionMessageConsumer(pdg, addPort(hostnames, 9092));
+        // -Dpolicysandbox.consumerThreads=n spreads policy changes over n threads,
+        // each with its own Kafka partitions...
+        final int consumerThreads = SandboxOptions.getInt("consumerThreads", 0);
+        PolicyChangeSessionMessageConsumer pcmc = null;
+        PartitionedPolicyChangeConsumer ppcc = null;
+        Thread pcmcRunner;
+
+        if (consumerThreads > 0) {
+            ppcc = new PartitionedPolicyChangeConsumer(pdg, addPort(hostnames, 9092), consumerThreads);
+            pcmcRunner = new Thread(ppcc);
+        } else {
+            pcmc = new PolicyChangeSessionMessageConsumer(pdg, addPort(hostnames, 9092));
+            pcmcRunner = new Thread(pcmc);
+        }
+
         ConsoleMessageConsumer cccmc = new ConsoleMessageConsumer(addPort(hostnames, 9092));
         
-        Thread pcmcRunner = new Thread(pcmc);
         pcmcRunner.start();
 
         Thread cccmcRunner = new Thread(cccmc);
@@ -420,7 +1236,12 @@ public class PolicyDataGenerator {
 
         pdg.run();
 
-        pcmc.stop();
+        if (ppcc != null) {
+            ppcc.stop();
+        } else {
+            pcmc.stop();
+        }
+
         cccmc.stop();
 
     }
@@ -451,40 +1272,22 @@ public class PolicyDataGenerator {
 
     /**
      * 
-     * Connect to VoltDB using native APIS
+     * Connect to VoltDB using native APIS. The most calls we allow to be
+     * outstanding at once can be set with -Dpolicysandbox.outstandingLimit=n
      * 
      * @param commaDelimitedHostnames
      * @return
      * @throws Exception
      */
-    private static Client connectVoltDB(String commaDelimitedHostnames) throws Exception {
-        Client client = null;
-        ClientConfig config = null;
+    static SendPipeline connectVoltDB(String commaDelimitedHostnames) throws Exception {
+        SendPipeline client = null;
 
         try {
             ConsoleMessageConsumer.msg("Logging into VoltDB");
 
-            config = new ClientConfig(); // "admin", "idontknow");
-            config.setTopologyChangeAware(true);
-            //config.setReconnectOnConnectionLoss(true);
-
-            client = ClientFactory.createClient(config);
-
-            String[] hostnameArray = commaDelimitedHostnames.split(",");
+            client = new SendPipeline(commaDelimitedHostnames,
+                    Math.max(1, SandboxOptions.getInt("outstandingLimit", DEFAULT_OUTSTANDING_LIMIT)));
 
-            for (int i = 0; i < hostnameArray.length; i++) {
-                ConsoleMessageConsumer.msg("Connect to " + hostnameArray[i] + "...");
-                try {
-                    client.createConnection(hostnameArray[i]);
-                } catch (Exception e) {
-                    ConsoleMessageConsumer.msg(e.getMessage());
-                }
-            }
-
-            if (client.getConnectedHostList().size() == 0) {
-              throw new Exception("No hosts usable...");  
-            }
-            
             ConsoleMessageConsumer.msg("Connected to VoltDB");
 
         } catch (Exception e) {
@@ -496,6 +1299,75 @@ public class PolicyDataGenerator {
 
     }
 
+    /**
+     * Count an operation against 'cellId'.
+     *
+     * @param cellId
+     */
+    private void countOfferedLoad(long cellId) {
+
+        if (cellId >= 0 && cellId < offeredByCell.length()) {
+            offeredByCell.incrementAndGet((int) cellId);
+        }
+    }
+
+    /**
+     * Report how many operations per second we offered each cell since we were
+     * last called, and how far the busiest cell is above the average.
+     *
+     * @param intervalMs
+     */
+    private void printOfferedLoadByCell(long intervalMs) {
+
+        if (intervalMs <= 0) {
+            return;
+        }
+
+        StringBuilder builder = new StringBuilder("Offered TPS by cell:");
+        long total = 0;
+        long busiest = 0;
+
+        for (int i = 0; i < lastReportedOfferedByCell.length; i++) {
+
+            final long offered = offeredByCell.get(i);
+            final long delta = offered - lastReportedOfferedByCell[i];
+
+            lastReportedOfferedByCell[i] = offered;
+            total += delta;
+            busiest = Math.max(busiest, delta);
+
+            builder.append(' ');
+            builder.append(i);
+            builder.append('=');
+            builder.append((delta * 1000) / intervalMs);
+        }
+
+        if (total > 0) {
+            builder.append(" busiest/average=");
+            builder.append(String.format("%.2f", (double) busiest * lastReportedOfferedByCell.length / total));
+        }
+
+        ConsoleMessageConsumer.msg(builder.toString());
+    }
+
+    /**
+     * Report how much memory each session is costing us.
+     */
+    private void printMemoryStats() {
+
+        final int sessions = sessionStore.size();
+
+        if (sessions > 0) {
+
+            Runtime runtime = Runtime.getRuntime();
+            long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+
+            ConsoleMessageConsumer.msg("Memory per session: heap=" + (heapUsed / sessions) + " bytes, off heap="
+                    + (sessionStore.getOffHeapBytes() / sessions) + " bytes ("
+                    + (compactSessions ? "compact" : "objects") + " engine)");
+        }
+    }
+
     /**
      * Check VoltDB to see how things are going...
      * 
@@ -504,7 +1376,7 @@ public class PolicyDataGenerator {
      * @param averageSession
      * @param studentSession
      */
-    public static void printApplicationStats(Client client, PolicySession executiveSession,
+    public static void printApplicationStats(SendPipeline client, PolicySession executiveSession,
             PolicySession averageSession, PolicySession studentSession) {
 
         ConsoleMessageConsumer.msg("");
@@ -113,14 +113,15 @@ public class PolicySession {
 
     /**
      * We store a list of messages so we can understand what's happened to this
-     * session during the run.
+     * session during the run. Only created if we 'remember'.
      */
-    ArrayList<String> policyChangeMessages = new ArrayList<String>();
+    ArrayList<String> policyChangeMessages = null;
 
     /**
-     * Used for formatting change message timestamps
+     * Used for formatting change message timestamps. Only created if we
+     * 'remember', as we have millions of sessions that don't.
      */
-    SimpleDateFormat sdfDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    SimpleDateFormat sdfDate = null;
 
     /**
      * Whether we remember messages or not...
@@ -207,6 +208,12 @@ public class PolicySession {
     private void msg(String message) {
 
         if (remember) {
+
+            if (sdfDate == null) {
+                sdfDate = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                policyChangeMessages = new ArrayList<String>();
+            }
+
             Date now = new Date();
             String strDate = sdfDate.format(now);
             policyChangeMessages.add(strDate + ":" + message);
@@ -227,14 +234,17 @@ public class PolicySession {
         builder.append(cellId);
         builder.append(",[");
 
-        Iterator<String> iterator = policyChangeMessages.iterator();
+        if (policyChangeMessages != null) {
 
-        while (iterator.hasNext()) {
-            String nextObject = iterator.next();
-            builder.append(nextObject);
-            builder.append(',');
-            builder.append(System.lineSeparator());
+            Iterator<String> iterator = policyChangeMessages.iterator();
 
+            while (iterator.hasNext()) {
+                String nextObject = iterator.next();
+                builder.append(nextObject);
+                builder.append(',');
+                builder.append(System.lineSeparator());
+
+            }
         }
 
         builder.append("]");
@@ -287,6 +297,27 @@ public class PolicySession {
 
     }
 
+    /**
+     * @return the sessionId
+     */
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return the userId
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the cellId
+     */
+    public long getCellId() {
+        return cellId;
+    }
+
     /**
      * @return the sessionStartUTC
      */
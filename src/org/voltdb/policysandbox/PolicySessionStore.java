@@ -0,0 +1,531 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Store for our PolicySessions, keyed by sessionId.
+ *
+ * The generator and the Kafka policy change consumer both hit this for every
+ * record, so instead of one big synchronized HashMap<Long, PolicySession> we
+ * split the key space into stripes, each of which is an open addressing table
+ * with primitive long keys and its own lock.
+ *
+ * Changes to an individual session are made while synchronized on that
+ * PolicySession.
+ *
+ */
+public class PolicySessionStore implements SessionStore {
+
+    /**
+     * Default number of stripes. Must be a power of 2.
+     */
+    public static final int DEFAULT_STRIPE_COUNT = 64;
+
+    /**
+     * We grow a stripe when it gets this full...
+     */
+    private static final float MAX_LOAD_FACTOR = 0.6f;
+
+    /**
+     * Our stripes.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * Used to pick a stripe from a hash.
+     */
+    private final int stripeMask;
+
+    /**
+     * Create a store sized for 'expectedSessions' sessions.
+     *
+     * @param expectedSessions
+     */
+    public PolicySessionStore(int expectedSessions) {
+        this(expectedSessions, DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * Create a store sized for 'expectedSessions' sessions.
+     *
+     * @param expectedSessions
+     * @param stripeCount      - will be rounded up to a power of 2
+     */
+    public PolicySessionStore(int expectedSessions, int stripeCount) {
+
+        int actualStripeCount = powerOfTwoAtLeast(Math.max(1, stripeCount));
+
+        stripes = new Stripe[actualStripeCount];
+        stripeMask = actualStripeCount - 1;
+
+        int sessionsPerStripe = (int) ((Math.max(expectedSessions, 1) / actualStripeCount) / MAX_LOAD_FACTOR) + 1;
+
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(powerOfTwoAtLeast(Math.max(sessionsPerStripe, 16)));
+        }
+    }
+
+    /**
+     * @param sessionId
+     * @return the PolicySession for sessionId, or null.
+     */
+    public PolicySession get(long sessionId) {
+
+        final long hash = hash(sessionId);
+        final Stripe s = stripeFor(hash);
+
+        synchronized (s) {
+            return s.get(sessionId, hash);
+        }
+    }
+
+    /**
+     * Add or replace a session.
+     *
+     * @param sessionId
+     * @param session
+     * @return the session we replaced, or null.
+     */
+    public PolicySession put(long sessionId, PolicySession session) {
+
+        final long hash = hash(sessionId);
+        final Stripe s = stripeFor(hash);
+
+        synchronized (s) {
+            return s.put(sessionId, hash, session, true);
+        }
+    }
+
+    /**
+     * Add a session if we don't already have one for this sessionId.
+     *
+     * @param sessionId
+     * @param session
+     * @return the existing session, or null if 'session' was added.
+     */
+    public PolicySession putIfAbsent(long sessionId, PolicySession session) {
+
+        final long hash = hash(sessionId);
+        final Stripe s = stripeFor(hash);
+
+        synchronized (s) {
+            return s.put(sessionId, hash, session, false);
+        }
+    }
+
+    /**
+     * Remove a session.
+     *
+     * @param sessionId
+     * @return the session we removed, or null.
+     */
+    public PolicySession remove(long sessionId) {
+
+        final long hash = hash(sessionId);
+        final Stripe s = stripeFor(hash);
+
+        synchronized (s) {
+            return s.remove(sessionId, hash);
+        }
+    }
+
+    /**
+     * @return How many sessions we have. Stripes are counted one at a time, so
+     *         this is approximate while other threads are adding sessions.
+     */
+    @Override
+    public int size() {
+
+        int size = 0;
+
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                size += stripes[i].size;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Copy our sessions into a list. Only one stripe is locked at a time, so
+     * callers can walk the list without blocking anyone else.
+     *
+     * @return a list of all our sessions
+     */
+    public ArrayList<PolicySession> values() {
+
+        ArrayList<PolicySession> values = new ArrayList<PolicySession>(size());
+
+        for (int i = 0; i < stripes.length; i++) {
+            synchronized (stripes[i]) {
+                stripes[i].addValuesTo(values);
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public void track(PolicySession session) {
+        put(session.getSessionId(), session);
+    }
+
+    @Override
+    public boolean createSession(long sessionId, TimestampType sessionStartUTC, long userId, long cellId,
+            Random r) {
+
+        if (get(sessionId) != null) {
+            return false;
+        }
+
+        return putIfAbsent(sessionId, new PolicySession(sessionStartUTC, sessionId, userId, cellId, r)) == null;
+    }
+
+    @Override
+    public boolean removeSession(long sessionId, long sessionStartMs) {
+
+        PolicySession ourSession = get(sessionId);
+
+        if (ourSession == null || ourSession.isRemember()
+                || ourSession.getSessionStartUTC().asExactJavaDate().getTime() != sessionStartMs) {
+            return false;
+        }
+
+        return remove(sessionId) != null;
+    }
+
+    @Override
+    public PolicyUsageMessage getNextUsageMessage(long sessionId, Random r) {
+
+        PolicySession ourSession = get(sessionId);
+
+        if (ourSession == null) {
+            return null;
+        }
+
+        synchronized (ourSession) {
+            return ourSession.getNextUsageMessage();
+        }
+    }
+
+    @Override
+    public Object[] getParamsForVoltDBCall(long sessionId) {
+
+        PolicySession ourSession = get(sessionId);
+
+        if (ourSession == null) {
+            return null;
+        }
+
+        return ourSession.getParamsForVoltDBCall();
+    }
+
+    @Override
+    public boolean changePolicy(PolicyChangeMessage policyChangeMessage) {
+
+        PolicySession changedSession = get(policyChangeMessage.getSessionId());
+
+        if (changedSession != null && policyChangeMessage
+                .getSessionStartMs() == changedSession.getSessionStartUTC().asExactJavaDate().getTime()) {
+
+            synchronized (changedSession) {
+                changedSession.changePolicy(policyChangeMessage);
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void setPolicyNameAndLimit(long sessionId, long sessionStartMs, String policyName, long usageLimit) {
+
+        PolicySession ourSession = get(sessionId);
+
+        if (ourSession != null && ourSession.getSessionStartUTC().asExactJavaDate().getTime() == sessionStartMs) {
+            synchronized (ourSession) {
+                ourSession.setPolicyNameAndLimit(policyName, usageLimit);
+            }
+        }
+    }
+
+    @Override
+    public boolean replaceUsageLimit(long sessionId, long sessionStartMs, long expectedLimit, long usageLimit) {
+
+        PolicySession ourSession = get(sessionId);
+
+        if (ourSession != null && ourSession.getSessionStartUTC().asExactJavaDate().getTime() == sessionStartMs) {
+            synchronized (ourSession) {
+                if (ourSession.getUsageLimit() == expectedLimit) {
+                    ourSession.setPolicyNameAndLimit(ourSession.getPolicyName(), usageLimit);
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public long getSessionStartMs(long sessionId) {
+
+        PolicySession ourSession = get(sessionId);
+
+        if (ourSession == null) {
+            return 0;
+        }
+
+        return ourSession.getSessionStartUTC().asExactJavaDate().getTime();
+    }
+
+    @Override
+    public long[] getSessionIds() {
+
+        ArrayList<PolicySession> values = values();
+        long[] sessionIds = new long[values.size()];
+
+        for (int i = 0; i < sessionIds.length; i++) {
+            sessionIds[i] = values.get(i).getSessionId();
+        }
+
+        return sessionIds;
+    }
+
+    @Override
+    public void forEachSession(SessionVisitor visitor) {
+
+        ArrayList<PolicySession> values = values();
+
+        for (int i = 0; i < values.size(); i++) {
+
+            PolicySession ourSession = values.get(i);
+
+            if (ourSession.isRemember()) {
+                continue;
+            }
+
+            String policyName;
+            long usageLimit;
+
+            synchronized (ourSession) {
+                policyName = ourSession.getPolicyName();
+                usageLimit = ourSession.getUsageLimit();
+            }
+
+            visitor.visit(ourSession.getSessionId(), ourSession.getSessionStartUTC().asExactJavaDate().getTime(),
+                    ourSession.getUserId(), ourSession.getCellId(), policyName, usageLimit);
+        }
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return 0;
+    }
+
+    /**
+     * @param hash
+     * @return the stripe responsible for 'hash'
+     */
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> 40) & stripeMask];
+    }
+
+    /**
+     * Our session ids are sequential, so we mix them up before use. This is the
+     * finalizer from MurmurHash3.
+     *
+     * @param key
+     * @return a well distributed hash of key
+     */
+    static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * @param value
+     * @return the smallest power of 2 >= value
+     */
+    static int powerOfTwoAtLeast(int value) {
+        int highBit = Integer.highestOneBit(value);
+        return (highBit == value) ? value : highBit << 1;
+    }
+
+    /**
+     * One stripe of our store - a linear probing hash table with long keys. A
+     * null value marks an empty slot, so a sessionId of 0 is fine.
+     *
+     */
+    private static class Stripe {
+
+        long[] keys;
+        PolicySession[] values;
+        int mask;
+        int size;
+        int resizeAt;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new PolicySession[capacity];
+            mask = capacity - 1;
+            resizeAt = (int) (capacity * MAX_LOAD_FACTOR);
+        }
+
+        PolicySession get(long key, long hash) {
+
+            int slot = (int) hash & mask;
+
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            return null;
+        }
+
+        PolicySession put(long key, long hash, PolicySession value, boolean replace) {
+
+            int slot = (int) hash & mask;
+
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    PolicySession oldValue = values[slot];
+                    if (replace) {
+                        values[slot] = value;
+                    }
+                    return oldValue;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            values[slot] = value;
+
+            if (++size > resizeAt) {
+                grow();
+            }
+
+            return null;
+        }
+
+        PolicySession remove(long key, long hash) {
+
+            int slot = (int) hash & mask;
+
+            while (values[slot] != null) {
+
+                if (keys[slot] == key) {
+
+                    PolicySession oldValue = values[slot];
+                    shiftBack(slot);
+                    size--;
+                    return oldValue;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return null;
+        }
+
+        /**
+         * Close the gap left at 'gap' by moving later entries in the same probe
+         * sequence back, so lookups never stop early.
+         *
+         * @param gap
+         */
+        private void shiftBack(int gap) {
+
+            int slot = gap;
+
+            while (true) {
+
+                slot = (slot + 1) & mask;
+
+                if (values[slot] == null) {
+                    break;
+                }
+
+                int home = (int) hash(keys[slot]) & mask;
+
+                // Move the entry if its home slot is not between the gap and where it is now
+                if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                    keys[gap] = keys[slot];
+                    values[gap] = values[slot];
+                    gap = slot;
+                }
+            }
+
+            values[gap] = null;
+        }
+
+        private void grow() {
+
+            long[] oldKeys = keys;
+            PolicySession[] oldValues = values;
+
+            allocate(oldKeys.length * 2);
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+
+                    int slot = (int) hash(oldKeys[i]) & mask;
+
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        void addValuesTo(ArrayList<PolicySession> list) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    list.add(values[i]);
+                }
+            }
+        }
+    }
+
+}
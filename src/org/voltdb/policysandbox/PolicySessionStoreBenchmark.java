@@ -0,0 +1,199 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Stand alone benchmark that doesn't need VoltDB. We emulate the generator
+ * loop on one thread while another thread applies a burst of policy change
+ * messages, and report how many generator operations per second we managed
+ * during the burst. We do this once with the old synchronized HashMap and once
+ * with PolicySessionStore.
+ *
+ */
+public class PolicySessionStoreBenchmark {
+
+    /**
+     * The two things we compare...
+     */
+    interface SessionLookup {
+        PolicySession get(long sessionId);
+
+        void put(long sessionId, PolicySession session);
+    }
+
+    /**
+     * How we used to do it - one lock for everything.
+     */
+    static class SynchronizedHashMapLookup implements SessionLookup {
+
+        HashMap<Long, PolicySession> sessionMap;
+
+        SynchronizedHashMapLookup(int userCount) {
+            sessionMap = new HashMap<Long, PolicySession>(userCount);
+        }
+
+        @Override
+        public PolicySession get(long sessionId) {
+            synchronized (sessionMap) {
+                return sessionMap.get(sessionId);
+            }
+        }
+
+        @Override
+        public void put(long sessionId, PolicySession session) {
+            synchronized (sessionMap) {
+                sessionMap.put(sessionId, session);
+            }
+        }
+    }
+
+    /**
+     * How we do it now.
+     */
+    static class StoreLookup implements SessionLookup {
+
+        PolicySessionStore sessionStore;
+
+        StoreLookup(int userCount) {
+            sessionStore = new PolicySessionStore(userCount);
+        }
+
+        @Override
+        public PolicySession get(long sessionId) {
+            return sessionStore.get(sessionId);
+        }
+
+        @Override
+        public void put(long sessionId, PolicySession session) {
+            sessionStore.put(sessionId, session);
+        }
+    }
+
+    /**
+     * @param args userCount burstSize
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 2) {
+            ConsoleMessageConsumer.msg("Usage: PolicySessionStoreBenchmark userCount burstSize");
+            System.exit(1);
+        }
+
+        final int userCount = Integer.parseInt(args[0]);
+        final int burstSize = Integer.parseInt(args[1]);
+
+        // Run each twice so the second pass is JIT compiled...
+        for (int i = 0; i < 2; i++) {
+            runOnce("HashMap", new SynchronizedHashMapLookup(userCount), userCount, burstSize);
+            runOnce("PolicySessionStore", new StoreLookup(userCount), userCount, burstSize);
+        }
+
+    }
+
+    /**
+     * Populate 'lookup', then run a generator thread until a consumer thread has
+     * applied 'burstSize' policy changes.
+     *
+     * @param name
+     * @param lookup
+     * @param userCount
+     * @param burstSize
+     * @throws InterruptedException
+     */
+    private static void runOnce(String name, final SessionLookup lookup, final int userCount, final int burstSize)
+            throws InterruptedException {
+
+        final Random r = new Random(42);
+        final TimestampType sessionStart = new TimestampType();
+
+        for (int i = 0; i < userCount; i++) {
+            lookup.put(i, new PolicySession(sessionStart, i, i, i % 100, r));
+        }
+
+        final PolicyChangeMessage[] burst = new PolicyChangeMessage[burstSize];
+        final TimestampType changeTime = new TimestampType();
+
+        for (int i = 0; i < burst.length; i++) {
+            long sessionId = r.nextInt(userCount);
+            burst[i] = new PolicyChangeMessage(sessionId % 100, sessionId, sessionStart, changeTime, i);
+        }
+
+        final AtomicLong generatorOps = new AtomicLong();
+        final AtomicBoolean keepGoing = new AtomicBoolean(true);
+
+        Thread generator = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                Random generatorRandom = new Random(7);
+                long ops = 0;
+
+                while (keepGoing.get()) {
+
+                    PolicySession ourSession = lookup.get(generatorRandom.nextInt(userCount));
+
+                    synchronized (ourSession) {
+                        ourSession.getNextUsageMessage();
+                    }
+
+                    ops++;
+                }
+
+                generatorOps.set(ops);
+            }
+        });
+
+        final long startMs = System.currentTimeMillis();
+        generator.start();
+
+        for (int i = 0; i < burst.length; i++) {
+
+            PolicySession changedSession = lookup.get(burst[i].getSessionId());
+
+            synchronized (changedSession) {
+                changedSession.changePolicy(burst[i]);
+            }
+        }
+
+        final long burstMs = Math.max(1, System.currentTimeMillis() - startMs);
+
+        keepGoing.set(false);
+        generator.join();
+
+        ConsoleMessageConsumer.msg(name + ": applied " + burstSize + " changes in " + burstMs + "ms ("
+                + ((burstSize * 1000L) / burstMs) + "/sec). Generator TPS during burst="
+                + ((generatorOps.get() * 1000) / burstMs));
+
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.voltdb.client.ClientResponse;
+
+/**
+ * Client side latency statistics for one procedure.
+ *
+ * Latency is measured from when the Pacer *scheduled* the call, not when we
+ * actually sent it. If the generator stalls, calls queued up behind the stall
+ * are charged for the time they spent waiting, which avoids the 'coordinated
+ * omission' problem where a stalled client quietly stops measuring exactly
+ * when things are slow.
+ *
+ */
+public class ProcedureStats {
+
+    /**
+     * Procedure name
+     */
+    String procedureName;
+
+    /**
+     * Latencies since the last time we reported, in microseconds.
+     */
+    AtomicReference<LatencyHistogram> intervalHistogram = new AtomicReference<LatencyHistogram>(
+            new LatencyHistogram());
+
+    /**
+     * Latencies for the whole run, in microseconds.
+     */
+    LatencyHistogram totalHistogram = new LatencyHistogram();
+
+    /**
+     * How many calls failed.
+     */
+    AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * @param procedureName
+     */
+    public ProcedureStats(String procedureName) {
+        super();
+        this.procedureName = procedureName;
+    }
+
+    /**
+     * Record a finished call.
+     *
+     * @param scheduledNs - System.nanoTime() the call was scheduled for
+     * @param response
+     */
+    public void record(long scheduledNs, ClientResponse response) {
+
+        if (response.getStatus() != ClientResponse.SUCCESS) {
+            errorCount.incrementAndGet();
+        }
+
+        final long latencyUs = (System.nanoTime() - scheduledNs) / 1000;
+
+        intervalHistogram.get().recordValue(latencyUs);
+        totalHistogram.recordValue(latencyUs);
+    }
+
+    /**
+     * Report on the calls since we were last asked, and start a new interval.
+     *
+     * @param intervalMs - how long the interval was
+     * @return a one line summary
+     */
+    public String reportInterval(long intervalMs) {
+
+        LatencyHistogram interval = intervalHistogram.getAndSet(new LatencyHistogram());
+
+        StringBuilder builder = new StringBuilder(procedureName);
+        builder.append(": calls=");
+        builder.append(interval.getTotalCount());
+
+        if (intervalMs > 0) {
+            builder.append(" TPS=");
+            builder.append((interval.getTotalCount() * 1000) / intervalMs);
+        }
+
+        builder.append(" latency(ms) p50=");
+        builder.append(formatMs(interval.getValueAtPercentile(50)));
+        builder.append(" p99=");
+        builder.append(formatMs(interval.getValueAtPercentile(99)));
+        builder.append(" p99.9=");
+        builder.append(formatMs(interval.getValueAtPercentile(99.9)));
+        builder.append(" max=");
+        builder.append(formatMs(interval.getMaxValue()));
+        builder.append(" errors=");
+        builder.append(errorCount.get());
+
+        return builder.toString();
+    }
+
+    /**
+     * Write the latency distribution for the whole run to
+     * dir/procedureName.hgrm.
+     *
+     * @param dir
+     */
+    public void writeHistogramLog(String dir) {
+
+        if (totalHistogram.getTotalCount() == 0) {
+            return;
+        }
+
+        File logFile = new File(dir, procedureName + ".hgrm");
+
+        try (PrintStream out = new PrintStream(new FileOutputStream(logFile))) {
+            totalHistogram.outputPercentileDistribution(out, 1000.0);
+            ConsoleMessageConsumer.msg("Wrote latency histogram for " + procedureName + " to " + logFile);
+        } catch (IOException e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+    }
+
+    /**
+     * @param us
+     * @return 'us' as milliseconds with 3 decimal places
+     */
+    private static String formatMs(long us) {
+        return String.format("%.3f", us / 1000.0);
+    }
+
+    /**
+     * @return the procedureName
+     */
+    public String getProcedureName() {
+        return procedureName;
+    }
+
+    /**
+     * @return latencies for the whole run, in microseconds
+     */
+    public LatencyHistogram getTotalHistogram() {
+        return totalHistogram;
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import org.voltdb.VoltTable;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Callback for ReportNewSessionBatch. Updates each of the batch's sessions with
+ * the policy name and limit VoltDB gave it.
+ *
+ */
+public class RememberBatchPolicyCreationDetailsCallback implements ProcedureCallback {
+
+    /**
+     * Where our sessions live.
+     */
+    SessionStore sessionStore;
+
+    /**
+     * When each session started, in the same order as the sessions in the
+     * call, so we don't update a newer session with the same id.
+     */
+    long[] sessionStartMs;
+
+    /**
+     * Where we record latency.
+     */
+    ProcedureStats stats;
+
+    /**
+     * When the call was scheduled, as per System.nanoTime()
+     */
+    long scheduledNs;
+
+    /**
+     * @param sessionStore   - where our sessions live
+     * @param sessionStartMs - when each session started
+     * @param stats          - where we record latency
+     * @param scheduledNs    - when the call was scheduled, as per
+     *                       System.nanoTime()
+     */
+    public RememberBatchPolicyCreationDetailsCallback(SessionStore sessionStore, long[] sessionStartMs,
+            ProcedureStats stats, long scheduledNs) {
+        super();
+        this.sessionStore = sessionStore;
+        this.sessionStartMs = sessionStartMs;
+        this.stats = stats;
+        this.scheduledNs = scheduledNs;
+    }
+
+    @Override
+    public void clientCallback(ClientResponse arg0) throws Exception {
+
+        stats.record(scheduledNs, arg0);
+
+        if (arg0.getStatus() != ClientResponse.SUCCESS) {
+            ConsoleMessageConsumer.msg("Error Code " + arg0.getStatusString());
+        } else {
+
+            VoltTable policyTable = arg0.getResults()[0];
+
+            for (int i = 0; policyTable.advanceRow() && i < sessionStartMs.length; i++) {
+                sessionStore.setPolicyNameAndLimit(policyTable.getLong("sessionId"), sessionStartMs[i],
+                        policyTable.getString("policy_name"), (int) policyTable.getLong("current_limit_per_user"));
+            }
+
+        }
+
+    }
+
+}
@@ -34,25 +34,56 @@ import org.voltdb.client.ProcedureCallback;
  */
 public class RememberPolicyCreationDetailsCallback implements ProcedureCallback {
 
+    /**
+     * Where our session lives.
+     */
+    SessionStore sessionStore;
+
     /**
      * The session this policy will be for.
      */
-    PolicySession session;
+    long sessionId;
+
+    /**
+     * When the session started, so we don't update a newer session with the same id.
+     */
+    long sessionStartMs;
+
+    /**
+     * Where we record latency.
+     */
+    ProcedureStats stats;
+
+    /**
+     * When the call was scheduled, as per System.nanoTime()
+     */
+    long scheduledNs;
 
     /**
      * Special callback to update our PolicySession when we finish creating it 
      * with our assigned policy name and limit.
-     * @param PolicySession - our session
+     * @param sessionStore - where our session lives
+     * @param sessionId - our session
+     * @param sessionStartMs - when our session started
+     * @param stats - where we record latency
+     * @param scheduledNs - when the call was scheduled, as per System.nanoTime()
      *
      */
-   public RememberPolicyCreationDetailsCallback(PolicySession session) {
+   public RememberPolicyCreationDetailsCallback(SessionStore sessionStore, long sessionId, long sessionStartMs,
+            ProcedureStats stats, long scheduledNs) {
         super();
-        this.session = session;
+        this.sessionStore = sessionStore;
+        this.sessionId = sessionId;
+        this.sessionStartMs = sessionStartMs;
+        this.stats = stats;
+        this.scheduledNs = scheduledNs;
     }
 
     @Override
     public void clientCallback(ClientResponse arg0) throws Exception {
 
+        stats.record(scheduledNs, arg0);
+
         if (arg0.getStatus() != ClientResponse.SUCCESS) {
             ConsoleMessageConsumer.msg("Error Code " + arg0.getStatusString());
         } else {
@@ -60,11 +91,8 @@ public class RememberPolicyCreationDetailsCallback implements ProcedureCallback
             VoltTable policyTable = arg0.getResults()[0];
 
             if (policyTable.advanceRow()) {
-                synchronized (session) {
-                    session.setPolicyNameAndLimit(policyTable.getString("policy_name"),
-                            (int) policyTable.getLong("current_limit_per_user"));
-
-                }
+                sessionStore.setPolicyNameAndLimit(sessionId, sessionStartMs, policyTable.getString("policy_name"),
+                        (int) policyTable.getLong("current_limit_per_user"));
             }
 
         }
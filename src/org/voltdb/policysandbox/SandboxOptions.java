@@ -0,0 +1,116 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Optional settings for the sandbox client. These are passed as Java system
+ * properties, e.g. -Dpolicysandbox.sessionEngine=compact, so the positional
+ * command line used by run_sessions.sh stays the same. run_sessions.sh passes
+ * $JVMOPTS through to java.
+ *
+ */
+public class SandboxOptions {
+
+    /**
+     * All our properties start with this.
+     */
+    public static final String PREFIX = "policysandbox.";
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return the value of policysandbox.'name', or defaultValue
+     */
+    public static String getString(String name, String defaultValue) {
+        return System.getProperty(PREFIX + name, defaultValue);
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return the value of policysandbox.'name', or defaultValue
+     */
+    public static int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return the value of policysandbox.'name', or defaultValue
+     */
+    public static long getLong(String name, long defaultValue) {
+
+        String value = System.getProperty(PREFIX + name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            ConsoleMessageConsumer.msg("Ignoring bad value '" + value + "' for " + PREFIX + name);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return the value of policysandbox.'name', or defaultValue
+     */
+    public static double getDouble(String name, double defaultValue) {
+
+        String value = System.getProperty(PREFIX + name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            ConsoleMessageConsumer.msg("Ignoring bad value '" + value + "' for " + PREFIX + name);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param name
+     * @param defaultValue
+     * @return the value of policysandbox.'name', or defaultValue
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+
+        String value = System.getProperty(PREFIX + name);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return Boolean.parseBoolean(value.trim());
+    }
+
+}
@@ -0,0 +1,332 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.client.Client2;
+import org.voltdb.client.Client2Config;
+import org.voltdb.client.ClientFactory;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcCallException;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Sends procedure calls to VoltDB using the asynchronous Client2 API, with a
+ * hard limit on how many calls can be outstanding at once. When we hit the
+ * limit, or Client2 tells us its queue is backing up, callProcedure blocks
+ * until things clear. This slows the generator down to what VoltDB can
+ * actually handle instead of dropping calls or queueing them without limit.
+ *
+ * The callProcedure methods have the same signatures as the ones on the
+ * legacy Client, so callers don't need to care which one they have.
+ *
+ */
+public class SendPipeline {
+
+    /**
+     * Client2 asks us to slow down when its queue reaches this percentage of
+     * outstandingLimit...
+     */
+    private static final int BACKPRESSURE_START_PCT = 80;
+
+    /**
+     * ...and says we can carry on when it drops to this percentage.
+     */
+    private static final int BACKPRESSURE_END_PCT = 60;
+
+    /**
+     * Extra requests Client2 will accept on top of outstandingLimit, for
+     * synchronous calls such as stats queries.
+     */
+    private static final int SYNC_CALL_HEADROOM = 100;
+
+    /**
+     * Our handle to VoltDB
+     */
+    Client2 client;
+
+    /**
+     * Most calls we allow to be outstanding at once.
+     */
+    int outstandingLimit;
+
+    /**
+     * One permit per call we are allowed to have outstanding.
+     */
+    Semaphore permits;
+
+    /**
+     * True while Client2 wants us to slow down.
+     */
+    volatile boolean backpressure = false;
+
+    /**
+     * Used to wait for backpressure to end.
+     */
+    final Object backpressureLock = new Object();
+
+    /**
+     * How many times Client2 has asked us to slow down.
+     */
+    AtomicLong backpressureCount = new AtomicLong();
+
+    /**
+     * Total time callers have spent blocked, in nanoseconds.
+     */
+    AtomicLong blockedNs = new AtomicLong();
+
+    /**
+     * How many calls had to wait before they could be sent.
+     */
+    AtomicLong blockedCount = new AtomicLong();
+
+    /**
+     * How many calls failed without getting as far as a procedure, e.g. because
+     * of a timeout or lost connection.
+     */
+    AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * blockedNs when we last reported.
+     */
+    long lastReportedBlockedNs = 0;
+
+    /**
+     * blockedCount when we last reported.
+     */
+    long lastReportedBlockedCount = 0;
+
+    /**
+     * Connect to VoltDB.
+     *
+     * @param commaDelimitedHostnames
+     * @param outstandingLimit        - most calls we allow to be outstanding at
+     *                                once
+     * @throws Exception
+     */
+    public SendPipeline(String commaDelimitedHostnames, int outstandingLimit) throws Exception {
+
+        this.outstandingLimit = outstandingLimit;
+        this.permits = new Semaphore(outstandingLimit);
+
+        Client2Config config = new Client2Config().clientRequestLimit(outstandingLimit + SYNC_CALL_HEADROOM)
+                .clientRequestBackpressureLevel((outstandingLimit * BACKPRESSURE_START_PCT) / 100,
+                        (outstandingLimit * BACKPRESSURE_END_PCT) / 100)
+                .requestBackpressureHandler(this::setBackpressure);
+
+        client = ClientFactory.createClient(config);
+
+        String[] hostnameArray = commaDelimitedHostnames.split(",");
+
+        for (int i = 0; i < hostnameArray.length; i++) {
+            ConsoleMessageConsumer.msg("Connect to " + hostnameArray[i] + "...");
+            try {
+                client.connectSync(hostnameArray[i]);
+            } catch (Exception e) {
+                ConsoleMessageConsumer.msg(e.getMessage());
+            }
+        }
+
+        if (client.connectedHosts().size() == 0) {
+            throw new Exception("No hosts usable...");
+        }
+
+    }
+
+    /**
+     * Called by Client2 when its queue of requests starts or stops backing up.
+     *
+     * @param slowDown
+     */
+    void setBackpressure(boolean slowDown) {
+
+        synchronized (backpressureLock) {
+
+            if (slowDown && !backpressure) {
+                backpressureCount.incrementAndGet();
+            }
+
+            backpressure = slowDown;
+
+            if (!slowDown) {
+                backpressureLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Call a procedure asynchronously. Blocks if we have too many calls
+     * outstanding or VoltDB is applying backpressure.
+     *
+     * @param callback
+     * @param procName
+     * @param params
+     * @return true
+     * @throws InterruptedException
+     */
+    public boolean callProcedure(ProcedureCallback callback, String procName, Object... params)
+            throws InterruptedException {
+
+        if (backpressure || !permits.tryAcquire()) {
+
+            final long blockedStartNs = System.nanoTime();
+
+            synchronized (backpressureLock) {
+                while (backpressure) {
+                    backpressureLock.wait(100);
+                }
+            }
+
+            permits.acquire();
+
+            blockedNs.addAndGet(System.nanoTime() - blockedStartNs);
+            blockedCount.incrementAndGet();
+        }
+
+        try {
+            client.callProcedureAsync(procName, params)
+                    .whenComplete((response, throwable) -> complete(callback, response, throwable));
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        return true;
+    }
+
+    /**
+     * Called when a call finishes, one way or another.
+     *
+     * @param callback
+     * @param response
+     * @param throwable
+     */
+    private void complete(ProcedureCallback callback, ClientResponse response, Throwable throwable) {
+
+        permits.release();
+
+        if (throwable != null) {
+            errorCount.incrementAndGet();
+            ConsoleMessageConsumer.msg("Error talking to VoltDB:" + throwable.getMessage());
+            return;
+        }
+
+        try {
+            callback.clientCallback(response);
+        } catch (Exception e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+    }
+
+    /**
+     * Call a procedure and wait for the answer.
+     *
+     * @param procName
+     * @param params
+     * @return the response
+     * @throws IOException
+     * @throws ProcCallException
+     */
+    public ClientResponse callProcedure(String procName, Object... params) throws IOException, ProcCallException {
+        return client.callProcedureSync(procName, params);
+    }
+
+    /**
+     * Wait for all outstanding calls to finish.
+     *
+     * @throws InterruptedException
+     */
+    public void drain() throws InterruptedException {
+        client.drain();
+    }
+
+    /**
+     * Disconnect from VoltDB.
+     */
+    public void close() {
+        client.close();
+    }
+
+    /**
+     * @return How many calls are outstanding right now
+     */
+    public int getQueueDepth() {
+        return outstandingLimit - permits.availablePermits();
+    }
+
+    /**
+     * @return Total time callers have spent blocked, in milliseconds
+     */
+    public long getBlockedMs() {
+        return blockedNs.get() / 1000000;
+    }
+
+    /**
+     * @return How many times Client2 has asked us to slow down
+     */
+    public long getBackpressureCount() {
+        return backpressureCount.get();
+    }
+
+    /**
+     * @return How many calls failed without reaching a procedure
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Report on what's happened since we were last asked. Only called from one
+     * thread.
+     *
+     * @return a one line summary
+     */
+    public String reportInterval() {
+
+        final long ourBlockedNs = blockedNs.get();
+        final long ourBlockedCount = blockedCount.get();
+
+        StringBuilder builder = new StringBuilder("Send pipeline: queue depth=");
+        builder.append(getQueueDepth());
+        builder.append('/');
+        builder.append(outstandingLimit);
+        builder.append(" blocked calls=");
+        builder.append(ourBlockedCount - lastReportedBlockedCount);
+        builder.append(" blocked ms=");
+        builder.append((ourBlockedNs - lastReportedBlockedNs) / 1000000);
+        builder.append(" backpressure events=");
+        builder.append(backpressureCount.get());
+        builder.append(" errors=");
+        builder.append(errorCount.get());
+
+        lastReportedBlockedNs = ourBlockedNs;
+        lastReportedBlockedCount = ourBlockedCount;
+
+        return builder.toString();
+    }
+
+}
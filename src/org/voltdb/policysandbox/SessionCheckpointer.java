@@ -0,0 +1,434 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Every 'intervalMs' writes all our sessions to a checkpoint file, so a
+ * generator that dies mid run can be restarted with restore() and carry on with
+ * the same sessions instead of creating new ones that clash with the ones still
+ * in session_policy_state.
+ *
+ * The checkpoint is a little endian header:
+ *
+ * <pre>
+ * long MAGIC
+ * long checkpointMs    - wall clock time we started writing it
+ * long sessionCount
+ * long reserved
+ * </pre>
+ *
+ * followed by 'sessionCount' fixed size records:
+ *
+ * <pre>
+ * long sessionId
+ * long sessionStartMs
+ * long userId
+ * int  cellId
+ * int  usageLimit
+ * int  policyIndex     - index into the policy names that follow
+ * int  reserved
+ * </pre>
+ *
+ * followed by the policy names as a short length and UTF-8 bytes each. Each
+ * checkpoint is written to a temporary file through a FileChannel and then
+ * renamed over the last one, so there is always a complete checkpoint on disk.
+ * Tracked sessions aren't checkpointed - the generator creates them afresh each
+ * run.
+ *
+ */
+public class SessionCheckpointer implements Runnable, SessionStore.SessionVisitor {
+
+    /**
+     * First 8 bytes of every checkpoint.
+     */
+    public static final long MAGIC = 0x505343484B505431L; // "PSCHKPT1"
+
+    /**
+     * Size of the header.
+     */
+    public static final int HEADER_BYTES = 32;
+
+    /**
+     * Size of one record.
+     */
+    public static final int RECORD_BYTES = 40;
+
+    /**
+     * How much we buffer before writing.
+     */
+    private static final int BUFFER_BYTES = RECORD_BYTES * 32768;
+
+    /**
+     * How much of a checkpoint we map at once when restoring. A multiple of
+     * RECORD_BYTES.
+     */
+    private static final long WINDOW_BYTES = RECORD_BYTES * (1L << 25);
+
+    /**
+     * Where our sessions live.
+     */
+    SessionStore sessionStore;
+
+    /**
+     * Where we write.
+     */
+    String filename;
+
+    /**
+     * How often we write.
+     */
+    long intervalMs;
+
+    /**
+     * Records waiting to be written.
+     */
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The file we're writing now.
+     */
+    FileChannel channel;
+
+    /**
+     * Policy names in the checkpoint we're writing.
+     */
+    ArrayList<String> policyNames = new ArrayList<String>();
+
+    /**
+     * Where each of policyNames is.
+     */
+    HashMap<String, Integer> policyIndexes = new HashMap<String, Integer>();
+
+    /**
+     * How many sessions are in the checkpoint we're writing.
+     */
+    long sessionCount;
+
+    /**
+     * First error we had while writing, if any.
+     */
+    IOException writeError;
+
+    /**
+     * Set when it's time to stop.
+     */
+    volatile boolean keepGoing = true;
+
+    /**
+     * @param sessionStore
+     * @param filename
+     * @param intervalMs
+     */
+    public SessionCheckpointer(SessionStore sessionStore, String filename, long intervalMs) {
+        super();
+        this.sessionStore = sessionStore;
+        this.filename = filename;
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public void run() {
+
+        while (keepGoing) {
+
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                // stop() wakes us up...
+            }
+
+            if (keepGoing) {
+                checkpoint();
+            }
+        }
+
+    }
+
+    /**
+     * Stop checkpointing and wait for any checkpoint in progress to finish.
+     *
+     * @param checkpointThread - the thread we're running in
+     */
+    public void stop(Thread checkpointThread) {
+
+        keepGoing = false;
+        checkpointThread.interrupt();
+
+        try {
+            checkpointThread.join();
+        } catch (InterruptedException e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+    }
+
+    /**
+     * Write all our sessions to 'filename'.
+     */
+    public synchronized void checkpoint() {
+
+        final long startMs = System.currentTimeMillis();
+        final Path target = Paths.get(filename);
+        final Path temp = Paths.get(filename + ".tmp");
+
+        sessionCount = 0;
+        writeError = null;
+        policyNames.clear();
+        policyIndexes.clear();
+        buffer.clear();
+
+        try {
+
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+
+            try {
+
+                // Leave room for the header, which we write once we know how many
+                // sessions there are...
+                channel.position(HEADER_BYTES);
+
+                sessionStore.forEachSession(this);
+
+                if (writeError != null) {
+                    throw writeError;
+                }
+
+                for (int i = 0; i < policyNames.size(); i++) {
+
+                    byte[] nameBytes = policyNames.get(i).getBytes(StandardCharsets.UTF_8);
+
+                    if (buffer.remaining() < 2 + nameBytes.length) {
+                        flush();
+                    }
+
+                    buffer.putShort((short) nameBytes.length);
+                    buffer.put(nameBytes);
+                }
+
+                flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(MAGIC);
+                header.putLong(startMs);
+                header.putLong(sessionCount);
+                header.putLong(0);
+                header.flip();
+
+                while (header.hasRemaining()) {
+                    channel.write(header, HEADER_BYTES - header.remaining());
+                }
+
+                channel.force(false);
+
+            } finally {
+                channel.close();
+            }
+
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            ConsoleMessageConsumer.msg("Checkpointed " + sessionCount + " sessions to " + filename + " in "
+                    + (System.currentTimeMillis() - startMs) + "ms");
+
+        } catch (IOException e) {
+            ConsoleMessageConsumer.msg("Checkpoint to " + filename + " failed: " + e.getMessage());
+        }
+
+    }
+
+    @Override
+    public void visit(long sessionId, long sessionStartMs, long userId, long cellId, String policyName,
+            long usageLimit) {
+
+        if (writeError != null) {
+            return;
+        }
+
+        Integer policyIndex = policyIndexes.get(policyName);
+
+        if (policyIndex == null) {
+            policyIndex = policyNames.size();
+            policyNames.add(policyName);
+            policyIndexes.put(policyName, policyIndex);
+        }
+
+        if (buffer.remaining() < RECORD_BYTES) {
+            try {
+                flush();
+            } catch (IOException e) {
+                writeError = e;
+                return;
+            }
+        }
+
+        buffer.putLong(sessionId);
+        buffer.putLong(sessionStartMs);
+        buffer.putLong(userId);
+        buffer.putInt((int) cellId);
+        buffer.putInt((int) usageLimit);
+        buffer.putInt(policyIndex);
+        buffer.putInt(0);
+
+        sessionCount++;
+    }
+
+    /**
+     * Write whatever is in our buffer.
+     *
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Load the sessions in checkpoint 'filename' into 'sessionStore', with the
+     * policy and limit they had when it was written.
+     *
+     * Sessions in cells we don't have - because the checkpoint was written by a
+     * run with a bigger cellCount - are skipped.
+     *
+     * @param filename
+     * @param sessionStore
+     * @param cellCount
+     * @param r
+     * @return How many sessions we restored
+     * @throws IOException
+     */
+    public static long restore(String filename, SessionStore sessionStore, int cellCount, Random r)
+            throws IOException {
+
+        long restoredCount = 0;
+        long badCellCount = 0;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+
+            final long size = channel.size();
+
+            if (size < HEADER_BYTES) {
+                throw new IOException(filename + " is too short to be a checkpoint");
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getLong() != MAGIC) {
+                throw new IOException(filename + " is not a checkpoint");
+            }
+
+            final long checkpointMs = header.getLong();
+            final long sessionCount = header.getLong();
+            final long namesPosition = HEADER_BYTES + (sessionCount * RECORD_BYTES);
+
+            if (namesPosition > size) {
+                throw new IOException(filename + " is truncated");
+            }
+
+            // Policy names come after the sessions...
+            MappedByteBuffer nameBuffer = channel.map(FileChannel.MapMode.READ_ONLY, namesPosition,
+                    size - namesPosition);
+            nameBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            ArrayList<String> names = new ArrayList<String>();
+
+            while (nameBuffer.remaining() >= 2) {
+                byte[] nameBytes = new byte[nameBuffer.getShort()];
+                nameBuffer.get(nameBytes);
+                names.add(new String(nameBytes, StandardCharsets.UTF_8));
+            }
+
+            ConsoleMessageConsumer.msg("Restoring " + sessionCount + " sessions from " + filename + ", written at "
+                    + new TimestampType(checkpointMs * 1000));
+
+            long position = HEADER_BYTES;
+
+            while (position < namesPosition) {
+
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW_BYTES, namesPosition - position));
+                window.order(ByteOrder.LITTLE_ENDIAN);
+
+                while (window.remaining() >= RECORD_BYTES) {
+
+                    final long sessionId = window.getLong();
+                    final long sessionStartMs = window.getLong();
+                    final long userId = window.getLong();
+                    final int cellId = window.getInt();
+                    final int usageLimit = window.getInt();
+                    final int policyIndex = window.getInt();
+                    window.getInt();
+
+                    if (cellId < 0 || cellId >= cellCount) {
+                        badCellCount++;
+                        continue;
+                    }
+
+                    if (sessionStore.createSession(sessionId, new TimestampType(sessionStartMs * 1000), userId,
+                            cellId, r)) {
+
+                        if (policyIndex >= 0 && policyIndex < names.size()) {
+                            sessionStore.setPolicyNameAndLimit(sessionId, sessionStartMs, names.get(policyIndex),
+                                    usageLimit);
+                        }
+
+                        restoredCount++;
+                    }
+                }
+
+                position += window.capacity();
+            }
+
+        }
+
+        if (badCellCount > 0) {
+            ConsoleMessageConsumer.msg("Skipped " + badCellCount + " sessions in cells outside 0 to "
+                    + (cellCount - 1));
+        }
+
+        return restoredCount;
+    }
+
+}
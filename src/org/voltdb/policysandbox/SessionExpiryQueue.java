@@ -0,0 +1,139 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A min-heap of (expiry time, sessionId) pairs, kept as two arrays of
+ * primitives so a worker can track lifetimes for millions of sessions without
+ * an object per session. Only used by one thread.
+ *
+ */
+public class SessionExpiryQueue {
+
+    /**
+     * When each session expires, as per System.currentTimeMillis().
+     */
+    long[] expiryMs = new long[1024];
+
+    /**
+     * The session each entry is for.
+     */
+    long[] sessionIds = new long[1024];
+
+    /**
+     * How many entries we have.
+     */
+    int size = 0;
+
+    /**
+     * Add a session.
+     *
+     * @param sessionExpiryMs
+     * @param sessionId
+     */
+    public void add(long sessionExpiryMs, long sessionId) {
+
+        if (size == expiryMs.length) {
+            expiryMs = Arrays.copyOf(expiryMs, size * 2);
+            sessionIds = Arrays.copyOf(sessionIds, size * 2);
+        }
+
+        // Sift up...
+        int i = size++;
+
+        while (i > 0) {
+
+            final int parent = (i - 1) >>> 1;
+
+            if (expiryMs[parent] <= sessionExpiryMs) {
+                break;
+            }
+
+            expiryMs[i] = expiryMs[parent];
+            sessionIds[i] = sessionIds[parent];
+            i = parent;
+        }
+
+        expiryMs[i] = sessionExpiryMs;
+        sessionIds[i] = sessionId;
+    }
+
+    /**
+     * @return when the first session expires, or Long.MAX_VALUE if we're empty
+     */
+    public long peekExpiryMs() {
+        return size == 0 ? Long.MAX_VALUE : expiryMs[0];
+    }
+
+    /**
+     * Remove the first session to expire.
+     *
+     * @return its sessionId
+     */
+    public long poll() {
+
+        final long firstSessionId = sessionIds[0];
+        final long lastExpiryMs = expiryMs[--size];
+        final long lastSessionId = sessionIds[size];
+
+        // Sift down...
+        int i = 0;
+
+        while (true) {
+
+            int child = (i << 1) + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && expiryMs[child + 1] < expiryMs[child]) {
+                child++;
+            }
+
+            if (lastExpiryMs <= expiryMs[child]) {
+                break;
+            }
+
+            expiryMs[i] = expiryMs[child];
+            sessionIds[i] = sessionIds[child];
+            i = child;
+        }
+
+        expiryMs[i] = lastExpiryMs;
+        sessionIds[i] = lastSessionId;
+
+        return firstSessionId;
+    }
+
+    /**
+     * @return How many sessions we're tracking
+     */
+    public int size() {
+        return size;
+    }
+
+}
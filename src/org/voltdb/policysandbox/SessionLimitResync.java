@@ -0,0 +1,257 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.voltdb.VoltTable;
+import org.voltdb.client.ClientResponse;
+
+/**
+ * Brings the usage limits of all our sessions into line with
+ * policy_active_limits_by_cell. Sessions normally learn about new limits from
+ * Kafka, so after a restart or a consumer falling behind they can be using
+ * old ones until the next ChangePolicies decision. We fetch current_limit_per_user
+ * for every cell with GetPolicyLimitsByCell - one single partition call per
+ * cell, all in flight at once - and then walk the session store once, fixing
+ * any session whose limit is different.
+ *
+ * The Kafka consumers keep applying changes while we do this. A cell that has
+ * had a change from Kafka newer than the last_update_date we fetched is left
+ * alone, and limits are only replaced if they haven't changed since we looked
+ * at them, so we never put a newer limit back to an older one.
+ *
+ */
+public class SessionLimitResync implements SessionStore.SessionVisitor {
+
+    /**
+     * What GetPolicyLimitsByCell told us about one cell.
+     */
+    static class CellLimits {
+
+        /**
+         * current_limit_per_user by policy_name.
+         */
+        final HashMap<String, Long> limits = new HashMap<String, Long>();
+
+        /**
+         * Newest last_update_date of the cell's policies, in ms.
+         */
+        long lastUpdateMs = 0;
+    }
+
+    /**
+     * How long we wait for GetPolicyLimitsByCell to answer for every cell.
+     */
+    private static final long FETCH_TIMEOUT_MS = 60000;
+
+    /**
+     * The generator we work for.
+     */
+    PolicyDataGenerator pdg;
+
+    /**
+     * Client side latency for GetPolicyLimitsByCell.
+     */
+    ProcedureStats stats = new ProcedureStats("GetPolicyLimitsByCell");
+
+    /**
+     * Limits for each cell, as of the resync we're doing now. Cells we didn't
+     * hear back about in time are null.
+     */
+    CellLimits[] limitsByCell;
+
+    /**
+     * How many sessions we looked at in the resync we're doing now.
+     */
+    long checkedCount;
+
+    /**
+     * How many sessions had the wrong limit in the resync we're doing now.
+     */
+    long staleCount;
+
+    /**
+     * How many sessions we left alone in the resync we're doing now, because
+     * Kafka has told us about something newer than what we fetched.
+     */
+    long newerCount;
+
+    /**
+     * How many sessions had the wrong limit, across all resyncs.
+     */
+    AtomicLong totalStaleCount = new AtomicLong();
+
+    /**
+     * @param pdg
+     */
+    public SessionLimitResync(PolicyDataGenerator pdg) {
+        super();
+        this.pdg = pdg;
+    }
+
+    /**
+     * Fetch the current limits and apply them to every session.
+     *
+     * @return How many sessions had the wrong limit
+     */
+    public synchronized long resync() {
+
+        final long startMs = System.currentTimeMillis();
+
+        // Each resync has its own, so answers that turn up after we've given up
+        // waiting can't change what we're walking with...
+        final AtomicReferenceArray<CellLimits> fetchedLimits = new AtomicReferenceArray<CellLimits>(pdg.cellCount);
+        final CountDownLatch pendingCells = new CountDownLatch(pdg.cellCount);
+
+        for (int cellId = 0; cellId < pdg.cellCount; cellId++) {
+
+            final int ourCellId = cellId;
+            final long scheduledNs = System.nanoTime();
+
+            try {
+                pdg.voltClient.callProcedure(response -> {
+
+                    stats.record(scheduledNs, response);
+
+                    if (response.getStatus() == ClientResponse.SUCCESS) {
+                        fetchedLimits.set(ourCellId, readLimits(response.getResults()[0]));
+                    } else {
+                        ConsoleMessageConsumer.msg("GetPolicyLimitsByCell failed for cell " + ourCellId + ": "
+                                + response.getStatusString());
+                    }
+
+                    pendingCells.countDown();
+
+                }, "GetPolicyLimitsByCell", (long) cellId);
+
+            } catch (Exception e) {
+                ConsoleMessageConsumer.msg(e.getMessage());
+                pendingCells.countDown();
+            }
+        }
+
+        try {
+            if (!pendingCells.await(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                ConsoleMessageConsumer.msg("Resync: gave up waiting for " + pendingCells.getCount() + " cells");
+            }
+        } catch (InterruptedException e) {
+            ConsoleMessageConsumer.msg(e);
+        }
+
+        final long fetchedMs = System.currentTimeMillis();
+
+        limitsByCell = new CellLimits[pdg.cellCount];
+
+        for (int cellId = 0; cellId < limitsByCell.length; cellId++) {
+            limitsByCell[cellId] = fetchedLimits.get(cellId);
+        }
+
+        checkedCount = 0;
+        staleCount = 0;
+        newerCount = 0;
+
+        pdg.sessionStore.forEachSession(this);
+
+        limitsByCell = null;
+        totalStaleCount.addAndGet(staleCount);
+
+        ConsoleMessageConsumer.msg("Resync: " + staleCount + " of " + checkedCount + " sessions had stale limits, "
+                + newerCount + " skipped as Kafka has newer changes. Took " + (System.currentTimeMillis() - startMs)
+                + "ms (" + (fetchedMs - startMs) + "ms to fetch limits for " + pdg.cellCount + " cells)");
+
+        return staleCount;
+    }
+
+    /**
+     * @param limitsTable - output of GetPolicyLimitsByCell
+     * @return current_limit_per_user by policy_name, and when they last changed
+     */
+    private static CellLimits readLimits(VoltTable limitsTable) {
+
+        CellLimits cellLimits = new CellLimits();
+
+        while (limitsTable.advanceRow()) {
+
+            cellLimits.limits.put(limitsTable.getString("policy_name"),
+                    limitsTable.getLong("current_limit_per_user"));
+
+            final long lastUpdateMs = limitsTable.getTimestampAsTimestamp("last_update_date").getTime() / 1000;
+
+            if (lastUpdateMs > cellLimits.lastUpdateMs) {
+                cellLimits.lastUpdateMs = lastUpdateMs;
+            }
+        }
+
+        return cellLimits;
+    }
+
+    @Override
+    public void visit(long sessionId, long sessionStartMs, long userId, long cellId, String policyName,
+            long usageLimit) {
+
+        checkedCount++;
+
+        if (cellId < 0 || cellId >= limitsByCell.length || limitsByCell[(int) cellId] == null) {
+            return;
+        }
+
+        final CellLimits cellLimits = limitsByCell[(int) cellId];
+        Long currentLimit = cellLimits.limits.get(policyName);
+
+        if (currentLimit == null || currentLimit.longValue() == usageLimit) {
+            return;
+        }
+
+        // PolicyDataGenerator notes a change's time before applying it, so if
+        // this doesn't see one, replaceUsageLimit will...
+        if (pdg.getLastPolicyChangeMs(cellId) > cellLimits.lastUpdateMs) {
+            newerCount++;
+            return;
+        }
+
+        if (pdg.sessionStore.replaceUsageLimit(sessionId, sessionStartMs, usageLimit, currentLimit)) {
+            staleCount++;
+        }
+    }
+
+    /**
+     * @return How many sessions had the wrong limit, across all resyncs
+     */
+    public long getTotalStaleCount() {
+        return totalStaleCount.get();
+    }
+
+    /**
+     * @return Client side latency for GetPolicyLimitsByCell
+     */
+    public ProcedureStats getStats() {
+        return stats;
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * The session 'engine' used by PolicyDataGenerator. Sessions are referred to
+ * by sessionId so implementations are free to store them as PolicySession
+ * objects (PolicySessionStore) or as columns of primitives
+ * (CompactSessionStore). Implementations must be safe to call from the
+ * generator and the Kafka consumer at the same time.
+ *
+ */
+public interface SessionStore {
+
+    /**
+     * Something that wants to look at every session, such as
+     * SessionCheckpointer.
+     */
+    interface SessionVisitor {
+
+        void visit(long sessionId, long sessionStartMs, long userId, long cellId, String policyName,
+                long usageLimit);
+    }
+
+    /**
+     * Add a fully fledged PolicySession we want to keep an eye on, such as our
+     * executive, average and student sessions.
+     *
+     * @param session
+     */
+    void track(PolicySession session);
+
+    /**
+     * Create a session unless we already have one for sessionId.
+     *
+     * @param sessionId
+     * @param sessionStartUTC
+     * @param userId
+     * @param cellId
+     * @param r
+     * @return true if we created it
+     */
+    boolean createSession(long sessionId, TimestampType sessionStartUTC, long userId, long cellId, Random r);
+
+    /**
+     * Forget a session, if it's the one that started at sessionStartMs. Tracked
+     * sessions are never removed.
+     *
+     * @param sessionId
+     * @param sessionStartMs
+     * @return true if we removed it
+     */
+    boolean removeSession(long sessionId, long sessionStartMs);
+
+    /**
+     * @param sessionId
+     * @param r
+     * @return a usage message for sessionId, or null if there is no such session.
+     */
+    PolicyUsageMessage getNextUsageMessage(long sessionId, Random r);
+
+    /**
+     * @param sessionId
+     * @return parameters for ReportNewSession and ReportEndSession, or null if
+     *         there is no such session.
+     */
+    Object[] getParamsForVoltDBCall(long sessionId);
+
+    /**
+     * Apply a change that arrived via Kafka, if it's for the session we have.
+     *
+     * @param policyChangeMessage
+     * @return true if the change was applied.
+     */
+    boolean changePolicy(PolicyChangeMessage policyChangeMessage);
+
+    /**
+     * Record the policy name and limit ReportNewSession gave us.
+     *
+     * @param sessionId
+     * @param sessionStartMs
+     * @param policyName
+     * @param usageLimit
+     */
+    void setPolicyNameAndLimit(long sessionId, long sessionStartMs, String policyName, long usageLimit);
+
+    /**
+     * Change a session's limit, but only if it is still 'expectedLimit' - so a
+     * change that arrived via Kafka since the caller looked isn't overwritten.
+     *
+     * @param sessionId
+     * @param sessionStartMs
+     * @param expectedLimit
+     * @param usageLimit
+     * @return true if the limit was changed.
+     */
+    boolean replaceUsageLimit(long sessionId, long sessionStartMs, long expectedLimit, long usageLimit);
+
+    /**
+     * @param sessionId
+     * @return the start time of sessionId in ms, or 0 if there is no such session.
+     */
+    long getSessionStartMs(long sessionId);
+
+    /**
+     * @return A copy of our session ids. This doesn't lock anything for long.
+     */
+    long[] getSessionIds();
+
+    /**
+     * Show every session except tracked ones to 'visitor'. Each session is seen
+     * as it was at one moment, but sessions can come and go while we walk the
+     * store. Nothing is locked while 'visitor' runs.
+     *
+     * @param visitor
+     */
+    void forEachSession(SessionVisitor visitor);
+
+    /**
+     * @return How many sessions we have.
+     */
+    int size();
+
+    /**
+     * @return How many bytes we've allocated outside the Java heap.
+     */
+    long getOffHeapBytes();
+
+}
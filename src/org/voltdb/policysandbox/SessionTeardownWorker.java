@@ -0,0 +1,174 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ends a slice of the generator's sessions at the end of a run. Sessions are
+ * grouped by cell and sent to ReportEndSessionBatch 'batchSize' at a time.
+ * Several of these run at once, each with its own slice of the session ids, so
+ * teardown doesn't take as long as the run did. Nothing is locked for longer
+ * than it takes to look up one session.
+ *
+ */
+public class SessionTeardownWorker implements Runnable {
+
+    /**
+     * The generator we work for.
+     */
+    PolicyDataGenerator pdg;
+
+    /**
+     * All the session ids being ended. We do the ones from 'from' up to but not
+     * including 'to'.
+     */
+    long[] sessionIds;
+
+    int from;
+
+    int to;
+
+    /**
+     * Max sessions per call.
+     */
+    int batchSize;
+
+    /**
+     * Paces our calls.
+     */
+    Pacer pacer;
+
+    /**
+     * Pending session ids for each cell.
+     */
+    long[][] cellSessionIds;
+
+    /**
+     * Pending session start times for each cell.
+     */
+    long[][] cellSessionStartUTCMs;
+
+    /**
+     * How many sessions are pending for each cell.
+     */
+    int[] cellPendingCount;
+
+    /**
+     * How many sessions we've ended.
+     */
+    AtomicLong endedCount = new AtomicLong();
+
+    /**
+     * Create a worker.
+     *
+     * @param pdg
+     * @param sessionIds
+     * @param from
+     * @param to
+     * @param batchSize
+     * @param tpMs - how many calls per millisecond we may make
+     */
+    public SessionTeardownWorker(PolicyDataGenerator pdg, long[] sessionIds, int from, int to, int batchSize,
+            double tpMs) {
+        super();
+        this.pdg = pdg;
+        this.sessionIds = sessionIds;
+        this.from = from;
+        this.to = to;
+        this.batchSize = batchSize;
+        this.pacer = new Pacer(tpMs);
+
+        cellSessionIds = new long[pdg.cellCount][batchSize];
+        cellSessionStartUTCMs = new long[pdg.cellCount][batchSize];
+        cellPendingCount = new int[pdg.cellCount];
+    }
+
+    @Override
+    public void run() {
+
+        for (int i = from; i < to; i++) {
+
+            Object[] params = pdg.sessionStore.getParamsForVoltDBCall(sessionIds[i]);
+
+            if (params == null) {
+                continue;
+            }
+
+            if (pdg.operationRecorder != null) {
+                pdg.operationRecorder.recordEndSession(System.nanoTime(), sessionIds[i]);
+            }
+
+            final int cellId = (int) ((Long) params[0]).longValue();
+            final int pending = cellPendingCount[cellId];
+
+            cellSessionIds[cellId][pending] = sessionIds[i];
+            cellSessionStartUTCMs[cellId][pending] = ((Date) params[2]).getTime();
+            cellPendingCount[cellId] = pending + 1;
+
+            if (pending + 1 == batchSize) {
+                send(cellId);
+            }
+        }
+
+        for (int cellId = 0; cellId < cellPendingCount.length; cellId++) {
+            if (cellPendingCount[cellId] > 0) {
+                send(cellId);
+            }
+        }
+
+    }
+
+    /**
+     * Send the pending sessions for 'cellId' to ReportEndSessionBatch.
+     *
+     * @param cellId
+     */
+    private void send(int cellId) {
+
+        final int count = cellPendingCount[cellId];
+        final long scheduledNs = pacer.acquire();
+
+        try {
+            ComplainOnErrorCallback coec = new ComplainOnErrorCallback(pdg.endSessionBatchStats, scheduledNs);
+            pdg.voltClient.callProcedure(coec, "ReportEndSessionBatch", (long) cellId,
+                    Arrays.copyOf(cellSessionIds[cellId], count), Arrays.copyOf(cellSessionStartUTCMs[cellId], count));
+        } catch (Exception e) {
+            ConsoleMessageConsumer.msg(e.getMessage());
+        }
+
+        cellPendingCount[cellId] = 0;
+        endedCount.lazySet(endedCount.get() + count);
+    }
+
+    /**
+     * @return How many sessions we've ended
+     */
+    public long getEndedCount() {
+        return endedCount.get();
+    }
+
+}
@@ -0,0 +1,188 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Creates a slice of the generator's sessions before a run starts. Sessions
+ * are grouped by cell and sent to ReportNewSessionBatch 'batchSize' at a time,
+ * which is far quicker than letting GeneratorWorkers create them one at a
+ * time while they are supposed to be measuring usage traffic. Several of these
+ * run at once, each with its own slice of the session ids.
+ *
+ */
+public class SessionWarmUpWorker implements Runnable {
+
+    /**
+     * The generator we work for.
+     */
+    PolicyDataGenerator pdg;
+
+    /**
+     * We create the sessions from 'from' up to but not including 'to'.
+     */
+    long from;
+
+    long to;
+
+    /**
+     * Max sessions per call.
+     */
+    int batchSize;
+
+    /**
+     * Our own Random.
+     */
+    Random r;
+
+    /**
+     * How we pick cells for new sessions.
+     */
+    KeyDistribution cellDistribution;
+
+    /**
+     * Pending session ids for each cell.
+     */
+    long[][] cellSessionIds;
+
+    /**
+     * Pending session start times for each cell.
+     */
+    long[][] cellSessionStartUTCMs;
+
+    /**
+     * Pending user ids for each cell.
+     */
+    long[][] cellUserIds;
+
+    /**
+     * How many sessions are pending for each cell.
+     */
+    int[] cellPendingCount;
+
+    /**
+     * How many sessions we've created.
+     */
+    AtomicLong createdCount = new AtomicLong();
+
+    /**
+     * Create a worker.
+     *
+     * @param pdg
+     * @param from
+     * @param to
+     * @param batchSize
+     * @param seed      - seed for our Random
+     */
+    public SessionWarmUpWorker(PolicyDataGenerator pdg, long from, long to, int batchSize, long seed) {
+        super();
+        this.pdg = pdg;
+        this.from = from;
+        this.to = to;
+        this.batchSize = batchSize;
+        this.r = new Random(seed);
+        this.cellDistribution = KeyDistribution.create(pdg.cellDistributionName, pdg.cellCount);
+
+        cellSessionIds = new long[pdg.cellCount][batchSize];
+        cellSessionStartUTCMs = new long[pdg.cellCount][batchSize];
+        cellUserIds = new long[pdg.cellCount][batchSize];
+        cellPendingCount = new int[pdg.cellCount];
+    }
+
+    @Override
+    public void run() {
+
+        final SessionStore sessionStore = pdg.sessionStore;
+
+        for (long sessionId = from; sessionId < to; sessionId++) {
+
+            final int cellId = cellDistribution.next(r);
+            final long userId = r.nextInt(pdg.userCount);
+
+            if (!sessionStore.createSession(sessionId, new TimestampType(), userId, cellId, r)) {
+                continue;
+            }
+
+            if (pdg.operationRecorder != null) {
+                pdg.operationRecorder.recordNewSession(System.nanoTime(), sessionId, userId, cellId);
+            }
+
+            final int pending = cellPendingCount[cellId];
+
+            cellSessionIds[cellId][pending] = sessionId;
+            cellSessionStartUTCMs[cellId][pending] = sessionStore.getSessionStartMs(sessionId);
+            cellUserIds[cellId][pending] = userId;
+            cellPendingCount[cellId] = pending + 1;
+
+            if (pending + 1 == batchSize) {
+                send(cellId);
+            }
+        }
+
+        for (int cellId = 0; cellId < cellPendingCount.length; cellId++) {
+            if (cellPendingCount[cellId] > 0) {
+                send(cellId);
+            }
+        }
+
+    }
+
+    /**
+     * Send the pending sessions for 'cellId' to ReportNewSessionBatch.
+     *
+     * @param cellId
+     */
+    private void send(int cellId) {
+
+        final int count = cellPendingCount[cellId];
+        final long[] sessionStartUTCMs = Arrays.copyOf(cellSessionStartUTCMs[cellId], count);
+        final long scheduledNs = System.nanoTime();
+
+        try {
+            RememberBatchPolicyCreationDetailsCallback rbpc = new RememberBatchPolicyCreationDetailsCallback(
+                    pdg.sessionStore, sessionStartUTCMs, pdg.newSessionBatchStats, scheduledNs);
+            pdg.voltClient.callProcedure(rbpc, "ReportNewSessionBatch", (long) cellId,
+                    Arrays.copyOf(cellSessionIds[cellId], count), sessionStartUTCMs,
+                    Arrays.copyOf(cellUserIds[cellId], count));
+        } catch (Exception e) {
+            ConsoleMessageConsumer.msg(e.getMessage());
+        }
+
+        cellPendingCount[cellId] = 0;
+        createdCount.lazySet(createdCount.get() + count);
+    }
+
+    /**
+     * @return How many sessions we've created
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+}
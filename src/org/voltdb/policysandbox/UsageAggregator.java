@@ -0,0 +1,303 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Adds up usage records by (cell, policy, minute) and sends the totals to
+ * ReportAggregatedUsage, one call per cell every 'flushMs'. The database does
+ * the same work no matter how many sessions we have, so ingest cost depends on
+ * the number of cells instead. Can be used by many threads at once.
+ *
+ */
+public class UsageAggregator implements Runnable {
+
+    /**
+     * Running totals for one cell and minute. Arrays are parallel, one element
+     * per policy. There are only a handful of policies, so we search them
+     * instead of hashing.
+     */
+    static class CellAggregate {
+
+        long cellId;
+        long minuteMs = -1;
+        String[] policyNames = new String[4];
+        long[] totalUsages = new long[4];
+        long[] maxUsages = new long[4];
+        long[] usageCounts = new long[4];
+        int policyCount = 0;
+
+        /**
+         * When the oldest record we're holding was scheduled, as per
+         * System.nanoTime(). Used for latency.
+         */
+        long firstScheduledNs;
+
+        CellAggregate(long cellId) {
+            this.cellId = cellId;
+        }
+
+        /**
+         * Add a record's usage to our totals.
+         *
+         * @param policyName
+         * @param recordUsage
+         */
+        void add(String policyName, long recordUsage) {
+
+            int i = 0;
+
+            while (i < policyCount && !policyNames[i].equals(policyName)) {
+                i++;
+            }
+
+            if (i == policyCount) {
+
+                if (policyCount == policyNames.length) {
+                    policyNames = Arrays.copyOf(policyNames, policyCount * 2);
+                    totalUsages = Arrays.copyOf(totalUsages, policyCount * 2);
+                    maxUsages = Arrays.copyOf(maxUsages, policyCount * 2);
+                    usageCounts = Arrays.copyOf(usageCounts, policyCount * 2);
+                }
+
+                policyNames[i] = policyName;
+                totalUsages[i] = 0;
+                maxUsages[i] = 0;
+                usageCounts[i] = 0;
+                policyCount++;
+            }
+
+            totalUsages[i] += recordUsage;
+            usageCounts[i]++;
+
+            if (recordUsage > maxUsages[i]) {
+                maxUsages[i] = recordUsage;
+            }
+        }
+
+        /**
+         * @return the parameters for ReportAggregatedUsage, trimmed to
+         *         'policyCount'
+         */
+        Object[] getParamsForVoltDBCall() {
+            Object[] params = new Object[6];
+            params[0] = cellId;
+            params[1] = new TimestampType(minuteMs * 1000);
+            params[2] = Arrays.copyOf(policyNames, policyCount);
+            params[3] = Arrays.copyOf(totalUsages, policyCount);
+            params[4] = Arrays.copyOf(maxUsages, policyCount);
+            params[5] = Arrays.copyOf(usageCounts, policyCount);
+            return params;
+        }
+    }
+
+    /**
+     * Our handle to VoltDB
+     */
+    SendPipeline voltClient;
+
+    /**
+     * One aggregate per cell. Cell ids go from 0 to cellCount -1.
+     */
+    CellAggregate[] cellAggregates;
+
+    /**
+     * How often we send what we have.
+     */
+    long flushMs;
+
+    /**
+     * Where we record latency. Can be null.
+     */
+    ProcedureStats stats;
+
+    /**
+     * How many usage records we've been given.
+     */
+    AtomicLong reportCount = new AtomicLong();
+
+    /**
+     * How many aggregated rows we've sent.
+     */
+    AtomicLong rowCount = new AtomicLong();
+
+    /**
+     * Set to false to stop our flushing thread.
+     */
+    volatile boolean keepGoing = true;
+
+    /**
+     * Create an aggregator. Call 'run' in its own thread to send totals every
+     * flushMs.
+     *
+     * @param voltClient
+     * @param cellCount
+     * @param flushMs
+     * @param stats - where we record latency. Can be null.
+     */
+    public UsageAggregator(SendPipeline voltClient, int cellCount, long flushMs, ProcedureStats stats) {
+        super();
+        this.voltClient = voltClient;
+        this.flushMs = flushMs;
+        this.stats = stats;
+
+        cellAggregates = new CellAggregate[cellCount];
+
+        for (int i = 0; i < cellAggregates.length; i++) {
+            cellAggregates[i] = new CellAggregate(i);
+        }
+    }
+
+    /**
+     * Add a usage record. If it's for a new minute we send the totals for the
+     * old one first, so a row never spans two minutes.
+     *
+     * @param usageMessage
+     * @param scheduledNs - when this record was scheduled, as per
+     *                    System.nanoTime()
+     */
+    public void add(PolicyUsageMessage usageMessage, long scheduledNs) {
+
+        final long minuteMs = (System.currentTimeMillis() / 60000) * 60000;
+        CellAggregate aggregate = cellAggregates[(int) usageMessage.getCellId()];
+        Object[] params = null;
+        long aggregateScheduledNs = 0;
+
+        synchronized (aggregate) {
+
+            if (aggregate.minuteMs != minuteMs) {
+
+                if (aggregate.policyCount > 0) {
+                    params = aggregate.getParamsForVoltDBCall();
+                    aggregateScheduledNs = aggregate.firstScheduledNs;
+                    aggregate.policyCount = 0;
+                }
+
+                aggregate.minuteMs = minuteMs;
+            }
+
+            if (aggregate.policyCount == 0) {
+                aggregate.firstScheduledNs = scheduledNs;
+            }
+
+            aggregate.add(usageMessage.getPolicyName(), usageMessage.getRecordUsage());
+        }
+
+        reportCount.incrementAndGet();
+
+        if (params != null) {
+            send(params, aggregateScheduledNs);
+        }
+
+    }
+
+    /**
+     * Send the totals for every cell.
+     */
+    public void flush() {
+
+        for (int i = 0; i < cellAggregates.length; i++) {
+
+            CellAggregate aggregate = cellAggregates[i];
+            Object[] params = null;
+            long aggregateScheduledNs = 0;
+
+            synchronized (aggregate) {
+                if (aggregate.policyCount > 0) {
+                    params = aggregate.getParamsForVoltDBCall();
+                    aggregateScheduledNs = aggregate.firstScheduledNs;
+                    aggregate.policyCount = 0;
+                }
+            }
+
+            if (params != null) {
+                send(params, aggregateScheduledNs);
+            }
+        }
+    }
+
+    /**
+     * Send one cell's totals to VoltDB.
+     *
+     * @param params
+     * @param scheduledNs
+     */
+    private void send(Object[] params, long scheduledNs) {
+
+        try {
+            ComplainOnErrorCallback coec = new ComplainOnErrorCallback(stats, scheduledNs);
+            voltClient.callProcedure(coec, "ReportAggregatedUsage", params);
+            rowCount.addAndGet(((String[]) params[2]).length);
+        } catch (Exception e) {
+            ConsoleMessageConsumer.msg(e.getMessage());
+        }
+
+    }
+
+    /**
+     * Send our totals every flushMs, until we're stopped.
+     */
+    @Override
+    public void run() {
+
+        while (keepGoing) {
+
+            try {
+                Thread.sleep(flushMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            flush();
+        }
+
+    }
+
+    /**
+     * Stop our flushing thread and send anything that's left.
+     */
+    public void stop() {
+        keepGoing = false;
+        flush();
+    }
+
+    /**
+     * @return How many usage records we've been given
+     */
+    public long getReportCount() {
+        return reportCount.get();
+    }
+
+    /**
+     * @return How many aggregated rows we've sent
+     */
+    public long getRowCount() {
+        return rowCount.get();
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+import org.voltdb.types.TimestampType;
+
+/**
+ * Compares rows per second for ReportSessionUsage (one row per transaction)
+ * against ReportSessionUsageBatch (many rows per transaction). Needs a running
+ * VoltDB with the sandbox schema loaded. Rows are written to cell_activity for
+ * made up sessions with policy 'NONE'.
+ *
+ */
+public class UsageBatchBenchmark {
+
+    /**
+     * @param args hostnames rowCount batchSize cellCount
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 4) {
+            ConsoleMessageConsumer.msg("Usage: UsageBatchBenchmark hostnames rowCount batchSize cellCount");
+            System.exit(1);
+        }
+
+        String hostnames = args[0];
+        int rowCount = Integer.parseInt(args[1]);
+        int batchSize = Integer.parseInt(args[2]);
+        int cellCount = Integer.parseInt(args[3]);
+
+        SendPipeline voltClient = PolicyDataGenerator.connectVoltDB(hostnames);
+        Random r = new Random(42);
+
+        PolicyUsageMessage[] messages = new PolicyUsageMessage[rowCount];
+        TimestampType sessionStartUTC = new TimestampType();
+
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new PolicyUsageMessage(r.nextInt(cellCount), i, sessionStartUTC, "NONE",
+                    r.nextInt(1000));
+        }
+
+        ProcedureStats singleStats = new ProcedureStats("ReportSessionUsage");
+        long startMs = System.currentTimeMillis();
+
+        for (int i = 0; i < messages.length; i++) {
+            ComplainOnErrorCallback coec = new ComplainOnErrorCallback(singleStats, System.nanoTime());
+            voltClient.callProcedure(coec, "ReportSessionUsage", messages[i].getParamsForVoltDBCall());
+        }
+
+        voltClient.drain();
+        long singleMs = Math.max(1, System.currentTimeMillis() - startMs);
+
+        ProcedureStats batchStats = new ProcedureStats("ReportSessionUsageBatch");
+        UsageBatcher batcher = new UsageBatcher(voltClient, cellCount, batchSize, Long.MAX_VALUE, batchStats);
+        startMs = System.currentTimeMillis();
+
+        for (int i = 0; i < messages.length; i++) {
+            batcher.add(messages[i], System.nanoTime());
+        }
+
+        batcher.stop();
+        voltClient.drain();
+        long batchMs = Math.max(1, System.currentTimeMillis() - startMs);
+
+        ConsoleMessageConsumer.msg("Single row: " + rowCount + " rows in " + singleMs + "ms = "
+                + ((rowCount * 1000L) / singleMs) + " rows/sec");
+        ConsoleMessageConsumer.msg(singleStats.reportInterval(singleMs));
+        ConsoleMessageConsumer.msg("Batched (" + batchSize + " per call): " + rowCount + " rows in " + batchMs
+                + "ms = " + ((rowCount * 1000L) / batchMs) + " rows/sec in " + batcher.getBatchCount() + " calls");
+        ConsoleMessageConsumer.msg(batchStats.reportInterval(batchMs));
+
+        voltClient.close();
+    }
+
+}
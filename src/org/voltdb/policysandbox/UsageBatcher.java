@@ -0,0 +1,279 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups usage records by cell and sends them to ReportSessionUsageBatch, so
+ * we pay VoltDB's per transaction overhead once per batch instead of once per
+ * record. A cell's batch is sent when it has 'batchSize' records in it or when
+ * its oldest record is 'maxDelayMs' old, whichever comes first. Can be used by
+ * many threads at once.
+ *
+ */
+public class UsageBatcher implements Runnable {
+
+    /**
+     * Pending records for one cell. Arrays are parallel.
+     */
+    static class CellBatch {
+
+        long cellId;
+        long[] sessionIds;
+        long[] sessionStartUTCMs;
+        String[] policyNames;
+        long[] recordUsages;
+        int count = 0;
+
+        /**
+         * When the oldest record in this batch was scheduled, as per
+         * System.nanoTime(). Used for latency.
+         */
+        long firstScheduledNs;
+
+        /**
+         * When the oldest record in this batch was added, as per
+         * System.currentTimeMillis().
+         */
+        long firstAddedMs;
+
+        CellBatch(long cellId, int batchSize) {
+            this.cellId = cellId;
+            sessionIds = new long[batchSize];
+            sessionStartUTCMs = new long[batchSize];
+            policyNames = new String[batchSize];
+            recordUsages = new long[batchSize];
+        }
+
+        /**
+         * @return the parameters for ReportSessionUsageBatch, trimmed to 'count'
+         */
+        Object[] getParamsForVoltDBCall() {
+            Object[] params = new Object[5];
+            params[0] = cellId;
+            params[1] = Arrays.copyOf(sessionIds, count);
+            params[2] = Arrays.copyOf(sessionStartUTCMs, count);
+            params[3] = Arrays.copyOf(policyNames, count);
+            params[4] = Arrays.copyOf(recordUsages, count);
+            return params;
+        }
+    }
+
+    /**
+     * Our handle to VoltDB
+     */
+    SendPipeline voltClient;
+
+    /**
+     * One batch per cell. Cell ids go from 0 to cellCount -1.
+     */
+    CellBatch[] cellBatches;
+
+    /**
+     * Max records per call.
+     */
+    int batchSize;
+
+    /**
+     * Longest a record waits before being sent.
+     */
+    long maxDelayMs;
+
+    /**
+     * Where we record latency. Can be null.
+     */
+    ProcedureStats stats;
+
+    /**
+     * How many records we've sent.
+     */
+    AtomicLong rowCount = new AtomicLong();
+
+    /**
+     * How many calls we've made.
+     */
+    AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * Set to false to stop our flushing thread.
+     */
+    volatile boolean keepGoing = true;
+
+    /**
+     * Create a batcher. Call 'run' in its own thread to enforce maxDelayMs.
+     *
+     * @param voltClient
+     * @param cellCount
+     * @param batchSize
+     * @param maxDelayMs
+     * @param stats - where we record latency. Can be null.
+     */
+    public UsageBatcher(SendPipeline voltClient, int cellCount, int batchSize, long maxDelayMs, ProcedureStats stats) {
+        super();
+        this.voltClient = voltClient;
+        this.batchSize = batchSize;
+        this.maxDelayMs = maxDelayMs;
+        this.stats = stats;
+
+        cellBatches = new CellBatch[cellCount];
+
+        for (int i = 0; i < cellBatches.length; i++) {
+            cellBatches[i] = new CellBatch(i, batchSize);
+        }
+    }
+
+    /**
+     * Add a usage record, sending its cell's batch if it is now full.
+     *
+     * @param usageMessage
+     * @param scheduledNs - when this record was scheduled, as per
+     *                    System.nanoTime()
+     */
+    public void add(PolicyUsageMessage usageMessage, long scheduledNs) {
+
+        CellBatch batch = cellBatches[(int) usageMessage.getCellId()];
+        Object[] params = null;
+        long batchScheduledNs = 0;
+
+        synchronized (batch) {
+
+            if (batch.count == 0) {
+                batch.firstScheduledNs = scheduledNs;
+                batch.firstAddedMs = System.currentTimeMillis();
+            }
+
+            batch.sessionIds[batch.count] = usageMessage.getSessionId();
+            batch.sessionStartUTCMs[batch.count] = usageMessage.getSessionStartUTC().getTime() / 1000;
+            batch.policyNames[batch.count] = usageMessage.getPolicyName();
+            batch.recordUsages[batch.count] = usageMessage.getRecordUsage();
+            batch.count++;
+
+            if (batch.count == batchSize) {
+                params = batch.getParamsForVoltDBCall();
+                batchScheduledNs = batch.firstScheduledNs;
+                batch.count = 0;
+            }
+        }
+
+        // Send outside the lock, as callProcedure can block on backpressure...
+        if (params != null) {
+            send(params, batchScheduledNs);
+        }
+
+    }
+
+    /**
+     * Send any batch whose oldest record is older than 'maxAgeMs'.
+     *
+     * @param maxAgeMs - 0 means send everything
+     */
+    public void flush(long maxAgeMs) {
+
+        final long now = System.currentTimeMillis();
+
+        for (int i = 0; i < cellBatches.length; i++) {
+
+            CellBatch batch = cellBatches[i];
+            Object[] params = null;
+            long batchScheduledNs = 0;
+
+            synchronized (batch) {
+                if (batch.count > 0 && now - batch.firstAddedMs >= maxAgeMs) {
+                    params = batch.getParamsForVoltDBCall();
+                    batchScheduledNs = batch.firstScheduledNs;
+                    batch.count = 0;
+                }
+            }
+
+            if (params != null) {
+                send(params, batchScheduledNs);
+            }
+        }
+    }
+
+    /**
+     * Send a batch to VoltDB.
+     *
+     * @param params
+     * @param scheduledNs
+     */
+    private void send(Object[] params, long scheduledNs) {
+
+        try {
+            ComplainOnErrorCallback coec = new ComplainOnErrorCallback(stats, scheduledNs);
+            voltClient.callProcedure(coec, "ReportSessionUsageBatch", params);
+            rowCount.addAndGet(((long[]) params[1]).length);
+            batchCount.incrementAndGet();
+        } catch (Exception e) {
+            ConsoleMessageConsumer.msg(e.getMessage());
+        }
+
+    }
+
+    /**
+     * Send batches that have waited for maxDelayMs, until we're stopped.
+     */
+    @Override
+    public void run() {
+
+        final long sleepMs = Math.max(1, maxDelayMs / 2);
+
+        while (keepGoing) {
+
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            flush(maxDelayMs);
+        }
+
+    }
+
+    /**
+     * Stop our flushing thread and send anything that's left.
+     */
+    public void stop() {
+        keepGoing = false;
+        flush(0);
+    }
+
+    /**
+     * @return How many records we've sent
+     */
+    public long getRowCount() {
+        return rowCount.get();
+    }
+
+    /**
+     * @return How many calls to ReportSessionUsageBatch we've made
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+}
@@ -0,0 +1,145 @@
+package org.voltdb.policysandbox;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2021 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.Random;
+
+/**
+ * Key k (counting from 0) is picked with probability proportional to
+ * 1/(k+1)^exponent, so key 0 is the hottest. We use rejection-inversion
+ * sampling (Hormann and Derflinger), which needs no tables and takes constant
+ * time however many keys there are, so it's fine for millions of sessions.
+ *
+ */
+public class ZipfDistribution implements KeyDistribution {
+
+    /**
+     * How many keys there are.
+     */
+    final int n;
+
+    /**
+     * Skew. 0 is uniform, bigger numbers are more skewed.
+     */
+    final double exponent;
+
+    final double hIntegralX1;
+
+    final double hIntegralN;
+
+    final double s;
+
+    /**
+     * @param n        - how many keys there are
+     * @param exponent - 0 or more
+     */
+    public ZipfDistribution(int n, double exponent) {
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    @Override
+    public int next(Random r) {
+
+        while (true) {
+
+            final double u = hIntegralN + r.nextDouble() * (hIntegralX1 - hIntegralN);
+            final double x = hIntegralInverse(u);
+
+            int k = (int) (x + 0.5);
+
+            if (k < 1) {
+                k = 1;
+            } else if (k > n) {
+                k = n;
+            }
+
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                return k - 1;
+            }
+        }
+    }
+
+    /**
+     * @param x
+     * @return x^-exponent
+     */
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    /**
+     * @param x
+     * @return the integral of h from 1 to x
+     */
+    private double hIntegral(double x) {
+        final double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    /**
+     * @param x
+     * @return the inverse of hIntegral
+     */
+    private double hIntegralInverse(double x) {
+
+        double t = x * (1 - exponent);
+
+        if (t < -1) {
+            t = -1;
+        }
+
+        return Math.exp(helper1(t) * x);
+    }
+
+    /**
+     * @param x
+     * @return log(1+x)/x, accurately for x near 0
+     */
+    private static double helper1(double x) {
+
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+
+        return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+    /**
+     * @param x
+     * @return (exp(x)-1)/x, accurately for x near 0
+     */
+    private static double helper2(double x) {
+
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+
+        return 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+    }
+
+}